@@ -37,4 +37,169 @@ public interface LaTeXExportConfiguration
      *      use for converting the LaTeX files to PDF. Default is {@code docker} (exporting using a docker image)
      */
     String getPDFExportHint();
+
+    /**
+     * @return the maximum number of pages displayed at the same time when several pages are exported together (e.g.
+     *      when exporting a whole space). Default is {@code 1} (pages are displayed one after the other)
+     * @since 1.26.2
+     */
+    default int getDisplayThreads()
+    {
+        return 1;
+    }
+
+    /**
+     * @return the maximum number of pages exported together (e.g. when exporting a whole space). An export matching
+     *      more pages fails instead of exporting them. Default is {@code 1000}
+     * @since 1.26.2
+     */
+    default int getMaxDocuments()
+    {
+        return 1000;
+    }
+
+    /**
+     * @return the maximum number of pages converted to LaTeX at the same time when several pages are exported together.
+     *      Default is {@code 1} (pages are converted one after the other, while their content is received)
+     * @since 1.26.2
+     */
+    default int getConversionThreads()
+    {
+        return 1;
+    }
+
+    /**
+     * @return the maximum number of resources (e.g. attached images) fetched at the same time, in the background,
+     *      while the pages using them are converted to LaTeX. {@code 0} fetches the resources one after the other,
+     *      when converting the content using them. Default is {@code 4}
+     * @since 1.26.2
+     */
+    default int getResourceThreads()
+    {
+        return 4;
+    }
+
+    /**
+     * @return the compression level of the text files (e.g. the {@code .tex} files) of the exported zip files, from
+     *      {@code 0} (no compression) to {@code 9} (best compression). Already compressed files (e.g. images) are
+     *      stored without compression. Default is {@code -1} (the default compression level)
+     * @since 1.26.2
+     */
+    default int getZipCompressionLevel()
+    {
+        return -1;
+    }
+
+    /**
+     * @return the maximum number of big text files compressed at the same time when creating the exported zip files.
+     *      Default is {@code 0} (files are compressed one after the other, while they are exported)
+     * @since 1.26.2
+     */
+    default int getZipCompressionThreads()
+    {
+        return 0;
+    }
+
+    /**
+     * @return the maximum number of LaTeX to PDF conversions running at the same time, the other ones waiting in a
+     *      queue. Default is {@code 2}
+     * @since 1.26.2
+     */
+    default int getMaxConversions()
+    {
+        return 2;
+    }
+
+    /**
+     * @return the maximum number of LaTeX to PDF conversions waiting for a free conversion slot. When the queue is
+     *      full new PDF exports fail right away. Default is {@code 50}
+     * @since 1.26.2
+     */
+    default int getConversionQueueSize()
+    {
+        return 50;
+    }
+
+    /**
+     * @return the maximum size in megabytes of the generated PDF files kept to be reused when exporting again
+     *      unchanged documents with the same options. {@code 0} disables the cache. Default is {@code 200}
+     * @since 1.26.2
+     */
+    default long getPDFCacheMaxSize()
+    {
+        return 200;
+    }
+
+    /**
+     * @return the number of hours after which a cached PDF file which hasn't been reused is removed. Default is
+     *      {@code 168} (one week)
+     * @since 1.26.2
+     */
+    default long getPDFCacheMaxAge()
+    {
+        return 168;
+    }
+
+    /**
+     * @return true if the PDF exports should reuse the build directory of the previous export of the same document
+     *      with the same options, so that the files generated by the compilation (aux files, minted cache, etc) are
+     *      not generated again. Default is {@code false}
+     * @since 1.26.2
+     */
+    default boolean isBuildCacheEnabled()
+    {
+        return false;
+    }
+
+    /**
+     * @return the maximum size in megabytes of the kept build directories, the least recently used ones being
+     *      removed first. Default is {@code 1000}
+     * @since 1.26.2
+     */
+    default long getBuildCacheMaxSize()
+    {
+        return 1000;
+    }
+
+    /**
+     * @return the number of minutes after which the temporary files of an export are removed, even if the exported
+     *      file hasn't been downloaded. Default is {@code 60}
+     * @since 1.26.2
+     */
+    default long getExportRetention()
+    {
+        return 60;
+    }
+
+    /**
+     * @return the maximum size in megabytes of the temporary files of the exports, the oldest finished exports being
+     *      removed first. Default is {@code 2000}
+     * @since 1.26.2
+     */
+    default long getTemporaryQuota()
+    {
+        return 2000;
+    }
+
+    /**
+     * @return the number of minutes between two cleanups of the temporary files of the exports. Default is
+     *      {@code 10}
+     * @since 1.26.2
+     */
+    default long getCleanupInterval()
+    {
+        return 10;
+    }
+
+    /**
+     * @return how exports identical to a running one (same document version and options) share the running export
+     *      instead of starting a new one: {@code user} when the export is shared only with the user who started it,
+     *      {@code view} when it's shared with all the users allowed to view the document (only when the exported
+     *      content doesn't depend on the user) and {@code none} to never share exports. Default is {@code user}
+     * @since 1.26.2
+     */
+    default String getJobDeduplication()
+    {
+        return "user";
+    }
 }
@@ -20,25 +20,35 @@
 package org.xwiki.contrib.latex.internal.export;
 
 import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 
+import org.xwiki.contrib.latex.export.LaTeXExportConfiguration;
+import org.xwiki.contrib.latex.internal.output.IsolatedContextExecutor;
 import org.xwiki.contrib.latex.internal.output.LaTeXOutputFilter;
 import org.xwiki.contrib.latex.internal.output.LaTeXOutputFilterStreamFactory;
 import org.xwiki.display.internal.DocumentDisplayer;
 import org.xwiki.display.internal.DocumentDisplayerParameters;
-import org.xwiki.environment.Environment;
 import org.xwiki.filter.FilterEventParameters;
+import org.xwiki.filter.FilterException;
 import org.xwiki.filter.output.OutputFilterStream;
 import org.xwiki.filter.output.OutputFilterStreamFactory;
 import org.xwiki.job.event.status.JobProgressManager;
 import org.xwiki.model.reference.DocumentReference;
-import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSet;
 import org.xwiki.rendering.block.XDOM;
 import org.xwiki.rendering.listener.Listener;
 import org.xwiki.rendering.syntax.Syntax;
@@ -59,6 +69,16 @@ public abstract class AbstractLaTeXExporter implements LaTeXExporter
 
     protected static final String ZIPFILENAME = "Index.zip";
 
+    private static final String ENTITIES_PROPERTY = "entities";
+
+    private static final String THREADS_PROPERTY = "threads";
+
+    private static final String RESOURCE_THREADS_PROPERTY = "resourceThreads";
+
+    private static final String COMPRESSION_LEVEL_PROPERTY = "compressionLevel";
+
+    private static final String COMPRESSION_THREADS_PROPERTY = "compressionThreads";
+
     @Inject
     protected JobProgressManager progressManager;
 
@@ -74,7 +94,16 @@ public abstract class AbstractLaTeXExporter implements LaTeXExporter
     private OutputFilterStreamFactory factory;
 
     @Inject
-    private Environment environment;
+    private ExportedDocumentCollector documentCollector;
+
+    @Inject
+    private LaTeXExportJanitor janitor;
+
+    @Inject
+    private IsolatedContextExecutor contextExecutor;
+
+    @Inject
+    private LaTeXExportConfiguration configuration;
 
     @Override
     public File export(DocumentReference documentReference, Map<String, Object> exportOptions) throws Exception
@@ -89,6 +118,7 @@ public abstract class AbstractLaTeXExporter implements LaTeXExporter
                 -> exportInternal(documentReference, exportOptions, xcontext), 3, this);
         } finally {
             xcontext.setURLFactory(currentURLFactory);
+            this.janitor.releaseDirectories();
         }
     }
 
@@ -108,45 +138,157 @@ public abstract class AbstractLaTeXExporter implements LaTeXExporter
     protected void performExportInternal(DocumentReference documentReference, Map<String, Object> properties,
         XWikiContext xcontext) throws Exception
     {
+        List<DocumentReference> documents = this.documentCollector.collect(documentReference, getEntities(properties));
+        // Not something users should be able to choose
+        properties.put(THREADS_PROPERTY, this.configuration.getConversionThreads());
+        properties.put(RESOURCE_THREADS_PROPERTY, this.configuration.getResourceThreads());
+        properties.put(COMPRESSION_LEVEL_PROPERTY, this.configuration.getZipCompressionLevel());
+        properties.put(COMPRESSION_THREADS_PROPERTY, this.configuration.getZipCompressionThreads());
+
         try (OutputFilterStream streamFilter = this.factory.createOutputFilterStream(properties)) {
             LaTeXOutputFilter filter = (LaTeXOutputFilter) streamFilter.getFilter();
 
-            List<SpaceReference> spaces = documentReference.getSpaceReferences();
+            String wiki = documentReference.getWikiReference().getName();
+            filter.beginWiki(wiki, FilterEventParameters.EMPTY);
+            List<String> spaces = new ArrayList<>();
+            exportDocuments(documents, filter, spaces, xcontext);
+            closeSpaces(filter, spaces, 0);
+            filter.endWiki(wiki, FilterEventParameters.EMPTY);
+        }
+    }
+
+    private EntityReferenceSet getEntities(Map<String, Object> properties)
+    {
+        Object entities = properties.get(ENTITIES_PROPERTY);
+        return entities instanceof EntityReferenceSet ? (EntityReferenceSet) entities : null;
+    }
+
+    /**
+     * Send the documents to the filter one after the other. When several threads are configured, the next documents
+     * are displayed in parallel while the current one is converted to LaTeX.
+     */
+    private void exportDocuments(List<DocumentReference> documents, LaTeXOutputFilter filter, List<String> spaces,
+        XWikiContext xcontext) throws Exception
+    {
+        int threads = Math.min(Math.max(this.configuration.getDisplayThreads(), 1), documents.size());
+        ExecutorService executor = threads > 1 ? this.contextExecutor.createExecutor("LaTeX export", threads) : null;
+
+        this.progressManager.pushLevelProgress(documents.size(), this);
+        try {
+            // The documents being displayed, in the order in which they are exported
+            Deque<Future<XDOM>> displayed = new ArrayDeque<>(threads);
+            for (int i = 0; i < documents.size(); ++i) {
+                // One step per document, split in the display and the conversion of the document
+                this.progressManager.startStep(this);
+                this.progressManager.pushLevelProgress(2, this);
+                try {
+                    DocumentReference documentReference = documents.get(i);
+                    this.progressManager.startStep(this, "Render the document to export");
+                    XDOM xdom;
+                    if (executor != null) {
+                        // Don't display more documents in advance than there are threads to keep memory under control
+                        while (displayed.size() < threads && i + displayed.size() < documents.size()) {
+                            DocumentReference next = documents.get(i + displayed.size());
+                            displayed.add(executor.submit(this.contextExecutor.isolate(getDisplayTask(next))));
+                        }
+                        xdom = getResult(displayed.removeFirst());
+                        xcontext.setDoc(xcontext.getWiki().getDocument(documentReference, xcontext));
+                    } else {
+                        xdom = getXDOM(documentReference, xcontext);
+                    }
+                    this.progressManager.endStep(this);
+
+                    this.progressManager.startStep(this, "Convert the document to LaTeX");
+                    switchSpaces(filter, spaces, documentReference);
+                    filter.beginWikiDocument(documentReference.getName(), FilterEventParameters.EMPTY);
+                    xdom.traverse((Listener) filter);
+                    filter.endWikiDocument(documentReference.getName(), FilterEventParameters.EMPTY);
+                    this.progressManager.endStep(this);
+                } finally {
+                    this.progressManager.popLevelProgress(this);
+                }
 
-            filter.beginWiki(documentReference.getWikiReference().getName(), FilterEventParameters.EMPTY);
-            for (SpaceReference spaceElement : spaces) {
-                filter.beginWikiSpace(spaceElement.getName(), FilterEventParameters.EMPTY);
+                this.progressManager.endStep(this);
             }
-            filter.beginWikiDocument(documentReference.getName(), FilterEventParameters.EMPTY);
-            getXDOM(documentReference, xcontext).traverse((Listener) filter);
-            filter.endWikiDocument(documentReference.getName(), FilterEventParameters.EMPTY);
-            for (SpaceReference spaceElement : spaces) {
-                filter.endWikiSpace(spaceElement.getName(), FilterEventParameters.EMPTY);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
             }
-            filter.endWiki(documentReference.getWikiReference().getName(), FilterEventParameters.EMPTY);
+            this.progressManager.popLevelProgress(this);
+        }
+    }
+
+    private Callable<XDOM> getDisplayTask(DocumentReference documentReference)
+    {
+        return () -> {
+            XWikiContext workerContext = this.xcontextProvider.get();
+            workerContext.setURLFactory(new ExternalServletURLFactory(workerContext));
+            XWikiDocument document = workerContext.getWiki().getDocument(documentReference, workerContext);
+            workerContext.setDoc(document);
+
+            return display(document);
+        };
+    }
+
+    private XDOM getResult(Future<XDOM> future) throws Exception
+    {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Close the spaces which don't contain the passed document and open its missing parent spaces.
+     */
+    private void switchSpaces(LaTeXOutputFilter filter, List<String> spaces, DocumentReference documentReference)
+        throws FilterException
+    {
+        List<String> documentSpaces = documentReference.getSpaceReferences().stream().map(EntityReference::getName)
+            .collect(Collectors.toList());
+
+        int common = 0;
+        while (common < spaces.size() && common < documentSpaces.size()
+            && spaces.get(common).equals(documentSpaces.get(common)))
+        {
+            ++common;
+        }
+        closeSpaces(filter, spaces, common);
+
+        for (String space : documentSpaces.subList(common, documentSpaces.size())) {
+            filter.beginWikiSpace(space, FilterEventParameters.EMPTY);
+            spaces.add(space);
+        }
+    }
+
+    private void closeSpaces(LaTeXOutputFilter filter, List<String> spaces, int size) throws FilterException
+    {
+        while (spaces.size() > size) {
+            filter.endWikiSpace(spaces.remove(spaces.size() - 1), FilterEventParameters.EMPTY);
         }
     }
 
     private XDOM getXDOM(DocumentReference documentReference, XWikiContext xcontext) throws Exception
     {
-        // Get document
-        this.progressManager.startStep(this, "Get the document to export");
         XWikiDocument document = xcontext.getWiki().getDocument(documentReference, xcontext);
         xcontext.setDoc(document);
-        this.progressManager.endStep(this);
 
-        // Display document
-        this.progressManager.startStep(this, "Render the document to export");
+        return display(document);
+    }
+
+    private XDOM display(XWikiDocument document)
+    {
         DocumentDisplayerParameters displayParameters = new DocumentDisplayerParameters();
         displayParameters.setExecutionContextIsolated(true);
         displayParameters.setTransformationContextIsolated(true);
         displayParameters.setContentTranslated(true);
         displayParameters.setTargetSyntax(Syntax.PLAIN_1_0);
 
-        XDOM xdom = this.documentDisplayer.display(document, displayParameters);
-        this.progressManager.endStep(this);
-
-        return xdom;
+        return this.documentDisplayer.display(document, displayParameters);
     }
 
     /**
@@ -154,9 +296,7 @@ public abstract class AbstractLaTeXExporter implements LaTeXExporter
      */
     protected File generateTemporaryDirectory()
     {
-        File latexDir = new File(this.environment.getTemporaryDirectory(), "latex");
-        File uniqueTmpDir = new File(latexDir, UUID.randomUUID().toString());
-        uniqueTmpDir.mkdirs();
-        return uniqueTmpDir;
+        // The directory is removed by the janitor once the exported file is not needed anymore
+        return this.janitor.createDirectory();
     }
 }
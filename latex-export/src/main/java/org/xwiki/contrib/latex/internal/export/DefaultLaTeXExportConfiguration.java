@@ -48,4 +48,100 @@ public class DefaultLaTeXExportConfiguration implements LaTeXExportConfiguration
     {
         return this.configurationSource.getProperty(PREFIX + "hint", "docker");
     }
+
+    @Override
+    public int getDisplayThreads()
+    {
+        return this.configurationSource.getProperty(PREFIX + "displayThreads", 1);
+    }
+
+    @Override
+    public int getMaxDocuments()
+    {
+        return this.configurationSource.getProperty(PREFIX + "maxDocuments", 1000);
+    }
+
+    @Override
+    public int getConversionThreads()
+    {
+        return this.configurationSource.getProperty(PREFIX + "conversionThreads", 1);
+    }
+
+    @Override
+    public int getResourceThreads()
+    {
+        return this.configurationSource.getProperty(PREFIX + "resourceThreads", 4);
+    }
+
+    @Override
+    public int getZipCompressionLevel()
+    {
+        return this.configurationSource.getProperty(PREFIX + "zip.compressionLevel", -1);
+    }
+
+    @Override
+    public int getZipCompressionThreads()
+    {
+        return this.configurationSource.getProperty(PREFIX + "zip.compressionThreads", 0);
+    }
+
+    @Override
+    public int getMaxConversions()
+    {
+        return this.configurationSource.getProperty(PREFIX + "maxConversions", 2);
+    }
+
+    @Override
+    public int getConversionQueueSize()
+    {
+        return this.configurationSource.getProperty(PREFIX + "conversionQueueSize", 50);
+    }
+
+    @Override
+    public long getPDFCacheMaxSize()
+    {
+        return this.configurationSource.getProperty(PREFIX + "cache.maxSize", 200L);
+    }
+
+    @Override
+    public long getPDFCacheMaxAge()
+    {
+        return this.configurationSource.getProperty(PREFIX + "cache.maxAge", 168L);
+    }
+
+    @Override
+    public boolean isBuildCacheEnabled()
+    {
+        return this.configurationSource.getProperty(PREFIX + "buildCache", false);
+    }
+
+    @Override
+    public long getBuildCacheMaxSize()
+    {
+        return this.configurationSource.getProperty(PREFIX + "buildCache.maxSize", 1000L);
+    }
+
+    @Override
+    public long getExportRetention()
+    {
+        return this.configurationSource.getProperty(PREFIX + "temporary.retention", 60L);
+    }
+
+    @Override
+    public long getTemporaryQuota()
+    {
+        return this.configurationSource.getProperty(PREFIX + "temporary.quota", 2000L);
+    }
+
+    @Override
+    public long getCleanupInterval()
+    {
+        return this.configurationSource.getProperty(PREFIX + "temporary.cleanupInterval", 10L);
+    }
+
+    @Override
+    public String getJobDeduplication()
+    {
+        return this.configurationSource.getProperty(PREFIX + "jobDeduplication", "user");
+    }
 }
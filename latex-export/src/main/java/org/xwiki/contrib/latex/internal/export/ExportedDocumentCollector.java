@@ -0,0 +1,209 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.export;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.latex.export.LaTeXExportConfiguration;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceProvider;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.EntityReferenceSet;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryFilter;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Find the documents to export together in a single LaTeX package.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+@Component(roles = ExportedDocumentCollector.class)
+@Singleton
+public class ExportedDocumentCollector
+{
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    @Named("hidden")
+    private QueryFilter hiddenFilter;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> documentResolver;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Inject
+    private AuthorizationManager authorization;
+
+    @Inject
+    private EntityReferenceProvider entityReferenceProvider;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private LaTeXExportConfiguration configuration;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * @param documentReference the document from which the export has been started
+     * @param entities the entities to export or {@code null} to export only the passed document. When no space is
+     *     included, the space of the passed document is exported
+     * @return the documents to export, in the order in which they should appear in the export (parent pages before
+     *     their children)
+     * @throws QueryException when failing to find the documents of the wiki, or when there are more documents to
+     *     export than allowed by {@link LaTeXExportConfiguration#getMaxDocuments()}
+     */
+    public List<DocumentReference> collect(DocumentReference documentReference, EntityReferenceSet entities)
+        throws QueryException
+    {
+        if (entities == null) {
+            return Collections.singletonList(documentReference);
+        }
+
+        EntityReferenceSet exportedEntities = entities;
+        if (entities instanceof ExportedSpaces && ((ExportedSpaces) entities).getSpaces().isEmpty()) {
+            // An empty set would match the whole wiki
+            this.logger.debug("No space to export, exporting the space of [{}]", documentReference);
+            exportedEntities = new ExportedSpaces().includes(documentReference.getLastSpaceReference());
+        }
+
+        WikiReference wikiReference = documentReference.getWikiReference();
+        Query query = createQuery(exportedEntities);
+        query.setWiki(wikiReference.getName());
+        query.addFilter(this.hiddenFilter);
+
+        // The query might return more documents than the exported ones (e.g. when the space names contain LIKE
+        // wildcards) but never less
+        DocumentReference userReference = this.xcontextProvider.get().getUserReference();
+        List<DocumentReference> documents = new ArrayList<>();
+        int maxDocuments = this.configuration.getMaxDocuments();
+        for (Object fullName : query.execute()) {
+            DocumentReference reference = this.documentResolver.resolve((String) fullName, wikiReference);
+            if (exportedEntities.matches(reference)
+                && this.authorization.hasAccess(Right.VIEW, userReference, reference))
+            {
+                if (documents.size() >= maxDocuments) {
+                    throw new QueryException(String.format("Too many documents to export (limit is [%d])",
+                        maxDocuments), query, null);
+                }
+                documents.add(reference);
+            }
+        }
+
+        if (documents.isEmpty()) {
+            this.logger.warn("No document matching the entities to export, only [{}] will be exported",
+                documentReference);
+            return Collections.singletonList(documentReference);
+        }
+
+        documents.sort(Comparator.comparing(this::getPath, ExportedDocumentCollector::comparePaths)
+            .thenComparing(DocumentReference::getName));
+
+        return documents;
+    }
+
+    /**
+     * Only look for the documents of the exported spaces when they are known, instead of going through the whole
+     * wiki.
+     */
+    private Query createQuery(EntityReferenceSet entities) throws QueryException
+    {
+        StringBuilder statement = new StringBuilder("select distinct doc.fullName from Document doc");
+        Map<String, Object> parameters = new HashMap<>();
+        if (entities instanceof ExportedSpaces) {
+            List<EntityReference> spaces = ((ExportedSpaces) entities).getSpaces();
+            for (int i = 0; i < spaces.size(); ++i) {
+                statement.append(i == 0 ? " where (" : " or ");
+                String space = this.localSerializer.serialize(spaces.get(i));
+                statement.append(String.format("doc.space = :space%d or doc.space like :prefix%d", i, i));
+                parameters.put("space" + i, space);
+                parameters.put("prefix" + i, space + ".%");
+            }
+            if (!spaces.isEmpty()) {
+                statement.append(')');
+            }
+        }
+
+        Query query = this.queryManager.createQuery(statement.toString(), Query.XWQL);
+        parameters.forEach(query::bindValue);
+
+        return query;
+    }
+
+    /**
+     * @return the names of the spaces and of the document, where nested documents are considered as pages of the
+     *     hierarchy (e.g. {@code A.B.WebHome} is the page {@code [A, B]})
+     */
+    private List<String> getPath(DocumentReference reference)
+    {
+        List<String> path = reference.getSpaceReferences().stream().map(EntityReference::getName)
+            .collect(Collectors.toList());
+        String defaultName = this.entityReferenceProvider.getDefaultReference(EntityType.DOCUMENT).getName();
+        if (!defaultName.equals(reference.getName())) {
+            path.add(reference.getName());
+        }
+        return path;
+    }
+
+    private static int comparePaths(List<String> path1, List<String> path2)
+    {
+        int size = Math.min(path1.size(), path2.size());
+        for (int i = 0; i < size; ++i) {
+            int result = path1.get(i).compareTo(path2.get(i));
+            if (result != 0) {
+                return result;
+            }
+        }
+
+        // Parents first
+        return Integer.compare(path1.size(), path2.size());
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.export;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSet;
+
+/**
+ * The spaces to export, including all their pages and nested spaces. Remembers the included spaces so that only the
+ * documents located in them are looked for.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+public class ExportedSpaces extends EntityReferenceSet
+{
+    private final List<EntityReference> spaces = new ArrayList<>();
+
+    @Override
+    public EntityReferenceSet includes(EntityReference reference)
+    {
+        this.spaces.add(reference);
+
+        return super.includes(reference);
+    }
+
+    /**
+     * @return the included spaces
+     */
+    public List<EntityReference> getSpaces()
+    {
+        return Collections.unmodifiableList(this.spaces);
+    }
+}
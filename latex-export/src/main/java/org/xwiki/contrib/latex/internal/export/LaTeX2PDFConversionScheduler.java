@@ -0,0 +1,269 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.export;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.latex.export.LaTeXExportConfiguration;
+import org.xwiki.contrib.latex.pdf.LaTeX2PDFException;
+
+/**
+ * Limits the number of LaTeX to PDF conversions running at the same time. Conversions that cannot start immediately
+ * wait in a bounded queue in which the users are served in turn, so that a user exporting many documents doesn't
+ * delay the exports of the other users.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+@Component(roles = LaTeX2PDFConversionScheduler.class)
+@Singleton
+public class LaTeX2PDFConversionScheduler
+{
+    @Inject
+    private LaTeXExportConfiguration configuration;
+
+    private final Lock lock = new ReentrantLock();
+
+    private final Condition changed = this.lock.newCondition();
+
+    /**
+     * The waiting conversions of each user, with the user to serve next first.
+     */
+    private final Map<String, Deque<Waiter>> waiters = new LinkedHashMap<>();
+
+    private int waiting;
+
+    private int running;
+
+    /**
+     * Execute the passed conversion as soon as there's a free conversion slot.
+     *
+     * @param <T> the type of the conversion result
+     * @param owner the identifier of the user asking for the conversion, used to share the conversion slots fairly
+     * @param conversion the conversion to execute
+     * @param positionListener called with the (1-based) position of the conversion in the queue each time it changes,
+     *            and with {@code 0} when the conversion starts
+     * @return the result of the conversion
+     * @throws LaTeX2PDFException when the queue is full or the conversion failed
+     * @throws InterruptedException when the thread is interrupted while waiting for a conversion slot
+     */
+    public <T> T execute(String owner, Callable<T> conversion, IntConsumer positionListener)
+        throws LaTeX2PDFException, InterruptedException
+    {
+        acquire(owner, positionListener);
+
+        try {
+            return conversion.call();
+        } catch (LaTeX2PDFException | InterruptedException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new LaTeX2PDFException("Failed to execute the PDF conversion", e);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * @return the number of conversions waiting for a conversion slot
+     */
+    public int getWaitingCount()
+    {
+        this.lock.lock();
+        try {
+            return this.waiting;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of conversions currently running
+     */
+    public int getRunningCount()
+    {
+        this.lock.lock();
+        try {
+            return this.running;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void acquire(String owner, IntConsumer positionListener) throws LaTeX2PDFException, InterruptedException
+    {
+        this.lock.lock();
+        try {
+            if (this.waiting == 0 && this.running < getMaxRunning()) {
+                this.running++;
+            } else {
+                await(owner, positionListener);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        // Notified for each granted slot, including the ones granted without waiting
+        positionListener.accept(0);
+    }
+
+    /**
+     * Wait in the queue until a conversion slot is given to the passed owner. Must be called with the lock held.
+     */
+    private void await(String owner, IntConsumer positionListener) throws LaTeX2PDFException, InterruptedException
+    {
+        int maxWaiting = this.configuration.getConversionQueueSize();
+        if (this.waiting >= maxWaiting) {
+            throw new LaTeX2PDFException(String.format("Too many PDF exports are waiting to be converted (limit is"
+                + " [%d]). Please try again later.", maxWaiting));
+        }
+
+        Waiter waiter = new Waiter();
+        this.waiters.computeIfAbsent(owner, key -> new ArrayDeque<>()).add(waiter);
+        this.waiting++;
+        // The position of the later conversions of the other users changed
+        this.changed.signalAll();
+
+        try {
+            int position = 0;
+            while (!waiter.granted) {
+                int newPosition = getPosition(owner, waiter);
+                if (newPosition != position) {
+                    position = newPosition;
+                    positionListener.accept(position);
+                }
+                this.changed.await();
+            }
+        } catch (InterruptedException e) {
+            if (waiter.granted) {
+                // The slot has been given to us in the meantime, give it to the next one
+                this.running--;
+                dispatch();
+            } else {
+                remove(owner, waiter);
+            }
+
+            throw e;
+        }
+    }
+
+    private void release()
+    {
+        this.lock.lock();
+        try {
+            this.running--;
+            dispatch();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Give the free conversion slots to the waiting conversions, one user after the other.
+     */
+    private void dispatch()
+    {
+        int maxRunning = getMaxRunning();
+        while (this.running < maxRunning && !this.waiters.isEmpty()) {
+            Iterator<Map.Entry<String, Deque<Waiter>>> iterator = this.waiters.entrySet().iterator();
+            Map.Entry<String, Deque<Waiter>> next = iterator.next();
+            iterator.remove();
+
+            next.getValue().poll().granted = true;
+            this.waiting--;
+            this.running++;
+
+            // Move the user at the end of the line
+            if (!next.getValue().isEmpty()) {
+                this.waiters.put(next.getKey(), next.getValue());
+            }
+        }
+
+        this.changed.signalAll();
+    }
+
+    private void remove(String owner, Waiter waiter)
+    {
+        Deque<Waiter> ownerWaiters = this.waiters.get(owner);
+        if (ownerWaiters != null && ownerWaiters.remove(waiter)) {
+            this.waiting--;
+            if (ownerWaiters.isEmpty()) {
+                this.waiters.remove(owner);
+            }
+            // The position of the others changed
+            this.changed.signalAll();
+        }
+    }
+
+    /**
+     * Compute the position of the passed waiter knowing that users are served in turn.
+     */
+    private int getPosition(String owner, Waiter waiter)
+    {
+        int index = 0;
+        for (Waiter ownerWaiter : this.waiters.get(owner)) {
+            if (ownerWaiter == waiter) {
+                break;
+            }
+            index++;
+        }
+
+        // Each user is served once per round: the waiter is served during the round matching its index, after the
+        // users in front of its owner.
+        int position = 1;
+        boolean before = true;
+        for (Map.Entry<String, Deque<Waiter>> entry : this.waiters.entrySet()) {
+            if (entry.getKey().equals(owner)) {
+                before = false;
+                position += index;
+            } else {
+                int size = entry.getValue().size();
+                position += Math.min(size, index);
+                if (before && size > index) {
+                    position++;
+                }
+            }
+        }
+
+        return position;
+    }
+
+    private int getMaxRunning()
+    {
+        return Math.max(1, this.configuration.getMaxConversions());
+    }
+
+    private static final class Waiter
+    {
+        private boolean granted;
+    }
+}
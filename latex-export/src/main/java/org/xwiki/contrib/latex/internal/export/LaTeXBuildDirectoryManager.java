@@ -0,0 +1,124 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.export;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.latex.export.LaTeXExportConfiguration;
+import org.xwiki.contrib.latex.internal.output.FileCache;
+import org.xwiki.contrib.latex.internal.output.HashUtils;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Keeps one build directory per exported document and export options, so that the files generated by a previous
+ * compilation (aux files, minted cache, etc) can be reused by the next export of the same document. The least
+ * recently used directories are removed when they take too much space.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+@Component(roles = LaTeXBuildDirectoryManager.class)
+@Singleton
+public class LaTeXBuildDirectoryManager implements Initializable
+{
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private LaTeXExportConfiguration configuration;
+
+    @Inject
+    private Logger logger;
+
+    private FileCache directories;
+
+    /**
+     * The build directories currently used by an export, which cannot be removed.
+     */
+    private final Map<File, FileCache.Entry> lockedDirectories = new ConcurrentHashMap<>();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.directories =
+            new FileCache(new File(this.environment.getTemporaryDirectory(), "latex/builds").toPath(), this.logger);
+    }
+
+    /**
+     * Get the build directory of the passed document and export options and prevent other exports from using it
+     * until {@link #unlock(File)} is called.
+     *
+     * @param documentReference the exported document
+     * @param exportOptions the export options
+     * @return the build directory, or {@code null} if it's already used by another export
+     */
+    public File lock(DocumentReference documentReference, Map<String, Object> exportOptions)
+    {
+        FileCache.Entry entry = this.directories.pin(getKey(documentReference, exportOptions));
+        File directory = entry.getFile();
+        if (this.lockedDirectories.putIfAbsent(directory, entry) != null) {
+            entry.close();
+
+            return null;
+        }
+
+        directory.mkdirs();
+
+        return directory;
+    }
+
+    /**
+     * Let other exports use the passed build directory, and remove the least recently used build directories if
+     * needed.
+     *
+     * @param directory the build directory returned by {@link #lock(DocumentReference, Map)}
+     */
+    public void unlock(File directory)
+    {
+        // Remember that the directory was used recently, even after a restart
+        directory.setLastModified(System.currentTimeMillis());
+        FileCache.Entry entry = this.lockedDirectories.remove(directory);
+        if (entry != null) {
+            entry.close();
+        }
+
+        this.directories.evict(this.configuration.getBuildCacheMaxSize() * MEGABYTE, 0);
+    }
+
+    private String getKey(DocumentReference documentReference, Map<String, Object> exportOptions)
+    {
+        // The options which cannot be serialized are ignored: sharing the build directory is still correct since all
+        // the files are written again, only less efficient.
+        return HashUtils.hash(String.format("%s\0%s", documentReference,
+            LaTeXExportUtils.serializeOptions(exportOptions, false)));
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.latex.export.LaTeXExportConfiguration;
+import org.xwiki.environment.Environment;
+
+/**
+ * Creates the temporary directories used by the exports and regularly removes the ones which are not needed anymore:
+ * when the exported file has been downloaded, when they expired or when they take too much space.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+@Component(roles = LaTeXExportJanitor.class)
+@Singleton
+public class LaTeXExportJanitor implements LaTeXExportTemporaryFilesMBean, Initializable, Disposable
+{
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    /**
+     * Time during which a downloaded export can be downloaded again (e.g. when reloading the PDF in the browser).
+     */
+    private static final long DOWNLOADED_RETENTION = TimeUnit.MINUTES.toMillis(5);
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private LaTeXExportConfiguration configuration;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * The directories used by a running export, associated with the thread performing the export.
+     */
+    private final Map<File, Thread> activeDirectories = new ConcurrentHashMap<>();
+
+    /**
+     * The directories whose exported file has been downloaded, with the time of the first download.
+     */
+    private final Map<File, Long> downloadedDirectories = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService executor;
+
+    private ObjectName objectName;
+
+    private volatile long diskUsage;
+
+    private volatile int directoryCount;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+            new BasicThreadFactory.Builder().namingPattern("LaTeX export janitor").daemon(true).build());
+        long interval = Math.max(1, this.configuration.getCleanupInterval());
+        this.executor.scheduleWithFixedDelay(this::cleanup, interval, interval, TimeUnit.MINUTES);
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            this.objectName = new ObjectName("org.xwiki.contrib.latex:type=LaTeXExportTemporaryFiles");
+            if (!server.isRegistered(this.objectName)) {
+                server.registerMBean(new StandardMBean(this, LaTeXExportTemporaryFilesMBean.class),
+                    this.objectName);
+            }
+        } catch (JMException e) {
+            this.logger.warn("Failed to register the LaTeX export temporary files MBean. Root cause: [{}]",
+                ExceptionUtils.getRootCauseMessage(e));
+            this.objectName = null;
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.executor.shutdownNow();
+
+        if (this.objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+            } catch (JMException e) {
+                this.logger.debug("Failed to unregister the LaTeX export temporary files MBean", e);
+            }
+        }
+    }
+
+    /**
+     * Create a new temporary directory for the export performed by the current thread. The directory won't be
+     * removed before {@link #releaseDirectories()} is called from the same thread.
+     *
+     * @return the new directory
+     */
+    public File createDirectory()
+    {
+        File directory = new File(getRootDirectory(), UUID.randomUUID().toString());
+        this.activeDirectories.put(directory, Thread.currentThread());
+        directory.mkdirs();
+
+        return directory;
+    }
+
+    /**
+     * Indicate that the export performed by the current thread is finished so that the directories it created can be
+     * removed when they are not needed anymore.
+     */
+    public void releaseDirectories()
+    {
+        Thread thread = Thread.currentThread();
+        this.activeDirectories.values().removeIf(thread::equals);
+    }
+
+    /**
+     * Indicate that the passed exported file has been downloaded so that its directory can be removed soon.
+     *
+     * @param file the exported file
+     */
+    public void markDownloaded(File file)
+    {
+        File directory = getExportDirectory(file);
+        if (directory != null) {
+            this.downloadedDirectories.putIfAbsent(directory, System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    public long getDiskUsage()
+    {
+        return this.diskUsage;
+    }
+
+    @Override
+    public int getDirectoryCount()
+    {
+        return this.directoryCount;
+    }
+
+    @Override
+    public long getQuota()
+    {
+        return this.configuration.getTemporaryQuota() * MEGABYTE;
+    }
+
+    /**
+     * Remove the directories which are not needed anymore and make sure the remaining ones don't exceed the quota.
+     */
+    void cleanup()
+    {
+        try {
+            cleanupInternal();
+        } catch (Exception e) {
+            // Make sure the next cleanups are still scheduled
+            this.logger.error("Failed to clean the LaTeX export temporary directories", e);
+        }
+    }
+
+    private void cleanupInternal()
+    {
+        File[] children = getRootDirectory().listFiles(file -> file.isDirectory() && isUUID(file.getName()));
+        if (children == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long expiration = now - TimeUnit.MINUTES.toMillis(this.configuration.getExportRetention());
+        List<File> remaining = new ArrayList<>();
+        for (File directory : children) {
+            if (this.activeDirectories.containsKey(directory)) {
+                remaining.add(directory);
+            } else {
+                Long downloaded = this.downloadedDirectories.get(directory);
+                if ((downloaded != null && downloaded < now - DOWNLOADED_RETENTION)
+                    || directory.lastModified() < expiration)
+                {
+                    delete(directory);
+                } else {
+                    remaining.add(directory);
+                }
+            }
+        }
+
+        // Remove the oldest directories of the finished exports until the quota is respected. The modification dates
+        // are read before sorting since the running exports keep modifying their directories.
+        Map<File, Long> modificationDates = new HashMap<>();
+        remaining.forEach(directory -> modificationDates.put(directory, directory.lastModified()));
+        remaining.sort(Comparator.comparing(modificationDates::get));
+        long[] sizes = remaining.stream().mapToLong(this::sizeOf).toArray();
+        long usage = Arrays.stream(sizes).sum();
+        long quota = getQuota();
+        int count = remaining.size();
+        for (int i = 0; i < remaining.size() && usage > quota; i++) {
+            File directory = remaining.get(i);
+            if (!this.activeDirectories.containsKey(directory) && delete(directory)) {
+                usage -= sizes[i];
+                count--;
+            }
+        }
+        if (usage > quota) {
+            this.logger.warn("The LaTeX export temporary directories use [{}] bytes, more than the [{}] bytes quota,"
+                + " because of running exports", usage, quota);
+        }
+
+        this.diskUsage = usage;
+        this.directoryCount = count;
+    }
+
+    private long sizeOf(File directory)
+    {
+        long size;
+        try {
+            size = FileUtils.sizeOfDirectory(directory);
+        } catch (Exception e) {
+            // The files of a running export can be removed while computing the size, don't skip the whole cleanup
+            this.logger.debug("Failed to compute the size of the LaTeX export directory [{}]. Root cause: [{}]",
+                directory, ExceptionUtils.getRootCauseMessage(e));
+            size = 0;
+        }
+
+        return size;
+    }
+
+    private boolean delete(File directory)
+    {
+        this.downloadedDirectories.remove(directory);
+        try {
+            FileUtils.deleteDirectory(directory);
+
+            return true;
+        } catch (IOException e) {
+            this.logger.warn("Failed to delete the LaTeX export temporary directory [{}]. Root cause: [{}]",
+                directory, ExceptionUtils.getRootCauseMessage(e));
+
+            return false;
+        }
+    }
+
+    /**
+     * @return the directory created by {@link #createDirectory()} containing the passed file
+     */
+    private File getExportDirectory(File file)
+    {
+        File root = getRootDirectory();
+        for (File current = file.getAbsoluteFile(); current != null; current = current.getParentFile()) {
+            if (root.equals(current.getParentFile())) {
+                return isUUID(current.getName()) ? current : null;
+            }
+        }
+
+        return null;
+    }
+
+    private File getRootDirectory()
+    {
+        return new File(this.environment.getTemporaryDirectory(), "latex").getAbsoluteFile();
+    }
+
+    private boolean isUUID(String name)
+    {
+        try {
+            return UUID.fromString(name).toString().equals(name);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
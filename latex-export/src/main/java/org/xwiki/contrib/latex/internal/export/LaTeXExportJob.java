@@ -57,6 +57,8 @@ public class LaTeXExportJob extends AbstractJob<LaTeXExportJobRequest, LaTeXExpo
     {
         File result = getExporter().export(this.request.getReference(), this.request.getExportOptions());
 
+        // Compute the entity tag of the result before publishing it so that its first download doesn't have to
+        getStatus().setResultETag(LaTeXExportUtils.computeETag(result));
         // Set the result file in the Job status so that it can be accessed from the export.vm template.
         getStatus().setResultFile(result);
     }
@@ -21,6 +21,7 @@ package org.xwiki.contrib.latex.internal.export;
 
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -28,15 +29,21 @@ import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
+import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.context.concurrent.ContextStoreManager;
+import org.xwiki.contrib.latex.export.LaTeXExportConfiguration;
+import org.xwiki.contrib.latex.internal.output.HashUtils;
+import org.xwiki.job.Job;
 import org.xwiki.job.JobException;
 import org.xwiki.job.JobExecutor;
+import org.xwiki.job.event.status.JobStatus;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.resource.ResourceReferenceHandlerException;
 
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
 
 /**
  * Executes a LaTeX Export Job.
@@ -48,6 +55,10 @@ import com.xpn.xwiki.XWikiContext;
 @Singleton
 public class LaTeXExportJobExecutor
 {
+    private static final String DEDUPLICATION_USER = "user";
+
+    private static final String DEDUPLICATION_VIEW = "view";
+
     @Inject
     private ContextStoreManager contextStoreManager;
 
@@ -57,6 +68,17 @@ public class LaTeXExportJobExecutor
     @Inject
     private Provider<XWikiContext> xwikiContextProvider;
 
+    @Inject
+    private LaTeXExportConfiguration configuration;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * The ids of the running exports, indexed by the key identifying identical exports.
+     */
+    private final Map<String, List<String>> runningJobs = new HashMap<>();
+
     /**
      * @param documentReference the reference to the document to export
      * @param isPDF true if the export is a PDF export or false if it's a LaTeX zip export
@@ -67,16 +89,79 @@ public class LaTeXExportJobExecutor
     public List<String> execute(DocumentReference documentReference, boolean isPDF,
         Map<String, Object> exportOptions) throws ResourceReferenceHandlerException
     {
-        LaTeXExportJobRequest jobRequest;
+        String key = getDeduplicationKey(documentReference, isPDF, exportOptions);
+
+        synchronized (this.runningJobs) {
+            if (key != null) {
+                // Attach to the identical export which is still running, if any
+                List<String> runningJobId = this.runningJobs.get(key);
+                Job runningJob = runningJobId != null ? this.jobExecutor.getJob(runningJobId) : null;
+                if (isRunning(runningJob)) {
+                    // The result has to stay available for all the requesters
+                    ((LaTeXExportJobStatus) runningJob.getStatus()).setShared(true);
+                    return runningJobId;
+                }
+            }
+
+            LaTeXExportJobRequest jobRequest;
+            try {
+                jobRequest = createRequest(documentReference, isPDF, exportOptions);
+                // Start the export but don't wait since we want to display a progress bar.
+                this.jobExecutor.execute(LaTeXExportJob.JOB_TYPE, jobRequest);
+            } catch (JobException e) {
+                throw new ResourceReferenceHandlerException(
+                    String.format("Failed to export document [%s] to LaTeX", documentReference), e);
+            }
+
+            // Forget the finished exports
+            this.runningJobs.values().removeIf(jobId -> !isRunning(this.jobExecutor.getJob(jobId)));
+            if (key != null) {
+                this.runningJobs.put(key, jobRequest.getId());
+            }
+
+            return jobRequest.getId();
+        }
+    }
+
+    private boolean isRunning(Job job)
+    {
+        return job != null && job.getStatus().getState() != JobStatus.State.FINISHED;
+    }
+
+    /**
+     * The exports of the same version of a document with the same options produce the same result. By default the
+     * user is part of the key since the exported content can depend on the rights and the preferences of the user.
+     * The caller has already been checked to have view right on the document.
+     *
+     * @return the key identifying identical exports, or {@code null} if the export cannot be shared
+     */
+    private String getDeduplicationKey(DocumentReference documentReference, boolean isPDF,
+        Map<String, Object> exportOptions)
+    {
+        String mode = this.configuration.getJobDeduplication();
+        if (!DEDUPLICATION_USER.equals(mode) && !DEDUPLICATION_VIEW.equals(mode)) {
+            return null;
+        }
+
+        // The pages exported with the main one (e.g. a whole space) are not serializable: such exports are not shared
+        String options = LaTeXExportUtils.serializeOptions(exportOptions, true);
+        if (options == null) {
+            return null;
+        }
+
+        XWikiContext xcontext = this.xwikiContextProvider.get();
+        String version;
         try {
-            jobRequest = createRequest(documentReference, isPDF, exportOptions);
-            // Start the export but don't wait since we want to display a progress bar.
-            this.jobExecutor.execute(LaTeXExportJob.JOB_TYPE, jobRequest);
-        } catch (JobException e) {
-            throw new ResourceReferenceHandlerException(
-                String.format("Failed to export document [%s] to LaTeX", documentReference), e);
+            version = xcontext.getWiki().getDocument(documentReference, xcontext).getVersion();
+        } catch (XWikiException e) {
+            this.logger.debug("Failed to get the version of document [{}]", documentReference, e);
+            return null;
         }
-        return jobRequest.getId();
+
+        Object user = DEDUPLICATION_USER.equals(mode) ? xcontext.getUserReference() : null;
+
+        return HashUtils.hash(String.format("%s\0%s\0%s\0%s\0%s\0%s", documentReference, version, user,
+            xcontext.getLocale(), isPDF, options));
     }
 
     private LaTeXExportJobRequest createRequest(DocumentReference documentReference, boolean isPDF,
@@ -86,9 +171,10 @@ public class LaTeXExportJobExecutor
         try {
             // Preserve all request data in the new xwiki context for the job, so that scripts in the exported page
             // can use them. Also preserve the action since it could be checked in velocity scripts when rendering the
-            // page.
+            // page. The current wiki, user and locale are needed to select the pages the user is allowed to export
+            // (when exporting several pages) and to display them as they would be displayed to the user.
             Map<String, Serializable> contextEntries = this.contextStoreManager.save(
-                Arrays.asList("request.*", "action"));
+                Arrays.asList("wiki", "user", "locale", "request.*", "action"));
             jobRequest = new LaTeXExportJobRequest(documentReference, isPDF, exportOptions, contextEntries);
             List<String> jobId = LaTeXExportUtils.generateJobId();
             jobRequest.setId(jobId);
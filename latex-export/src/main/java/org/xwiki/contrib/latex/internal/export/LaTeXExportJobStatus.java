@@ -37,6 +37,12 @@ public class LaTeXExportJobStatus extends DefaultJobStatus<LaTeXExportJobRequest
 {
     private File resultFile;
 
+    private volatile int conversionQueuePosition;
+
+    private volatile String resultETag;
+
+    private volatile boolean shared;
+
     LaTeXExportJobStatus(String jobType, LaTeXExportJobRequest request, JobStatus parentJobStatus,
         ObservationManager observationManager, LoggerManager loggerManager)
     {
@@ -58,4 +64,61 @@ public class LaTeXExportJobStatus extends DefaultJobStatus<LaTeXExportJobRequest
     {
         return this.resultFile;
     }
+
+    /**
+     * @param resultETag see {@link #getResultETag()}
+     * @since 1.26.2
+     */
+    public void setResultETag(String resultETag)
+    {
+        this.resultETag = resultETag;
+    }
+
+    /**
+     * @return the HTTP entity tag of the exported file, computed by the job along with the result file, or
+     *         {@code null} if the job is not finished
+     * @since 1.26.2
+     */
+    public String getResultETag()
+    {
+        return this.resultETag;
+    }
+
+    /**
+     * @param conversionQueuePosition see {@link #getConversionQueuePosition()}
+     * @since 1.26.2
+     */
+    public void setConversionQueuePosition(int conversionQueuePosition)
+    {
+        this.conversionQueuePosition = conversionQueuePosition;
+    }
+
+    /**
+     * @return the position of the export in the queue of the PDF conversions, or {@code 0} when the export is not
+     *         waiting for a conversion slot
+     * @since 1.26.2
+     */
+    public int getConversionQueuePosition()
+    {
+        return this.conversionQueuePosition;
+    }
+
+    /**
+     * @param shared see {@link #isShared()}
+     * @since 1.26.2
+     */
+    public void setShared(boolean shared)
+    {
+        this.shared = shared;
+    }
+
+    /**
+     * @return true if the export has been requested several times (e.g. by different users) and its result is
+     *         downloaded by all the requesters
+     * @since 1.26.2
+     */
+    public boolean isShared()
+    {
+        return this.shared;
+    }
 }
@@ -29,6 +29,7 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
+import javax.servlet.http.HttpServletResponse;
 
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.annotation.Component;
@@ -96,6 +97,9 @@ public class LaTeXExportResourceReferenceHandler extends AbstractResourceReferen
     @Inject
     private JobStatusStore jobStatusStore;
 
+    @Inject
+    private LaTeXExportJanitor janitor;
+
     @Override
     public List<EntityResourceAction> getSupportedResourceReferences()
     {
@@ -172,11 +176,20 @@ public class LaTeXExportResourceReferenceHandler extends AbstractResourceReferen
         // Stream the file found in the job result to the servlet output stream
         LaTeXExportJobStatus jobStatus =
             (LaTeXExportJobStatus) this.jobStatusStore.getJobStatus(LaTeXExportUtils.getJobIdFromRequest(request));
+        if (jobStatus == null || jobStatus.getResultFile() == null || !jobStatus.getResultFile().exists()) {
+            throw new ResourceReferenceHandlerException(
+                "The exported file is not available anymore, please export the document again");
+        }
         XWikiResponse response = this.xcontextProvider.get().getResponse();
         boolean isPDF = jobStatus.getResultFile().getName().endsWith(".pdf");
         response.setContentType(isPDF ? "application/pdf" : "application/zip");
         response.setHeader("Content-Disposition", getContentDisposition(documentReference, isPDF));
-        LaTeXExportUtils.copyFileToResponse(jobStatus.getResultFile(), response);
+        LaTeXExportUtils.sendFile(jobStatus.getResultFile(), jobStatus.getResultETag(), request, response);
+        // Don't remove the file after a partial or conditional response since the client still needs to get it, nor
+        // when other requesters of the same export might not have downloaded it yet (it expires normally then)
+        if (response.getStatus() == HttpServletResponse.SC_OK && !jobStatus.isShared()) {
+            this.janitor.markDownloaded(jobStatus.getResultFile());
+        }
     }
 
     private String getContentDisposition(DocumentReference documentReference, boolean isPDF)
@@ -21,12 +21,25 @@ package org.xwiki.contrib.latex.internal.export;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import org.apache.commons.io.FileUtils;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.contrib.latex.internal.output.HashUtils;
 import org.xwiki.resource.ResourceReferenceHandlerException;
 import org.xwiki.resource.entity.EntityResourceReference;
 import org.xwiki.velocity.tools.EscapeTool;
@@ -46,6 +59,14 @@ public final class LaTeXExportUtils
 
     private static final EscapeTool ESCAPE_TOOL = new EscapeTool();
 
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    private static final String BYTES = "bytes";
+
+    private static final String CONTENT_RANGE = "Content-Range";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private LaTeXExportUtils()
     {
         // To prevent instantiation since it's a utility class.
@@ -74,13 +95,156 @@ public final class LaTeXExportUtils
         return ESCAPE_TOOL.url(reference.getParameters());
     }
 
-    static void copyFileToResponse(File resultFile, XWikiResponse response) throws ResourceReferenceHandlerException
+    /**
+     * Serialize the passed export options in a stable way, to compare them.
+     *
+     * @param exportOptions the export options
+     * @param strict true if the serialization should fail when an option cannot be serialized, false to ignore it
+     * @return the serialized options, or {@code null} when an option cannot be serialized in strict mode
+     */
+    static String serializeOptions(Map<String, Object> exportOptions, boolean strict)
+    {
+        StringBuilder builder = new StringBuilder();
+        // Sort the options to always get the same result
+        for (Map.Entry<String, Object> entry : new TreeMap<>(exportOptions).entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Object[]) {
+                value = Arrays.toString((Object[]) value);
+            } else if (value instanceof Date) {
+                value = ((Date) value).getTime();
+            } else if (!(value instanceof String || value instanceof Number || value instanceof Boolean)) {
+                if (strict) {
+                    return null;
+                }
+                continue;
+            }
+            builder.append('\0').append(entry.getKey()).append('=').append(value);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Send the passed file, or the requested range of it, honoring the conditional request headers.
+     *
+     * @param resultFile the file to send
+     * @param etag the strong entity tag of the file, see {@link #computeETag(File)}
+     * @param request the servlet request
+     * @param response the servlet response
+     * @throws ResourceReferenceHandlerException when failing to send the file
+     */
+    static void sendFile(File resultFile, String etag, XWikiRequest request, XWikiResponse response)
+        throws ResourceReferenceHandlerException
+    {
+        long length = resultFile.length();
+        response.setHeader("ETag", etag);
+        response.setHeader("Accept-Ranges", BYTES);
+
+        if (matches(request.getHeader("If-None-Match"), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader("Range");
+        // Ignore the range when the file changed since the client got the first part
+        String ifRange = request.getHeader("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            Matcher matcher = RANGE_PATTERN.matcher(range.trim());
+            // Multiple ranges are not supported, the whole file is sent instead, as allowed by RFC 7233
+            if (matcher.matches()) {
+                if (matcher.group(1).isEmpty()) {
+                    // Suffix range: the last bytes of the file
+                    start = matcher.group(2).isEmpty() ? length : Math.max(0, length - parse(matcher.group(2)));
+                } else {
+                    start = parse(matcher.group(1));
+                    end = matcher.group(2).isEmpty() ? end : Math.min(end, parse(matcher.group(2)));
+                }
+                if (start > end) {
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    response.setHeader(CONTENT_RANGE, String.format("bytes */%d", length));
+                    return;
+                }
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(CONTENT_RANGE, String.format("bytes %d-%d/%d", start, end, length));
+            }
+        }
+
+        response.setContentLengthLong(end - start + 1);
+        transfer(resultFile, start, end - start + 1, response);
+    }
+
+    /**
+     * Read the whole file to compute its entity tag, so it's done once when the file is generated, not when sending it.
+     *
+     * @param file the file for which to compute an entity tag
+     * @return a strong entity tag computed from the content of the file
+     * @throws ResourceReferenceHandlerException when failing to read the file
+     */
+    static String computeETag(File file) throws ResourceReferenceHandlerException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MessageDigest digest = HashUtils.createDigest();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+
+            return '"' + HashUtils.toHex(digest) + '"';
+        } catch (IOException e) {
+            throw new ResourceReferenceHandlerException(
+                String.format("Failed to compute the hash of the exported file [%s]", file), e);
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag)
+    {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        for (String value : ifNoneMatch.split(",")) {
+            String trimmedValue = value.trim();
+            // Weak comparison, as required for If-None-Match
+            if (trimmedValue.equals("*") || StringUtils.removeStart(trimmedValue, "W/").equals(etag)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static long parse(String value)
     {
         try {
-            FileUtils.copyFile(resultFile, response.getOutputStream());
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            // Too big to be a valid position
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static void transfer(File file, long position, long count, XWikiResponse response)
+        throws ResourceReferenceHandlerException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // Note that this is not a zero-copy transfer: the servlet output stream is not a file or socket channel
+            // so the file channel copies the data through a bounded buffer, without loading the whole file in memory
+            WritableByteChannel target = Channels.newChannel(response.getOutputStream());
+            long transferred = 0;
+            while (transferred < count) {
+                long written = channel.transferTo(position + transferred, count - transferred, target);
+                if (written <= 0) {
+                    break;
+                }
+                transferred += written;
+            }
         } catch (IOException e) {
             throw new ResourceReferenceHandlerException(
-                String.format("Failed to send the exported file [%s]", resultFile), e);
+                String.format("Failed to send the exported file [%s]", file), e);
         }
     }
 }
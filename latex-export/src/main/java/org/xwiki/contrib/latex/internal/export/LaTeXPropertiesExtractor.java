@@ -28,11 +28,14 @@ import java.util.HashMap;
 import java.util.Map;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.apache.commons.lang3.reflect.TypeUtils;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.latex.output.LaTeXOutputProperties;
+import org.xwiki.model.reference.EntityReferenceSet;
+import org.xwiki.model.reference.SpaceReferenceResolver;
 import org.xwiki.properties.BeanDescriptor;
 import org.xwiki.properties.BeanManager;
 import org.xwiki.properties.PropertyDescriptor;
@@ -56,6 +59,10 @@ public class LaTeXPropertiesExtractor
     @Inject
     private BeanManager beans;
 
+    @Inject
+    @Named("current")
+    private SpaceReferenceResolver<String> spaceResolver;
+
     /**
      * Extracts LaTeX Properties from the request.
      *
@@ -96,6 +103,8 @@ public class LaTeXPropertiesExtractor
                 if (!dateString.isEmpty()) {
                     properties.put(parameterKey, dateFormat.parse(dateString));
                 }
+            } else if (TypeUtils.isAssignable(propertyDescriptor.getPropertyType(), EntityReferenceSet.class)) {
+                properties.put(parameterKey, toEntityReferenceSet(value));
             } else if (isIterable(propertyDescriptor)) {
                 properties.put(parameterKey, value);
             } else {
@@ -104,6 +113,20 @@ public class LaTeXPropertiesExtractor
         }
     }
 
+    /**
+     * Each value is the reference of a space to export, including all its pages and nested spaces.
+     */
+    private EntityReferenceSet toEntityReferenceSet(String[] values)
+    {
+        EntityReferenceSet entities = new ExportedSpaces();
+        for (String value : values) {
+            if (!value.isEmpty()) {
+                entities.includes(this.spaceResolver.resolve(value));
+            }
+        }
+        return entities;
+    }
+
     private boolean isIterable(PropertyDescriptor propertyDescriptor)
     {
         Type type = propertyDescriptor.getPropertyType();
@@ -20,25 +20,32 @@
 package org.xwiki.contrib.latex.internal.export;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
+import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.latex.export.LaTeXExportConfiguration;
 import org.xwiki.contrib.latex.pdf.LaTeX2PDFConverter;
 import org.xwiki.contrib.latex.pdf.LaTeX2PDFException;
+import org.xwiki.contrib.latex.pdf.LaTeX2PDFRequest;
 import org.xwiki.contrib.latex.pdf.LaTeX2PDFResult;
-import org.xwiki.filter.output.DefaultOutputStreamOutputTarget;
+import org.xwiki.filter.output.DefaultFileOutputTarget;
+import org.xwiki.job.Job;
+import org.xwiki.job.JobContext;
 import org.xwiki.model.reference.DocumentReference;
 
 import com.xpn.xwiki.XWikiContext;
 
-import static org.xwiki.contrib.latex.internal.export.Unzipper.unzip;
-
 /**
  * Export a document in LaTeX.
  * 
@@ -49,9 +56,33 @@ import static org.xwiki.contrib.latex.internal.export.Unzipper.unzip;
 @Singleton
 public class PDFLaTeXExporter extends AbstractLaTeXExporter
 {
+    /**
+     * The generated files to get back in the build directory: the PDF and the files reused by the next compilation.
+     */
+    private static final List<String> BUILD_ARTIFACTS = Arrays.asList(LaTeX2PDFRequest.PDF_FILENAME, "index.aux",
+        "index.toc", "index.lof", "index.lot", "index.out", "_minted-index/");
+
     @Inject
     private Provider<LaTeX2PDFConverter> converterProvider;
 
+    @Inject
+    private LaTeX2PDFConversionScheduler conversionScheduler;
+
+    @Inject
+    private PDFResultCache cache;
+
+    @Inject
+    private LaTeXBuildDirectoryManager buildDirectories;
+
+    @Inject
+    private LaTeXExportConfiguration configuration;
+
+    @Inject
+    private JobContext jobContext;
+
+    @Inject
+    private Logger logger;
+
     @Override
     protected File performExport(DocumentReference documentReference, Map<String, Object> exportOptions,
         XWikiContext xcontext) throws Exception
@@ -63,33 +94,112 @@ public class PDFLaTeXExporter extends AbstractLaTeXExporter
     private File performPDFExportInternal(DocumentReference documentReference, Map<String, Object> exportOptions,
         XWikiContext xcontex) throws Exception
     {
-        // Step 1: Generate the latex zip
-        File outputDir = generateTemporaryDirectory();
-        File latexZip = new File(outputDir, ZIPFILENAME);
-        try (FileOutputStream fos = new FileOutputStream(latexZip)) {
-            exportOptions.put(TARGET_PROPERTY, new DefaultOutputStreamOutputTarget(fos, true));
+        // Reuse the files generated by the previous compilation of the same document, if enabled and not already
+        // used by another export
+        File buildDirectory = this.configuration.isBuildCacheEnabled()
+            ? this.buildDirectories.lock(documentReference, exportOptions) : null;
+        try {
+            // Step 1: Generate the LaTeX files directly in the directory to convert (no need for a zip)
+            File latexDirectory;
+            if (buildDirectory != null) {
+                latexDirectory = buildDirectory;
+                // Remove the files of the previous export which are not generated anymore (e.g. attachments that
+                // have been deleted), except the ones reused by the next compilation
+                exportOptions.put("cleanTarget", true);
+                exportOptions.put("preservedFiles", BUILD_ARTIFACTS);
+            } else {
+                latexDirectory = new File(generateTemporaryDirectory(), "files");
+                latexDirectory.mkdirs();
+            }
+            this.progressManager.startStep(this, "Generate the LaTeX files");
+            exportOptions.put(TARGET_PROPERTY, new DefaultFileOutputTarget(latexDirectory));
             performExportInternal(documentReference, exportOptions, xcontex);
+            this.progressManager.endStep(this);
+            // Step 2: Convert from latex to pdf
+            this.progressManager.startStep(this, "Convert LaTeX to PDF");
+            LaTeX2PDFResult result = convert(latexDirectory, buildDirectory != null, xcontex);
+            this.progressManager.endStep(this);
+            // Step 3: Read the generated PDF and stream it back to the response output stream
+            this.progressManager.startStep(this, "Copy PDF data to the output");
+            if (result.getPDFFile() == null) {
+                String message = String.format("Error when generating the PDF file in [%s].", latexDirectory);
+                if (result.getLogs() != null) {
+                    message = String.format("%s Compilation logs: [%n%s%n]", message, result.getLogs());
+                }
+                throw new LaTeX2PDFException(message);
+            }
+            File pdfFile = result.getPDFFile();
+            if (buildDirectory != null) {
+                // The build directory is going to be reused by the next export of the document
+                pdfFile = new File(generateTemporaryDirectory(), LaTeX2PDFRequest.PDF_FILENAME);
+                Files.move(result.getPDFFile().toPath(), pdfFile.toPath());
+            }
+            this.progressManager.endStep(this);
+            return pdfFile;
+        } finally {
+            if (buildDirectory != null) {
+                this.buildDirectories.unlock(buildDirectory);
+            }
         }
-        // Step 2: Unzip latex zip
-        this.progressManager.startStep(this, "Unzip the LaTex zip");
-        File unzippedLaTeXDirectory = new File(outputDir, "files");
-        unzippedLaTeXDirectory.mkdirs();
-        unzip(latexZip, unzippedLaTeXDirectory);
-        this.progressManager.endStep(this);
-        // Step 3: Convert from latex to pdf
-        this.progressManager.startStep(this, "Convert LaTeX to PDF");
-        LaTeX2PDFResult result = this.converterProvider.get().convert(unzippedLaTeXDirectory);
-        this.progressManager.endStep(this);
-        // Step 4: Read the generated PDF and stream it back to the response output stream
-        this.progressManager.startStep(this, "Copy PDF data to the output");
-        if (result.getPDFFile() == null) {
-            String message = String.format("Error when generating the PDF file in [%s].", unzippedLaTeXDirectory);
-            if (result.getLogs() != null) {
-                message = String.format("%s Compilation logs: [%n%s%n]", message, result.getLogs());
+    }
+
+    private LaTeX2PDFResult convert(File latexDirectory, boolean keepBuildFiles, XWikiContext xcontext)
+        throws Exception
+    {
+        LaTeX2PDFConverter converter = this.converterProvider.get();
+
+        // Reuse the PDF generated from the same sources, if any
+        String cacheKey = null;
+        if (this.cache.isEnabled()) {
+            // Only the LaTeX sources matter, not the files kept from the previous compilation
+            cacheKey = this.cache.computeKey(latexDirectory, converter.getConfigurationFingerprint(),
+                keepBuildFiles ? BUILD_ARTIFACTS : Collections.emptyList());
+            File pdfFile = new File(latexDirectory, LaTeX2PDFRequest.PDF_FILENAME);
+            if (this.cache.get(cacheKey, pdfFile)) {
+                this.logger.debug("Reusing the PDF generated from the same LaTeX sources");
+                return new LaTeX2PDFResult(pdfFile, null);
             }
-            throw new LaTeX2PDFException(message);
         }
-        this.progressManager.endStep(this);
-        return result.getPDFFile();
+
+        Callable<LaTeX2PDFResult> conversion;
+        if (keepBuildFiles) {
+            LaTeX2PDFRequest request = new LaTeX2PDFRequest(latexDirectory);
+            request.setArtifacts(BUILD_ARTIFACTS);
+            conversion = () -> converter.convert(request);
+        } else {
+            conversion = () -> converter.convert(latexDirectory);
+        }
+        LaTeX2PDFResult result = schedule(conversion, xcontext);
+
+        if (cacheKey != null && result.getPDFFile() != null) {
+            this.cache.put(cacheKey, result.getPDFFile());
+        }
+
+        return result;
+    }
+
+    private LaTeX2PDFResult schedule(Callable<LaTeX2PDFResult> conversion, XWikiContext xcontext) throws Exception
+    {
+        LaTeXExportJobStatus jobStatus = getJobStatus();
+
+        return this.conversionScheduler.execute(String.valueOf(xcontext.getUserReference()),
+            conversion, position -> {
+                if (position > 0) {
+                    this.logger.info("Waiting for the PDF conversion to start (position [{}] in the queue)", position);
+                }
+                if (jobStatus != null) {
+                    jobStatus.setConversionQueuePosition(position);
+                }
+            });
+    }
+
+    private LaTeXExportJobStatus getJobStatus()
+    {
+        Job job = this.jobContext.getCurrentJob();
+        if (job != null && job.getStatus() instanceof LaTeXExportJobStatus) {
+            return (LaTeXExportJobStatus) job.getStatus();
+        }
+
+        return null;
     }
 }
@@ -0,0 +1,206 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.latex.export.LaTeXExportConfiguration;
+import org.xwiki.contrib.latex.internal.output.FileCache;
+import org.xwiki.contrib.latex.internal.output.HashUtils;
+import org.xwiki.environment.Environment;
+
+/**
+ * Keeps the PDF files generated from LaTeX sources so that exporting again unchanged documents with the same options
+ * doesn't require to convert them again. The PDF files are stored in the temporary directory and indexed by a hash of
+ * the LaTeX sources and of the converter configuration.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+@Component(roles = PDFResultCache.class)
+@Singleton
+public class PDFResultCache implements Initializable
+{
+    private static final String PDF_EXTENSION = ".pdf";
+
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private LaTeXExportConfiguration configuration;
+
+    @Inject
+    private Logger logger;
+
+    private FileCache cache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.cache =
+            new FileCache(new File(this.environment.getTemporaryDirectory(), "latex/pdfcache").toPath(), this.logger);
+    }
+
+    /**
+     * @return true if the cache is enabled
+     */
+    public boolean isEnabled()
+    {
+        return this.configuration.getPDFCacheMaxSize() > 0;
+    }
+
+    /**
+     * Compute the key of the PDF generated from the passed LaTeX sources.
+     *
+     * @param latexDirectory the directory containing the LaTeX sources
+     * @param converterFingerprint identifies the configuration of the converter used to generate the PDF
+     * @param excludedFiles the files of the directory which are not LaTeX sources (e.g. the files kept from a
+     *        previous compilation), the paths ending with {@code /} designating directories
+     * @return the cache key
+     * @throws IOException when failing to read the LaTeX sources
+     */
+    public String computeKey(File latexDirectory, String converterFingerprint, Collection<String> excludedFiles)
+        throws IOException
+    {
+        MessageDigest digest = HashUtils.createDigest();
+        digest.update(converterFingerprint.getBytes(StandardCharsets.UTF_8));
+
+        Path root = latexDirectory.toPath();
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(root)) {
+            // Sort the files to get the same key whatever the order in which the file system lists them
+            files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            String path = root.relativize(file).toString().replace(File.separatorChar, '/');
+            if (isExcluded(path, excludedFiles)) {
+                continue;
+            }
+            digest.update((byte) 0);
+            digest.update(path.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            try (InputStream stream = Files.newInputStream(file)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                for (int read = stream.read(buffer); read != -1; read = stream.read(buffer)) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        }
+
+        return HashUtils.toHex(digest);
+    }
+
+    private boolean isExcluded(String path, Collection<String> excludedFiles)
+    {
+        for (String excludedFile : excludedFiles) {
+            if (path.equals(excludedFile) || excludedFile.endsWith("/") && path.startsWith(excludedFile)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Copy the cached PDF matching the passed key to the passed location.
+     *
+     * @param key the cache key
+     * @param pdfFile where to put the cached PDF
+     * @return true if the PDF was found in the cache
+     */
+    public boolean get(String key, File pdfFile)
+    {
+        boolean found = false;
+        try (FileCache.Entry entry = this.cache.get(key + PDF_EXTENSION)) {
+            if (entry != null) {
+                link(entry.getPath(), pdfFile.toPath());
+                found = true;
+            }
+        } catch (IOException e) {
+            this.logger.debug("Failed to get cached PDF [{}]", key, e);
+        }
+
+        return found;
+    }
+
+    /**
+     * Store the passed PDF in the cache.
+     *
+     * @param key the cache key
+     * @param pdfFile the PDF file to store (left untouched)
+     */
+    public void put(String key, File pdfFile)
+    {
+        try {
+            // Nothing else to do with the stored entry
+            this.cache.store(file -> {
+                link(pdfFile.toPath(), file);
+                return key + PDF_EXTENSION;
+            }).close();
+        } catch (IOException e) {
+            this.logger.warn("Failed to store the PDF file [{}] in the cache. Root cause: [{}]", pdfFile,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+
+        // Remove the PDF files not used for too long, and the least recently used ones when the cache is too big
+        this.cache.evict(this.configuration.getPDFCacheMaxSize() * MEGABYTE,
+            System.currentTimeMillis() - Duration.ofHours(this.configuration.getPDFCacheMaxAge()).toMillis());
+    }
+
+    /**
+     * Make the target point to the same content as the source without copying it when possible.
+     */
+    private void link(Path source, Path target) throws IOException
+    {
+        try {
+            Files.createLink(target, source);
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (IOException | UnsupportedOperationException e) {
+            // Hard links are not supported by the file system
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.export;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.latex.export.LaTeXExportConfiguration;
+import org.xwiki.contrib.latex.pdf.LaTeX2PDFException;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link LaTeX2PDFConversionScheduler}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class LaTeX2PDFConversionSchedulerTest
+{
+    private static final String ALICE = "alice";
+
+    private static final String BOB = "bob";
+
+    @InjectMockComponents
+    private LaTeX2PDFConversionScheduler scheduler;
+
+    @MockComponent
+    private LaTeXExportConfiguration configuration;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final CountDownLatch runningConversion = new CountDownLatch(1);
+
+    private final List<String> conversions = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    void setUp()
+    {
+        when(this.configuration.getMaxConversions()).thenReturn(1);
+        when(this.configuration.getConversionQueueSize()).thenReturn(3);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        this.runningConversion.countDown();
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    void executeNotifiesImmediateStart() throws Exception
+    {
+        List<Integer> positions = new ArrayList<>();
+
+        assertEquals("result", this.scheduler.execute(ALICE, () -> "result", positions::add));
+
+        assertEquals(Arrays.asList(0), positions);
+        assertEquals(0, this.scheduler.getRunningCount());
+    }
+
+    @Test
+    void executeServesUsersInTurn() throws Exception
+    {
+        Future<?> blocking = submitBlockingConversion();
+        List<Integer> bobPositions = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> alicePositions = Collections.synchronizedList(new ArrayList<>());
+        Future<?> alice1 = submit(ALICE, "alice1", position -> { });
+        Future<?> alice2 = submit(ALICE, "alice2", alicePositions::add);
+        Future<?> bob1 = submit(BOB, "bob1", bobPositions::add);
+
+        this.runningConversion.countDown();
+        blocking.get(10, TimeUnit.SECONDS);
+        alice1.get(10, TimeUnit.SECONDS);
+        alice2.get(10, TimeUnit.SECONDS);
+        bob1.get(10, TimeUnit.SECONDS);
+
+        // Bob doesn't wait for all the conversions of Alice
+        assertEquals(Arrays.asList("blocking", "alice1", "bob1", "alice2"), this.conversions);
+        assertEquals(2, alicePositions.get(0));
+        assertEquals(0, alicePositions.get(alicePositions.size() - 1));
+        assertEquals(2, bobPositions.get(0));
+        assertEquals(0, bobPositions.get(bobPositions.size() - 1));
+    }
+
+    @Test
+    void executeFailsWhenQueueIsFull() throws Exception
+    {
+        submitBlockingConversion();
+        submit(ALICE, "alice1", position -> { });
+        submit(ALICE, "alice2", position -> { });
+        submit(BOB, "bob1", position -> { });
+
+        LaTeX2PDFException exception = assertThrows(LaTeX2PDFException.class,
+            () -> this.scheduler.execute(BOB, () -> "bob2", position -> { }));
+
+        assertEquals("Too many PDF exports are waiting to be converted (limit is [3]). Please try again later.",
+            exception.getMessage());
+        assertEquals(3, this.scheduler.getWaitingCount());
+    }
+
+    @Test
+    void executeLeavesQueueWhenInterrupted() throws Exception
+    {
+        Future<?> blocking = submitBlockingConversion();
+        CompletableFuture<Thread> waitingThread = new CompletableFuture<>();
+        Future<?> interrupted =
+            submit(ALICE, "interrupted", position -> waitingThread.complete(Thread.currentThread()));
+
+        waitingThread.get(10, TimeUnit.SECONDS).interrupt();
+
+        ExecutionException exception =
+            assertThrows(ExecutionException.class, () -> interrupted.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(InterruptedException.class, exception.getCause());
+        assertEquals(0, this.scheduler.getWaitingCount());
+
+        this.runningConversion.countDown();
+        blocking.get(10, TimeUnit.SECONDS);
+        assertFalse(this.conversions.contains("interrupted"));
+        assertEquals(0, this.scheduler.getRunningCount());
+    }
+
+    /**
+     * Start a conversion using the only conversion slot until {@link #runningConversion} is released.
+     */
+    private Future<?> submitBlockingConversion() throws Exception
+    {
+        Future<?> future = this.executor.submit(() -> this.scheduler.execute(BOB, () -> {
+            this.conversions.add("blocking");
+            this.runningConversion.await();
+            return null;
+        }, position -> { }));
+        waitFor(() -> this.scheduler.getRunningCount() == 1);
+
+        return future;
+    }
+
+    /**
+     * Submit a conversion and wait for it to be queued.
+     */
+    private Future<?> submit(String owner, String name, IntConsumer positionListener)
+        throws Exception
+    {
+        int waiting = this.scheduler.getWaitingCount();
+        Future<?> future = this.executor.submit(() -> this.scheduler.execute(owner, () -> {
+            this.conversions.add(name);
+            return null;
+        }, positionListener));
+        waitFor(() -> this.scheduler.getWaitingCount() == waiting + 1);
+
+        return future;
+    }
+
+    private void waitFor(BooleanSupplier condition) throws InterruptedException
+    {
+        for (int i = 0; i < 1000 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.export;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.xwiki.contrib.latex.export.LaTeXExportConfiguration;
+import org.xwiki.environment.Environment;
+import org.xwiki.test.LogLevel;
+import org.xwiki.test.junit5.LogCaptureExtension;
+import org.xwiki.test.junit5.XWikiTempDir;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link LaTeXExportJanitor}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class LaTeXExportJanitorTest
+{
+    private static final int KILOBYTE = 1024;
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @InjectMockComponents
+    private LaTeXExportJanitor janitor;
+
+    @MockComponent
+    private Environment environment;
+
+    @MockComponent
+    private LaTeXExportConfiguration configuration;
+
+    @XWikiTempDir
+    private File tmpDir;
+
+    @RegisterExtension
+    LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.WARN);
+
+    @BeforeEach
+    void setUp()
+    {
+        when(this.environment.getTemporaryDirectory()).thenReturn(this.tmpDir);
+        when(this.configuration.getExportRetention()).thenReturn(60L);
+        when(this.configuration.getTemporaryQuota()).thenReturn(1L);
+    }
+
+    @Test
+    void cleanupRemovesExpiredDirectories() throws Exception
+    {
+        File expired = createExportDirectory(0, System.currentTimeMillis() - 2 * HOUR);
+        File recent = createExportDirectory(0, System.currentTimeMillis());
+        File other = new File(this.tmpDir, "latex/formats");
+        other.mkdirs();
+        other.setLastModified(System.currentTimeMillis() - 2 * HOUR);
+
+        this.janitor.cleanup();
+
+        assertFalse(expired.exists());
+        assertTrue(recent.exists());
+        assertTrue(other.exists());
+        assertEquals(1, this.janitor.getDirectoryCount());
+    }
+
+    @Test
+    void cleanupKeepsDirectoriesOfRunningExports() throws Exception
+    {
+        File active = this.janitor.createDirectory();
+        active.setLastModified(System.currentTimeMillis() - 2 * HOUR);
+
+        this.janitor.cleanup();
+        assertTrue(active.exists());
+
+        this.janitor.releaseDirectories();
+        this.janitor.cleanup();
+        assertFalse(active.exists());
+    }
+
+    @Test
+    void cleanupKeepsRecentlyDownloadedDirectories() throws Exception
+    {
+        File downloaded = createExportDirectory(0, System.currentTimeMillis());
+        File pdfFile = new File(downloaded, "index.pdf");
+        pdfFile.createNewFile();
+
+        this.janitor.markDownloaded(pdfFile);
+        this.janitor.cleanup();
+
+        // Kept a few minutes to be downloaded again
+        assertTrue(downloaded.exists());
+    }
+
+    @Test
+    void cleanupRemovesOldestDirectoriesOverQuota() throws Exception
+    {
+        long now = System.currentTimeMillis();
+        File oldest = createExportDirectory(600, now - 3000);
+        File older = createExportDirectory(600, now - 2000);
+        File newest = createExportDirectory(600, now - 1000);
+
+        this.janitor.cleanup();
+
+        assertFalse(oldest.exists());
+        assertFalse(older.exists());
+        assertTrue(newest.exists());
+        assertEquals(600L * KILOBYTE, this.janitor.getDiskUsage());
+        assertEquals(1, this.janitor.getDirectoryCount());
+    }
+
+    @Test
+    void cleanupDoesNotRemoveRunningExportsOverQuota() throws Exception
+    {
+        File active = this.janitor.createDirectory();
+        Files.write(new File(active, "index.pdf").toPath(), new byte[1200 * KILOBYTE]);
+
+        this.janitor.cleanup();
+
+        assertTrue(active.exists());
+        assertEquals(1200L * KILOBYTE, this.janitor.getDiskUsage());
+        assertEquals("The LaTeX export temporary directories use [1228800] bytes, more than the [1048576] bytes"
+            + " quota, because of running exports", this.logCapture.getMessage(0));
+    }
+
+    private File createExportDirectory(int kilobytes, long lastModified) throws Exception
+    {
+        File directory = this.janitor.createDirectory();
+        this.janitor.releaseDirectories();
+        Files.write(new File(directory, "index.zip").toPath(), new byte[kilobytes * KILOBYTE]);
+        directory.setLastModified(lastModified);
+
+        return directory;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.export;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.context.concurrent.ContextStoreManager;
+import org.xwiki.contrib.latex.export.LaTeXExportConfiguration;
+import org.xwiki.job.Job;
+import org.xwiki.job.JobExecutor;
+import org.xwiki.job.Request;
+import org.xwiki.job.event.status.JobStatus;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link LaTeXExportJobExecutor}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class LaTeXExportJobExecutorTest
+{
+    private static final DocumentReference DOCUMENT = new DocumentReference("wiki", "Space", "Page");
+
+    private static final DocumentReference ALICE = new DocumentReference("wiki", "XWiki", "Alice");
+
+    private static final DocumentReference BOB = new DocumentReference("wiki", "XWiki", "Bob");
+
+    private static final Map<String, Object> OPTIONS = Collections.singletonMap("numbered", "true");
+
+    @InjectMockComponents
+    private LaTeXExportJobExecutor executor;
+
+    @MockComponent
+    private ContextStoreManager contextStoreManager;
+
+    @MockComponent
+    private JobExecutor jobExecutor;
+
+    @MockComponent
+    private Provider<XWikiContext> xcontextProvider;
+
+    @MockComponent
+    private LaTeXExportConfiguration configuration;
+
+    private XWikiContext xcontext;
+
+    private XWikiDocument document;
+
+    private LaTeXExportJobStatus runningStatus;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        this.xcontext = mock(XWikiContext.class);
+        when(this.xcontextProvider.get()).thenReturn(this.xcontext);
+        XWiki xwiki = mock(XWiki.class);
+        when(this.xcontext.getWiki()).thenReturn(xwiki);
+        when(this.xcontext.getLocale()).thenReturn(Locale.ENGLISH);
+        when(this.xcontext.getUserReference()).thenReturn(ALICE);
+        this.document = mock(XWikiDocument.class);
+        when(this.document.getVersion()).thenReturn("1.1");
+        when(xwiki.getDocument(DOCUMENT, this.xcontext)).thenReturn(this.document);
+
+        // The exports are still running
+        Job job = mock(Job.class);
+        this.runningStatus = mock(LaTeXExportJobStatus.class);
+        when(this.runningStatus.getState()).thenReturn(JobStatus.State.RUNNING);
+        when(job.getStatus()).thenReturn(this.runningStatus);
+        when(this.jobExecutor.getJob(any())).thenReturn(job);
+    }
+
+    @Test
+    void executeWithoutDeduplication() throws Exception
+    {
+        when(this.configuration.getJobDeduplication()).thenReturn("none");
+
+        this.executor.execute(DOCUMENT, true, OPTIONS);
+        this.executor.execute(DOCUMENT, true, OPTIONS);
+
+        verifyJobsStarted(2);
+        verify(this.runningStatus, never()).setShared(true);
+    }
+
+    @Test
+    void executeSharesExportsOfSameUser() throws Exception
+    {
+        when(this.configuration.getJobDeduplication()).thenReturn("user");
+
+        List<String> jobId = this.executor.execute(DOCUMENT, true, OPTIONS);
+        assertEquals(jobId, this.executor.execute(DOCUMENT, true, OPTIONS));
+
+        verifyJobsStarted(1);
+        verify(this.runningStatus).setShared(true);
+    }
+
+    @Test
+    void executeDoesNotShareExportsOfDifferentUsersInUserMode() throws Exception
+    {
+        when(this.configuration.getJobDeduplication()).thenReturn("user");
+
+        this.executor.execute(DOCUMENT, true, OPTIONS);
+        when(this.xcontext.getUserReference()).thenReturn(BOB);
+        this.executor.execute(DOCUMENT, true, OPTIONS);
+
+        verifyJobsStarted(2);
+    }
+
+    @Test
+    void executeSharesExportsOfDifferentUsersInViewMode() throws Exception
+    {
+        when(this.configuration.getJobDeduplication()).thenReturn("view");
+
+        List<String> jobId = this.executor.execute(DOCUMENT, true, OPTIONS);
+        when(this.xcontext.getUserReference()).thenReturn(BOB);
+        assertEquals(jobId, this.executor.execute(DOCUMENT, true, OPTIONS));
+
+        verifyJobsStarted(1);
+    }
+
+    @Test
+    void executeDoesNotShareDifferentExports() throws Exception
+    {
+        when(this.configuration.getJobDeduplication()).thenReturn("view");
+
+        this.executor.execute(DOCUMENT, true, OPTIONS);
+        // Other format
+        this.executor.execute(DOCUMENT, false, OPTIONS);
+        // Other options
+        this.executor.execute(DOCUMENT, true, Collections.singletonMap("numbered", "false"));
+        // Other version
+        when(this.document.getVersion()).thenReturn("1.2");
+        this.executor.execute(DOCUMENT, true, OPTIONS);
+
+        verifyJobsStarted(4);
+    }
+
+    @Test
+    void executeDoesNotShareExportsWithNotSerializableOptions() throws Exception
+    {
+        when(this.configuration.getJobDeduplication()).thenReturn("view");
+        Map<String, Object> options = Collections.singletonMap("property_entities", new Object());
+
+        this.executor.execute(DOCUMENT, true, options);
+        this.executor.execute(DOCUMENT, true, options);
+
+        verifyJobsStarted(2);
+    }
+
+    @Test
+    void executeDoesNotShareFinishedExports() throws Exception
+    {
+        when(this.configuration.getJobDeduplication()).thenReturn("view");
+
+        this.executor.execute(DOCUMENT, true, OPTIONS);
+        when(this.runningStatus.getState()).thenReturn(JobStatus.State.FINISHED);
+        this.executor.execute(DOCUMENT, true, OPTIONS);
+
+        verifyJobsStarted(2);
+    }
+
+    private void verifyJobsStarted(int count) throws Exception
+    {
+        verify(this.jobExecutor, times(count)).execute(eq(LaTeXExportJob.JOB_TYPE), any(Request.class));
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.xpn.xwiki.web.XWikiRequest;
+import com.xpn.xwiki.web.XWikiResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link LaTeXExportUtils}.
+ *
+ * @version $Id$
+ */
+class LaTeXExportUtilsTest
+{
+    private static final String CONTENT = "0123456789";
+
+    private static final String CONTENT_RANGE = "Content-Range";
+
+    private static final String RANGE = "Range";
+
+    @TempDir
+    File tmpDir;
+
+    private File file;
+
+    private String etag;
+
+    private final XWikiRequest request = mock(XWikiRequest.class);
+
+    private final XWikiResponse response = mock(XWikiResponse.class);
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        this.file = new File(this.tmpDir, "index.pdf");
+        Files.write(this.file.toPath(), CONTENT.getBytes(StandardCharsets.UTF_8));
+        this.etag = LaTeXExportUtils.computeETag(this.file);
+
+        when(this.response.getOutputStream()).thenReturn(new ServletOutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+                output.write(b);
+            }
+
+            @Override
+            public boolean isReady()
+            {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener)
+            {
+                // Not needed
+            }
+        });
+    }
+
+    @Test
+    void computeETag() throws Exception
+    {
+        File otherFile = new File(this.tmpDir, "other.pdf");
+        Files.write(otherFile.toPath(), CONTENT.getBytes(StandardCharsets.UTF_8));
+        assertEquals(this.etag, LaTeXExportUtils.computeETag(otherFile));
+
+        Files.write(otherFile.toPath(), "9876543210".getBytes(StandardCharsets.UTF_8));
+        assertNotEquals(this.etag, LaTeXExportUtils.computeETag(otherFile));
+    }
+
+    @Test
+    void sendWholeFile() throws Exception
+    {
+        send();
+
+        verify(this.response).setHeader("ETag", this.etag);
+        verify(this.response).setHeader("Accept-Ranges", "bytes");
+        verify(this.response).setContentLengthLong(10);
+        verify(this.response, never()).setStatus(anyInt());
+        assertEquals(CONTENT, getOutput());
+    }
+
+    @Test
+    void sendRange() throws Exception
+    {
+        when(this.request.getHeader(RANGE)).thenReturn("bytes=2-5");
+
+        send();
+
+        verify(this.response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        verify(this.response).setHeader(CONTENT_RANGE, "bytes 2-5/10");
+        verify(this.response).setContentLengthLong(4);
+        assertEquals("2345", getOutput());
+    }
+
+    @Test
+    void sendOpenRange() throws Exception
+    {
+        when(this.request.getHeader(RANGE)).thenReturn("bytes=7-");
+
+        send();
+
+        verify(this.response).setHeader(CONTENT_RANGE, "bytes 7-9/10");
+        assertEquals("789", getOutput());
+    }
+
+    @Test
+    void sendRangeEndingAfterTheFile() throws Exception
+    {
+        when(this.request.getHeader(RANGE)).thenReturn("bytes=8-100");
+
+        send();
+
+        verify(this.response).setHeader(CONTENT_RANGE, "bytes 8-9/10");
+        assertEquals("89", getOutput());
+    }
+
+    @Test
+    void sendSuffixRange() throws Exception
+    {
+        when(this.request.getHeader(RANGE)).thenReturn("bytes=-3");
+
+        send();
+
+        verify(this.response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        verify(this.response).setHeader(CONTENT_RANGE, "bytes 7-9/10");
+        assertEquals("789", getOutput());
+    }
+
+    @Test
+    void sendUnsatisfiableRange() throws Exception
+    {
+        when(this.request.getHeader(RANGE)).thenReturn("bytes=10-");
+
+        send();
+
+        verify(this.response).setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        verify(this.response).setHeader(CONTENT_RANGE, "bytes */10");
+        verify(this.response, never()).setContentLengthLong(anyLong());
+        assertEquals("", getOutput());
+    }
+
+    @Test
+    void sendWholeFileForMultipleRanges() throws Exception
+    {
+        when(this.request.getHeader(RANGE)).thenReturn("bytes=0-1,5-6");
+
+        send();
+
+        verify(this.response, never()).setStatus(anyInt());
+        assertEquals(CONTENT, getOutput());
+    }
+
+    @Test
+    void sendRangeWhenIfRangeMatches() throws Exception
+    {
+        when(this.request.getHeader(RANGE)).thenReturn("bytes=2-5");
+        when(this.request.getHeader("If-Range")).thenReturn(this.etag);
+
+        send();
+
+        verify(this.response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        assertEquals("2345", getOutput());
+    }
+
+    @Test
+    void sendWholeFileWhenIfRangeDoesNotMatch() throws Exception
+    {
+        when(this.request.getHeader(RANGE)).thenReturn("bytes=2-5");
+        when(this.request.getHeader("If-Range")).thenReturn("\"other\"");
+
+        send();
+
+        verify(this.response, never()).setStatus(anyInt());
+        verify(this.response).setContentLengthLong(10);
+        assertEquals(CONTENT, getOutput());
+    }
+
+    @Test
+    void sendNotModifiedWhenIfNoneMatchMatches() throws Exception
+    {
+        when(this.request.getHeader("If-None-Match")).thenReturn("\"other\", W/" + this.etag);
+
+        send();
+
+        verify(this.response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(this.response, never()).setContentLengthLong(anyLong());
+        assertEquals("", getOutput());
+    }
+
+    @Test
+    void sendWholeFileWhenIfNoneMatchDoesNotMatch() throws Exception
+    {
+        when(this.request.getHeader("If-None-Match")).thenReturn("\"other\"");
+
+        send();
+
+        verify(this.response, never()).setStatus(anyInt());
+        assertEquals(CONTENT, getOutput());
+    }
+
+    private void send() throws Exception
+    {
+        LaTeXExportUtils.sendFile(this.file, this.etag, this.request, this.response);
+    }
+
+    private String getOutput()
+    {
+        return new String(this.output.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.export;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.contrib.latex.export.LaTeXExportConfiguration;
+import org.xwiki.environment.Environment;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link PDFResultCache}.
+ *
+ * @version $Id$
+ */
+class PDFResultCacheTest
+{
+    private static final String FINGERPRINT = "docker:blang/latex:ubuntu";
+
+    private static final List<String> NO_EXCLUDED_FILES = Collections.emptyList();
+
+    @TempDir
+    File tmpDir;
+
+    private File latexDirectory;
+
+    private PDFResultCache cache;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        Environment environment = mock(Environment.class);
+        when(environment.getTemporaryDirectory()).thenReturn(new File(this.tmpDir, "tmp"));
+        LaTeXExportConfiguration configuration = mock(LaTeXExportConfiguration.class);
+        when(configuration.getPDFCacheMaxSize()).thenReturn(10L);
+        when(configuration.getPDFCacheMaxAge()).thenReturn(24L);
+
+        this.cache = new PDFResultCache();
+        ReflectionUtils.setFieldValue(this.cache, "environment", environment);
+        ReflectionUtils.setFieldValue(this.cache, "configuration", configuration);
+        ReflectionUtils.setFieldValue(this.cache, "logger", mock(Logger.class));
+        this.cache.initialize();
+
+        this.latexDirectory = new File(this.tmpDir, "latex");
+        write("index.tex", "\\input{pages/WebHome}");
+        write("pages/WebHome.tex", "Content");
+    }
+
+    @Test
+    void computeKeyIsStable() throws Exception
+    {
+        String key = computeKey(FINGERPRINT);
+
+        assertEquals(key, computeKey(FINGERPRINT));
+        // Two documents of the same export use the same key when their sources are the same
+        File otherDirectory = new File(this.tmpDir, "other");
+        Files.createDirectories(new File(otherDirectory, "pages").toPath());
+        Files.copy(new File(this.latexDirectory, "index.tex").toPath(), new File(otherDirectory, "index.tex").toPath());
+        Files.copy(new File(this.latexDirectory, "pages/WebHome.tex").toPath(),
+            new File(otherDirectory, "pages/WebHome.tex").toPath());
+        assertEquals(key, this.cache.computeKey(otherDirectory, FINGERPRINT, NO_EXCLUDED_FILES));
+    }
+
+    @Test
+    void computeKeyDependsOnConverter() throws Exception
+    {
+        assertNotEquals(computeKey(FINGERPRINT), computeKey("process:[pdflatex index.tex]:2"));
+    }
+
+    @Test
+    void computeKeyDependsOnContent() throws Exception
+    {
+        String key = computeKey(FINGERPRINT);
+
+        write("pages/WebHome.tex", "Modified content");
+
+        assertNotEquals(key, computeKey(FINGERPRINT));
+    }
+
+    @Test
+    void computeKeyDependsOnPaths() throws Exception
+    {
+        String key = computeKey(FINGERPRINT);
+
+        Files.move(new File(this.latexDirectory, "pages/WebHome.tex").toPath(),
+            new File(this.latexDirectory, "pages/Other.tex").toPath());
+
+        assertNotEquals(key, computeKey(FINGERPRINT));
+    }
+
+    @Test
+    void computeKeyIgnoresExcludedFiles() throws Exception
+    {
+        String key = computeKey(FINGERPRINT);
+
+        write("index.aux", "\\relax");
+        write("build/index.toc", "\\contentsline");
+
+        assertEquals(key,
+            this.cache.computeKey(this.latexDirectory, FINGERPRINT, Arrays.asList("index.aux", "build/")));
+        assertNotEquals(key, this.cache.computeKey(this.latexDirectory, FINGERPRINT, Arrays.asList("index.aux")));
+    }
+
+    @Test
+    void putAndGet() throws Exception
+    {
+        String key = computeKey(FINGERPRINT);
+        File pdfFile = new File(this.tmpDir, "index.pdf");
+        byte[] pdf = "%PDF-1.5".getBytes(StandardCharsets.US_ASCII);
+        Files.write(pdfFile.toPath(), pdf);
+
+        this.cache.put(key, pdfFile);
+
+        File cachedFile = new File(this.tmpDir, "cached.pdf");
+        assertTrue(this.cache.get(key, cachedFile));
+        assertArrayEquals(pdf, Files.readAllBytes(cachedFile.toPath()));
+        // The stored PDF is left untouched
+        assertArrayEquals(pdf, Files.readAllBytes(pdfFile.toPath()));
+    }
+
+    @Test
+    void getMissingKey() throws Exception
+    {
+        File cachedFile = new File(this.tmpDir, "cached.pdf");
+
+        assertFalse(this.cache.get(computeKey(FINGERPRINT), cachedFile));
+        assertFalse(cachedFile.exists());
+    }
+
+    private String computeKey(String fingerprint) throws Exception
+    {
+        return this.cache.computeKey(this.latexDirectory, fingerprint, NO_EXCLUDED_FILES);
+    }
+
+    private void write(String path, String content) throws Exception
+    {
+        File file = new File(this.latexDirectory, path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.stream.Stream;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
+
+/**
+ * Keeps the content of the exported attachments in the temporary directory so that each version of an attachment is
+ * read only once from the attachment store, whatever the number of exports including it. The content is stored once
+ * per distinct content (named after its hash) and the stored files can be hard linked in the LaTeX packages instead of
+ * being copied. The least recently used contents are removed when the store gets too big.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+@Component(roles = AttachmentBlobStore.class)
+@Singleton
+public class AttachmentBlobStore implements Initializable
+{
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private LaTeXResourceConfiguration configuration;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private Logger logger;
+
+    private Path referenceDirectory;
+
+    private FileCache blobs;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        Path directory = new File(this.environment.getTemporaryDirectory(), "latex/attachments").toPath();
+        this.referenceDirectory = directory.resolve("references");
+        this.blobs = new FileCache(directory.resolve("blobs"), this.logger);
+    }
+
+    /**
+     * @return true if the store is enabled
+     */
+    public boolean isEnabled()
+    {
+        return this.configuration.getAttachmentCacheMaxSize() > 0;
+    }
+
+    /**
+     * Get the file containing the content of the passed attachment, reading it from the attachment store only when
+     * this version of the attachment has not been stored yet.
+     *
+     * @param attachment the attachment
+     * @param xcontext the XWiki context, used to read the content of the attachment
+     * @return the stored content of the attachment, which is not removed until it's closed, and not to be modified
+     * @throws IOException when failing to store the attachment content
+     */
+    public FileCache.Entry get(XWikiAttachment attachment, XWikiContext xcontext) throws IOException
+    {
+        Files.createDirectories(this.referenceDirectory);
+
+        // The version is not enough since it starts again from 1.1 when the attachment is deleted and added again
+        String key = HashUtils.hash(String.format("%s@%s@%s", this.serializer.serialize(attachment.getReference()),
+            attachment.getVersion(), attachment.getDate() != null ? attachment.getDate().getTime() : 0L));
+        Path referenceFile = this.referenceDirectory.resolve(key);
+
+        FileCache.Entry blob;
+        synchronized (this.blobs.getLock(key)) {
+            blob = getBlob(referenceFile);
+            if (blob == null) {
+                blob = this.blobs.store(file -> storeBlob(attachment, xcontext, file));
+                Files.write(referenceFile, blob.getPath().getFileName().toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        if (!this.blobs.evict(this.configuration.getAttachmentCacheMaxSize() * MEGABYTE, 0).isEmpty()) {
+            removeDanglingReferences();
+        }
+
+        return blob;
+    }
+
+    private FileCache.Entry getBlob(Path referenceFile)
+    {
+        FileCache.Entry blob = null;
+        if (Files.isRegularFile(referenceFile)) {
+            try {
+                blob = this.blobs.get(new String(Files.readAllBytes(referenceFile), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                // Store the content again
+                this.logger.warn("Failed to read the stored attachment reference [{}]. Root cause: [{}]",
+                    referenceFile, ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+
+        return blob;
+    }
+
+    /**
+     * @return the name of the stored content, i.e. its hash
+     */
+    private String storeBlob(XWikiAttachment attachment, XWikiContext xcontext, Path file) throws IOException
+    {
+        MessageDigest digest = HashUtils.createDigest();
+        try (InputStream stream = new DigestInputStream(attachment.getContentInputStream(xcontext), digest)) {
+            Files.copy(stream, file);
+        } catch (XWikiException e) {
+            throw new IOException(String.format("Failed to read the content of [%s]", attachment.getReference()), e);
+        }
+
+        return HashUtils.toHex(digest);
+    }
+
+    private void removeDanglingReferences()
+    {
+        try (Stream<Path> stream = Files.list(this.referenceDirectory)) {
+            stream.filter(referenceFile -> !hasBlob(referenceFile)).forEach(referenceFile -> {
+                try {
+                    Files.deleteIfExists(referenceFile);
+                } catch (IOException e) {
+                    this.logger.warn("Failed to remove the stored attachment reference [{}]. Root cause: [{}]",
+                        referenceFile, ExceptionUtils.getRootCauseMessage(e));
+                }
+            });
+        } catch (IOException e) {
+            this.logger.warn("Failed to list the stored attachment references. Root cause: [{}]",
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    private boolean hasBlob(Path referenceFile)
+    {
+        try (FileCache.Entry blob = getBlob(referenceFile)) {
+            return blob != null;
+        }
+    }
+}
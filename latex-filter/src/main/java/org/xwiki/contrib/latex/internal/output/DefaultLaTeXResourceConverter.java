@@ -24,8 +24,16 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.HashSet;
-import java.util.Set;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -40,6 +48,8 @@ import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.annotation.InstantiationStrategy;
 import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.contrib.latex.internal.LaTeXFileStore;
 import org.xwiki.contrib.latex.internal.LaTeXResourceConverter;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.AttachmentReference;
@@ -96,9 +106,30 @@ public class DefaultLaTeXResourceConverter implements LaTeXResourceConverter
     @Inject
     private DocumentAccessBridge bridge;
 
-    private Set<String> stored = new HashSet<>();
+    @Inject
+    private IsolatedContextExecutor contextExecutor;
+
+    @Inject
+    private URLDownloader downloader;
+
+    @Inject
+    private AttachmentBlobStore blobStore;
+
+    @Inject
+    private ImageProcessor imageProcessor;
 
-    private ZipArchiveOutputStream zipStream;
+    private LaTeXFileStore fileStore;
+
+    /**
+     * The paths of the attachments being fetched in the background, see {@link #prefetch(Block, ExecutorService)},
+     * indexed by attachment reference and image parameters.
+     */
+    private final Map<List<Object>, Future<String>> prefetchedAttachments = new ConcurrentHashMap<>();
+
+    /**
+     * The paths of the remote resources being downloaded in the background, indexed by path.
+     */
+    private final Map<String, Future<String>> prefetchedDownloads = new ConcurrentHashMap<>();
 
     private EntityReference currentEntityReference;
 
@@ -106,10 +137,18 @@ public class DefaultLaTeXResourceConverter implements LaTeXResourceConverter
 
     @Override
     public void initialize(EntityReference currentEntityReference, OutputStream outputStream)
+    {
+        initialize(currentEntityReference, new ZipFileStore((ZipArchiveOutputStream) outputStream));
+    }
+
+    @Override
+    public void initialize(EntityReference currentEntityReference, LaTeXFileStore fileStore)
     {
         this.currentEntityReference = currentEntityReference;
         this.currentDocumentReference = null;
-        this.zipStream = (ZipArchiveOutputStream) outputStream;
+        this.fileStore = fileStore;
+        this.prefetchedAttachments.clear();
+        this.prefetchedDownloads.clear();
     }
 
     @Override
@@ -127,23 +166,34 @@ public class DefaultLaTeXResourceConverter implements LaTeXResourceConverter
     @Override
     public ResourceReference convert(ImageBlock imageBlock)
     {
-        return convert(imageBlock.getReference(), getBaseReference(imageBlock), true);
+        return convert(imageBlock.getReference(), getBaseReference(imageBlock), true, imageBlock.getParameters());
     }
 
     @Override
     public ResourceReference convert(ResourceReference reference, String baseResourceReference,
         boolean forceDownload)
+    {
+        return convert(reference, baseResourceReference, forceDownload, null);
+    }
+
+    /**
+     * @param imageParameters the parameters of the image (e.g. its width and height) when converting the reference of
+     *        an image displayed in the document, {@code null} otherwise
+     */
+    private ResourceReference convert(ResourceReference reference, String baseResourceReference,
+        boolean forceDownload, Map<String, String> imageParameters)
     {
         ResourceReference convertedReference = reference;
         EntityReference resolvedBaseReference = getResolvedBaseReference(baseResourceReference);
         try {
             // TODO: make all this extensible instead of if/else
             if (ResourceType.ATTACHMENT.equals(reference.getType())) {
-                convertedReference = convertATTACHMENTReference(convertedReference, resolvedBaseReference);
+                convertedReference =
+                    convertATTACHMENTReference(convertedReference, resolvedBaseReference, imageParameters);
             } else if (ResourceType.DATA.equals(reference.getType())) {
                 convertedReference = convertDATAReference(convertedReference);
             } else if (ResourceType.URL.equals(reference.getType())) {
-                convertedReference = convertURLReference(convertedReference, forceDownload);
+                convertedReference = convertURLReference(convertedReference, forceDownload, imageParameters);
             } else if (ResourceType.DOCUMENT.equals(reference.getType())) {
                 convertedReference = convertDOCUMENTReference(convertedReference, resolvedBaseReference);
             } else if (ResourceType.PATH.equals(reference.getType())) {
@@ -160,8 +210,86 @@ public class DefaultLaTeXResourceConverter implements LaTeXResourceConverter
     @Override
     public void store(String path, InputStream inputStream) throws IOException
     {
-        ZipUtils.store(path, inputStream, this.zipStream);
-        this.stored.add(path);
+        this.fileStore.store(path, inputStream);
+    }
+
+    @Override
+    public void prefetch(Block block, ExecutorService executor)
+    {
+        for (Block resourceBlock : block.getBlocks(b -> b instanceof ImageBlock || b instanceof LinkBlock,
+            Block.Axes.DESCENDANT_OR_SELF))
+        {
+            ResourceReference reference;
+            Map<String, String> imageParameters;
+            if (resourceBlock instanceof ImageBlock) {
+                reference = ((ImageBlock) resourceBlock).getReference();
+                imageParameters = ((ImageBlock) resourceBlock).getParameters();
+            } else {
+                reference = ((LinkBlock) resourceBlock).getReference();
+                imageParameters = null;
+            }
+            try {
+                if (ResourceType.ATTACHMENT.equals(reference.getType())) {
+                    prefetchAttachment(reference, getResolvedBaseReference(getBaseReference(resourceBlock)),
+                        imageParameters, executor);
+                } else if (ResourceType.URL.equals(reference.getType()) && imageParameters != null) {
+                    // Only images are downloaded, see #convert(ImageBlock)
+                    prefetchDownload(reference, imageParameters, executor);
+                }
+            } catch (Exception e) {
+                // The error is logged when converting the reference
+                this.logger.debug("Failed to prefetch resource [{}]", reference, e);
+            }
+        }
+    }
+
+    private void prefetchAttachment(ResourceReference reference, EntityReference baseReference,
+        Map<String, String> imageParameters, ExecutorService executor) throws ComponentLookupException
+    {
+        AttachmentReference attachmentReference =
+            (AttachmentReference) this.resolver.resolve(reference, EntityType.ATTACHMENT, baseReference);
+        List<Object> key = Arrays.asList(attachmentReference, imageParameters);
+        if (!this.prefetchedAttachments.containsKey(key)) {
+            try {
+                this.prefetchedAttachments.put(key, executor.submit(this.contextExecutor.isolate(
+                    () -> storeAttachment(attachmentReference, imageParameters, this.xcontextProvider.get()))));
+            } catch (RejectedExecutionException e) {
+                // The export is being stopped
+            }
+        }
+    }
+
+    private void prefetchDownload(ResourceReference reference, Map<String, String> imageParameters,
+        ExecutorService executor) throws MalformedURLException
+    {
+        URL url = new URL(reference.getReference());
+        String path = getDownloadPath(url, reference.getReference(), imageParameters);
+        if (!this.prefetchedDownloads.containsKey(path)) {
+            try {
+                this.prefetchedDownloads.put(path, executor.submit(() -> download(url, path, imageParameters)));
+            } catch (RejectedExecutionException e) {
+                // The export is being stopped
+            }
+        }
+    }
+
+    private <K> String getPrefetchedPath(Map<K, Future<String>> prefetchedResources, K key)
+    {
+        String path = null;
+
+        Future<String> prefetchedPath = prefetchedResources.get(key);
+        if (prefetchedPath != null) {
+            try {
+                path = prefetchedPath.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | CancellationException e) {
+                this.logger.warn("Failed to prefetch resource [{}]. Root error: [{}]", key,
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+
+        return path;
     }
 
     private ResourceReference convertPATHReference(ResourceReference reference)
@@ -190,16 +318,36 @@ public class DefaultLaTeXResourceConverter implements LaTeXResourceConverter
         return convertedResourceReference;
     }
 
-    private ResourceReference convertATTACHMENTReference(ResourceReference reference, EntityReference baseReference)
+    private ResourceReference convertATTACHMENTReference(ResourceReference reference, EntityReference baseReference,
+        Map<String, String> imageParameters)
     {
-        StringBuilder builder = new StringBuilder();
-        builder.append("files/attachments/");
-
         // Resolve the reference to have an absolute reference
         AttachmentReference attachmentReference =
             (AttachmentReference) this.resolver.resolve(reference, EntityType.ATTACHMENT, baseReference);
+
+        // The attachment is usually already stored when it has been prefetched
+        String path =
+            getPrefetchedPath(this.prefetchedAttachments, Arrays.asList(attachmentReference, imageParameters));
+        if (path == null) {
+            path = storeAttachment(attachmentReference, imageParameters, this.xcontextProvider.get());
+        }
+
+        return toReference(reference, path);
+    }
+
+    /**
+     * Store the content of the attachment, unless it's already stored.
+     *
+     * @return the path of the attachment in the LaTeX package
+     */
+    private String storeAttachment(AttachmentReference reference, Map<String, String> imageParameters,
+        XWikiContext xcontext)
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append("files/attachments/");
+
         // Get the matching attachment from the list of attachments in the target doc.
-        XWikiContext xcontext = this.xcontextProvider.get();
+        AttachmentReference attachmentReference = reference;
         XWikiAttachment attachment = getAttachment(attachmentReference, xcontext);
         if (attachment != null) {
             // Create a new attachment reference since the user could have used an attachment reference file name
@@ -215,19 +363,43 @@ public class DefaultLaTeXResourceConverter implements LaTeXResourceConverter
         builder.append(normalizedPath);
 
         String path = builder.toString();
-
-        ResourceReference convertedReference = toReference(reference, path);
+        if (isProcessedImage(path, imageParameters)) {
+            path = this.imageProcessor.getPath(path, imageParameters);
+        }
 
         // Store attachment content
-        if (attachment != null && !this.stored.contains(path)) {
-            try (InputStream inputStream = attachment.getContentInputStream(xcontext)) {
-                store(path, inputStream);
+        if (attachment != null && !this.fileStore.contains(path)) {
+            try {
+                storeAttachmentContent(path, attachment, imageParameters, xcontext);
             } catch (Exception e) {
                 this.logger.error("Failed to store attachment [{}]", attachmentReference, e);
             }
         }
 
-        return convertedReference;
+        return path;
+    }
+
+    private void storeAttachmentContent(String path, XWikiAttachment attachment, Map<String, String> imageParameters,
+        XWikiContext xcontext) throws IOException, XWikiException
+    {
+        if (isProcessedImage(attachment.getFilename(), imageParameters)) {
+            try (FileCache.Entry blob = this.blobStore.isEnabled() ? this.blobStore.get(attachment, xcontext) : null;
+                InputStream inputStream = blob != null ? Files.newInputStream(blob.getPath())
+                    : attachment.getContentInputStream(xcontext);
+                FileCache.Entry image = this.imageProcessor.process(inputStream, path, imageParameters))
+            {
+                this.fileStore.store(path, image.getFile());
+            }
+        } else if (this.blobStore.isEnabled()) {
+            // Reuse the content read by a previous export
+            try (FileCache.Entry blob = this.blobStore.get(attachment, xcontext)) {
+                this.fileStore.store(path, blob.getFile());
+            }
+        } else {
+            try (InputStream inputStream = attachment.getContentInputStream(xcontext)) {
+                store(path, inputStream);
+            }
+        }
     }
 
     private XWikiAttachment getAttachment(AttachmentReference attachmentReference, XWikiContext xcontext)
@@ -251,31 +423,25 @@ public class DefaultLaTeXResourceConverter implements LaTeXResourceConverter
         return reference;
     }
 
-    private ResourceReference convertURLReference(ResourceReference reference, boolean forceDownload)
+    private ResourceReference convertURLReference(ResourceReference reference, boolean forceDownload,
+        Map<String, String> imageParameters)
     {
         ResourceReference convertedReference = reference;
 
         if (forceDownload) {
             // Create a local path for the URL resource
-
-            // Download the file and store it in the zip
             try {
                 URL url = new URL(reference.getReference());
-
-                String filename = FilenameUtils.getName(url.toString());
-                // Limit collision with same filename and domain but different URL
-                String path =
-                    "files/downloaded/" + url.getHost() + '/' + reference.getReference().hashCode() + '/' + filename;
+                String path = getDownloadPath(url, reference.getReference(), imageParameters);
 
                 // Convert the reference
                 convertedReference = toReference(reference, path);
 
-                if (!this.stored.contains(path)) {
-                    try (InputStream stream = url.openStream()) {
-                        store(path, stream);
-                    }
+                // Download the file and store it in the zip, unless it's already being done in the background
+                if (getPrefetchedPath(this.prefetchedDownloads, path) == null) {
+                    download(url, path, imageParameters);
                 }
-            } catch (Exception e) {
+            } catch (MalformedURLException e) {
                 this.logger.error("Failed to download file with URL [{}]", reference.getReference(), e);
             }
         }
@@ -283,6 +449,56 @@ public class DefaultLaTeXResourceConverter implements LaTeXResourceConverter
         return convertedReference;
     }
 
+    private String getDownloadPath(URL url, String reference, Map<String, String> imageParameters)
+    {
+        // Limit collision with same filename and domain but different URL
+        String path = "files/downloaded/" + url.getHost() + '/' + reference.hashCode() + '/' + getFilename(url);
+
+        return isProcessedImage(path, imageParameters) ? this.imageProcessor.getPath(path, imageParameters) : path;
+    }
+
+    private String getFilename(URL url)
+    {
+        return FilenameUtils.getName(url.toString());
+    }
+
+    /**
+     * Download the file, unless it's already stored.
+     *
+     * @return the path of the file in the LaTeX package
+     */
+    private String download(URL url, String path, Map<String, String> imageParameters)
+    {
+        if (!this.fileStore.contains(path)) {
+            try {
+                try (FileCache.Entry file = this.downloader.download(url)) {
+                    if (isProcessedImage(getFilename(url), imageParameters)) {
+                        try (InputStream inputStream = Files.newInputStream(file.getPath());
+                            FileCache.Entry image = this.imageProcessor.process(inputStream, path, imageParameters))
+                        {
+                            this.fileStore.store(path, image.getFile());
+                        }
+                    } else {
+                        this.fileStore.store(path, file.getFile());
+                    }
+                }
+            } catch (Exception e) {
+                this.logger.error("Failed to download file with URL [{}]", url, e);
+            }
+        }
+
+        return path;
+    }
+
+    /**
+     * @param path the original path or name of the resource, before its processing
+     * @return true if the resource is an image which must be processed before being included in the LaTeX package
+     */
+    private boolean isProcessedImage(String path, Map<String, String> imageParameters)
+    {
+        return imageParameters != null && this.imageProcessor.isProcessed(path, imageParameters);
+    }
+
     private ResourceReference convertDOCUMENTReference(ResourceReference reference, EntityReference baseReference)
     {
         ResourceReference convertedReference = reference;
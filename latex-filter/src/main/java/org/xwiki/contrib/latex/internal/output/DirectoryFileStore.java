@@ -0,0 +1,197 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.contrib.latex.internal.LaTeXFileStore;
+
+/**
+ * Stores the files of the LaTeX package directly in a directory of the file system. A file which already exists with
+ * the same content is left untouched, so that tools relying on the modification date of the files (e.g. the minted
+ * cache) can reuse the results of a previous compilation in the same directory. Stored files are hard linked instead
+ * of copied when possible.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+public class DirectoryFileStore implements LaTeXFileStore
+{
+    private static final String DIRECTORY_SUFFIX = "/";
+
+    private final Path directory;
+
+    private final Set<String> paths = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param directory the directory in which to write the files
+     */
+    public DirectoryFileStore(File directory)
+    {
+        this.directory = directory.toPath().toAbsolutePath().normalize();
+    }
+
+    @Override
+    public boolean contains(String path)
+    {
+        return this.paths.contains(path);
+    }
+
+    @Override
+    public boolean store(String path, InputStream inputStream) throws IOException
+    {
+        if (!this.paths.add(path)) {
+            return false;
+        }
+
+        Path file = resolve(path);
+        if (Files.exists(file)) {
+            storeIfChanged(file, inputStream);
+        } else {
+            Files.copy(inputStream, file);
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean store(String path, File sourceFile) throws IOException
+    {
+        if (!this.paths.add(path)) {
+            return false;
+        }
+
+        Path file = resolve(path);
+        Path source = sourceFile.toPath();
+        if (!Files.exists(file)) {
+            link(source, file);
+        } else if (!Files.isSameFile(source, file) && !FileUtils.contentEquals(sourceFile, file.toFile())) {
+            Path temporaryFile = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+            try {
+                link(source, temporaryFile);
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temporaryFile);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Delete the files of the directory which have not been stored, e.g. the files of a previous export in the same
+     * directory, and the directories left empty.
+     *
+     * @param preservedPaths the paths of the files to keep even if they have not been stored, the paths ending with
+     *        {@code /} designating directories
+     * @throws IOException when failing to delete a file
+     */
+    public void deleteOtherFiles(Collection<String> preservedPaths) throws IOException
+    {
+        Set<Path> storedFiles =
+            this.paths.stream().map(path -> this.directory.resolve(path).normalize()).collect(Collectors.toSet());
+
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(this.directory)) {
+            // Children first
+            files = stream.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+
+        for (Path file : files) {
+            String path = this.directory.relativize(file).toString().replace(File.separatorChar, '/');
+            if (file.equals(this.directory) || isPreserved(path, preservedPaths)) {
+                continue;
+            }
+            if (Files.isDirectory(file)) {
+                try (Stream<Path> children = Files.list(file)) {
+                    if (!children.findAny().isPresent()) {
+                        Files.delete(file);
+                    }
+                }
+            } else if (!storedFiles.contains(file)) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private boolean isPreserved(String path, Collection<String> preservedPaths)
+    {
+        for (String preservedPath : preservedPaths) {
+            boolean isDirectory = preservedPath.endsWith(DIRECTORY_SUFFIX);
+            if (path.equals(preservedPath) || isDirectory && (path.startsWith(preservedPath)
+                || path.equals(StringUtils.removeEnd(preservedPath, DIRECTORY_SUFFIX))))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private Path resolve(String path) throws IOException
+    {
+        Path file = this.directory.resolve(path).normalize();
+        if (!file.startsWith(this.directory)) {
+            throw new IOException(String.format("Path [%s] is outside of the output directory", path));
+        }
+
+        Files.createDirectories(file.getParent());
+
+        return file;
+    }
+
+    private void link(Path source, Path target) throws IOException
+    {
+        try {
+            Files.createLink(target, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            // Hard links are not supported by the file system, or the files are on different file systems
+            Files.copy(source, target);
+        }
+    }
+
+    private void storeIfChanged(Path file, InputStream inputStream) throws IOException
+    {
+        Path temporaryFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            Files.copy(inputStream, temporaryFile, StandardCopyOption.REPLACE_EXISTING);
+            if (!FileUtils.contentEquals(temporaryFile.toFile(), file.toFile())) {
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+
+/**
+ * A directory of files (or directories) shared between exports, e.g. the downloaded resources or the processed images.
+ * The entries are written aside and moved in place once complete so that no one reads an incomplete entry. The least
+ * recently used entries are removed when the cache gets too big, except the ones which are being used: an entry is
+ * pinned when it's returned, and until it's closed.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+public class FileCache
+{
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
+    private final Path directory;
+
+    private final Predicate<Path> filter;
+
+    private final Logger logger;
+
+    /**
+     * Prevent computing the same entry several times at the same time, without keeping a lock for each entry.
+     */
+    private final Object[] locks = new Object[64];
+
+    /**
+     * When the entries have been used for the last time. The modification date of the files is used for the entries
+     * used before the last restart, since updating it would also update the files linked to it.
+     */
+    private final Map<Path, Long> lastUsed = new ConcurrentHashMap<>();
+
+    /**
+     * The number of users of each pinned entry.
+     */
+    private final Map<Path, Integer> pins = new HashMap<>();
+
+    /**
+     * @param directory the directory containing the entries
+     * @param logger the logger used to report the entries which cannot be removed
+     */
+    public FileCache(Path directory, Logger logger)
+    {
+        this(directory, file -> true, logger);
+    }
+
+    /**
+     * @param directory the directory containing the entries
+     * @param filter the files of the directory which are entries, the other ones being left untouched by the eviction
+     * @param logger the logger used to report the entries which cannot be removed
+     */
+    public FileCache(Path directory, Predicate<Path> filter, Logger logger)
+    {
+        this.directory = directory;
+        this.filter = filter;
+        this.logger = logger;
+
+        for (int i = 0; i < this.locks.length; i++) {
+            this.locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @return the directory containing the entries
+     */
+    public Path getDirectory()
+    {
+        return this.directory;
+    }
+
+    /**
+     * @param key identifies an entry
+     * @return the object to synchronize on while computing the entry, shared with a few other entries
+     */
+    public Object getLock(String key)
+    {
+        return this.locks[Math.floorMod(key.hashCode(), this.locks.length)];
+    }
+
+    /**
+     * @return a new temporary file in the cache directory, ignored by the eviction, to be deleted by the caller
+     * @throws IOException when failing to create the cache directory
+     */
+    public Path createTemporaryFile() throws IOException
+    {
+        Files.createDirectories(this.directory);
+
+        return this.directory.resolve(UUID.randomUUID() + TEMPORARY_EXTENSION);
+    }
+
+    /**
+     * @param name the name of the entry
+     * @return the pinned entry, or {@code null} if there's no such entry
+     */
+    public synchronized Entry get(String name)
+    {
+        Path file = this.directory.resolve(name);
+
+        return Files.exists(file) ? pin(name) : null;
+    }
+
+    /**
+     * Add or replace an entry.
+     *
+     * @param writer writes the content of the entry
+     * @return the pinned entry
+     * @throws IOException when failing to write the entry
+     */
+    public Entry store(ContentWriter writer) throws IOException
+    {
+        Path temporaryFile = createTemporaryFile();
+        try {
+            String name = writer.write(temporaryFile);
+            synchronized (this) {
+                // Another entry might have the same content
+                Files.move(temporaryFile, this.directory.resolve(name), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+
+                return pin(name);
+            }
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * Prevent an entry from being removed, e.g. while it's being created.
+     *
+     * @param name the name of the entry
+     * @return the pinned entry, which doesn't need to exist
+     */
+    public synchronized Entry pin(String name)
+    {
+        Path file = this.directory.resolve(name);
+        this.pins.merge(file, 1, Integer::sum);
+        this.lastUsed.put(file, System.currentTimeMillis());
+
+        return new Entry(file);
+    }
+
+    private synchronized void unpin(Path file)
+    {
+        this.pins.computeIfPresent(file, (key, count) -> count > 1 ? count - 1 : null);
+        this.lastUsed.put(file, System.currentTimeMillis());
+    }
+
+    /**
+     * Remove the entries not used for too long, and the least recently used ones when the cache is too big. The
+     * pinned entries are kept.
+     *
+     * @param maxSize the maximum size of the cache, in bytes
+     * @param expirationTime the time before which the entries should have been used to be kept, {@code 0} to keep
+     *        them whatever their age
+     * @return the removed entries
+     */
+    public synchronized List<Path> evict(long maxSize, long expirationTime)
+    {
+        List<Path> entries = listEntries();
+
+        // Most recently used first
+        entries.sort(Comparator.comparing(this::getLastUsed).reversed());
+
+        List<Path> evicted = new ArrayList<>();
+        long size = 0;
+        for (Path entry : entries) {
+            size += getSize(entry);
+            if ((size > maxSize || getLastUsed(entry) < expirationTime) && !this.pins.containsKey(entry)) {
+                try {
+                    delete(entry);
+                    this.lastUsed.remove(entry);
+                    evicted.add(entry);
+                } catch (IOException e) {
+                    this.logger.warn("Failed to remove the cached file [{}]. Root cause: [{}]", entry,
+                        ExceptionUtils.getRootCauseMessage(e));
+                }
+            }
+        }
+
+        return evicted;
+    }
+
+    private List<Path> listEntries()
+    {
+        List<Path> entries = new ArrayList<>();
+        if (Files.isDirectory(this.directory)) {
+            try (Stream<Path> stream = Files.list(this.directory)) {
+                stream.filter(file -> !file.getFileName().toString().endsWith(TEMPORARY_EXTENSION))
+                    .filter(this.filter).forEach(entries::add);
+            } catch (IOException e) {
+                this.logger.warn("Failed to list the cached files of [{}]. Root cause: [{}]", this.directory,
+                    ExceptionUtils.getRootCauseMessage(e));
+                entries.clear();
+            }
+        }
+
+        return entries;
+    }
+
+    private long getLastUsed(Path entry)
+    {
+        return this.lastUsed.getOrDefault(entry, entry.toFile().lastModified());
+    }
+
+    private long getSize(Path entry)
+    {
+        return Files.isDirectory(entry) ? FileUtils.sizeOfDirectory(entry.toFile()) : entry.toFile().length();
+    }
+
+    private void delete(Path entry) throws IOException
+    {
+        if (Files.isDirectory(entry)) {
+            FileUtils.deleteDirectory(entry.toFile());
+        } else {
+            Files.deleteIfExists(entry);
+        }
+    }
+
+    /**
+     * Writes the content of a new entry.
+     *
+     * @version $Id$
+     */
+    @FunctionalInterface
+    public interface ContentWriter
+    {
+        /**
+         * @param file the temporary file where to write the content of the entry
+         * @return the name of the entry
+         * @throws IOException when failing to write the content
+         */
+        String write(Path file) throws IOException;
+    }
+
+    /**
+     * An entry of the cache, which won't be removed until it's closed.
+     *
+     * @version $Id$
+     */
+    public final class Entry implements AutoCloseable
+    {
+        private final Path path;
+
+        private boolean closed;
+
+        private Entry(Path path)
+        {
+            this.path = path;
+        }
+
+        /**
+         * @return the path of the entry
+         */
+        public Path getPath()
+        {
+            return this.path;
+        }
+
+        /**
+         * @return the file of the entry
+         */
+        public File getFile()
+        {
+            return this.path.toFile();
+        }
+
+        @Override
+        public void close()
+        {
+            if (!this.closed) {
+                this.closed = true;
+                unpin(this.path);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.output;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hash utility, used to name the cached files after their content or after what they were computed from.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+public final class HashUtils
+{
+    private HashUtils()
+    {
+        // Utility class
+    }
+
+    /**
+     * @return a new SHA-256 digest
+     */
+    public static MessageDigest createDigest()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Should never happen since all Java platforms have to support SHA-256
+            throw new IllegalStateException("Failed to create the SHA-256 digest", e);
+        }
+    }
+
+    /**
+     * @param digest the digest to complete
+     * @return the hexadecimal representation of the hash computed by the passed digest
+     */
+    public static String toHex(MessageDigest digest)
+    {
+        return String.format("%064x", new BigInteger(1, digest.digest()));
+    }
+
+    /**
+     * @param value the value to hash
+     * @return the hexadecimal SHA-256 hash of the passed value
+     */
+    public static String hash(String value)
+    {
+        MessageDigest digest = createDigest();
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+
+        return toHex(digest);
+    }
+}
@@ -0,0 +1,517 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.output;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.environment.Environment;
+
+/**
+ * Prepares the images included in the LaTeX packages: images displayed with an explicit size much smaller than their
+ * own are downscaled to the configured resolution, and images in formats not supported by pdflatex (GIF, BMP, TIFF)
+ * are converted to PNG. The density of the images (e.g. the {@code pHYs} chunk of PNG images) is kept, and scaled
+ * along with the image, since it's what pdflatex uses to size the images without explicit dimensions. Formats which
+ * cannot be read by Java (e.g. WebP or SVG) are left as they are. The processed images are kept in the temporary
+ * directory, indexed by the hash of their content and of the processing parameters, so that an image is processed
+ * only once whatever the number of exports including it.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+@Component(roles = ImageProcessor.class)
+@Singleton
+public class ImageProcessor implements Initializable
+{
+    private static final String PNG = "png";
+
+    private static final String JPEG = "jpeg";
+
+    private static final String WIDTH = "width";
+
+    private static final String HEIGHT = "height";
+
+    private static final String VALUE = "value";
+
+    /**
+     * The extensions of the images which are converted to PNG.
+     */
+    private static final Set<String> CONVERTED_EXTENSIONS =
+        new HashSet<>(Arrays.asList("gif", "bmp", "wbmp", "tif", "tiff"));
+
+    /**
+     * The number of pixels in an inch when using the {@code px} LaTeX unit, which is how the {@code ImageBlock}
+     * template outputs pixel sizes (pdfTeX makes {@code 1px} equal to {@code 1bp} by default).
+     */
+    private static final double PIXELS_PER_INCH = 72;
+
+    /**
+     * The text width, in inches, used to compute the size of images with a single explicit dimension or with dimensions
+     * relative to the page. It matches the biggest text area of the usual document classes and paper sizes so that
+     * images are never downscaled too much.
+     */
+    private static final double TEXT_WIDTH = 7;
+
+    /**
+     * The text height, in inches, see {@link #TEXT_WIDTH}.
+     */
+    private static final double TEXT_HEIGHT = 10;
+
+    private static final double MILLIMETERS_PER_INCH = 25.4;
+
+    private static final double METERS_PER_INCH = MILLIMETERS_PER_INCH / 1000;
+
+    /**
+     * The maximum density supported by JFIF, which stores it on 16 bits.
+     */
+    private static final double MAX_JPEG_DENSITY = 65535;
+
+    private static final float JPEG_QUALITY = 0.9F;
+
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private LaTeXResourceConfiguration configuration;
+
+    @Inject
+    private Logger logger;
+
+    private FileCache cache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.cache = new FileCache(new File(this.environment.getTemporaryDirectory(), "latex/images").toPath(),
+            this.logger);
+    }
+
+    /**
+     * @param path the path of the image in the LaTeX package
+     * @param parameters the parameters of the image (e.g. its width and height)
+     * @return true if the image may be changed by {@link #process(InputStream, String, Map)}, false if it can be
+     *         included as it is (e.g. a PNG image without explicit size)
+     */
+    public boolean isProcessed(String path, Map<String, String> parameters)
+    {
+        return isConverted(path) || isResized(parameters);
+    }
+
+    /**
+     * @param path the path of the image in the LaTeX package
+     * @param parameters the parameters of the image (e.g. its width and height)
+     * @return the path of the processed image in the LaTeX package, which differs from the passed path when the format
+     *         of the image is changed or when the image is downscaled to a specific size
+     */
+    public String getPath(String path, Map<String, String> parameters)
+    {
+        String extension = isConverted(path) ? PNG : FilenameUtils.getExtension(path);
+
+        StringBuilder builder = new StringBuilder(FilenameUtils.removeExtension(path));
+        if (isResized(parameters)) {
+            // The same image can be displayed with different sizes
+            Dimension size = getMaxSize(parameters);
+            builder.append('-').append(size.width).append('x').append(size.height);
+        }
+        if (!extension.isEmpty()) {
+            builder.append('.').append(extension);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Process the passed image.
+     *
+     * @param content the content of the image
+     * @param path the path of the processed image in the LaTeX package, as returned by {@link #getPath(String, Map)}
+     * @param parameters the parameters of the image (e.g. its width and height)
+     * @return the processed image (or the passed content when there was nothing to change), which is not removed until
+     *         it's closed, and not to be modified
+     * @throws IOException when failing to store the image
+     */
+    public FileCache.Entry process(InputStream content, String path, Map<String, String> parameters) throws IOException
+    {
+        Path source = this.cache.createTemporaryFile();
+        try {
+            MessageDigest digest = HashUtils.createDigest();
+            try (InputStream stream = new DigestInputStream(content, digest)) {
+                Files.copy(stream, source);
+            }
+
+            // Images without explicit size are sized by pdflatex from their density, which must not change
+            Dimension maxSize = isResized(parameters) ? getMaxSize(parameters) : null;
+            String format = getFormat(path);
+            String key = HashUtils.hash(String.format("%s@%s@%s", HashUtils.toHex(digest), maxSize, format));
+
+            FileCache.Entry entry;
+            synchronized (this.cache.getLock(key)) {
+                entry = this.cache.get(key);
+                if (entry == null) {
+                    entry = this.cache.store(file -> processFile(source, file, maxSize, format, key));
+                }
+            }
+
+            this.cache.evict(this.configuration.getImageCacheMaxSize() * MEGABYTE, 0);
+
+            return entry;
+        } finally {
+            Files.deleteIfExists(source);
+        }
+    }
+
+    /**
+     * @return the name of the processed image
+     */
+    private String processFile(Path source, Path target, Dimension maxSize, String format, String key)
+        throws IOException
+    {
+        boolean processed = false;
+        try {
+            ProcessedImage image = read(source, maxSize, format);
+            if (image != null) {
+                write(image, target, format);
+                processed = true;
+            }
+        } catch (Exception e) {
+            // E.g. CMYK JPEG images, not supported by Java
+            this.logger.warn("Failed to process image. The image is left as it is. Root cause: [{}]",
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+
+        if (!processed) {
+            // Nothing to change
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        return key;
+    }
+
+    /**
+     * @return the image to write in the LaTeX package, or {@code null} if the image should be left as it is
+     */
+    private ProcessedImage read(Path source, Dimension maxSize, String format) throws IOException
+    {
+        ProcessedImage image = null;
+
+        try (ImageInputStream input = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            // Leave the images with an unsupported format as they are
+            if (readers.hasNext() && ImageIO.getImageWritersByFormatName(format).hasNext()) {
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(input, true);
+                    image = read(reader, maxSize, format);
+                } finally {
+                    reader.dispose();
+                }
+            }
+        }
+
+        return image;
+    }
+
+    private ProcessedImage read(ImageReader reader, Dimension maxSize, String format) throws IOException
+    {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        double scale = maxSize != null
+            ? Math.min(1, Math.min((double) maxSize.width / width, (double) maxSize.height / height)) : 1;
+        if (scale >= 1 && format.equals(getFormat(reader.getFormatName()))) {
+            // Nothing to change
+            return null;
+        }
+
+        // Skip pixels while reading huge images to save memory, but keep enough to smooth the result
+        ImageReadParam readParam = reader.getDefaultReadParam();
+        int subsampling = Math.max(1, (int) (1 / (scale * 2)));
+        readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+        BufferedImage image = resize(reader.read(0, readParam), targetWidth, targetHeight, JPEG.equals(format));
+
+        // Keep the printed size of the image
+        double[] density = getDensity(reader);
+        if (density != null) {
+            density[0] *= (double) targetWidth / width;
+            density[1] *= (double) targetHeight / height;
+        }
+
+        return new ProcessedImage(image, density);
+    }
+
+    /**
+     * @return the horizontal and vertical density of the image in dots per inch, or {@code null} if the image doesn't
+     *         specify it
+     */
+    private double[] getDensity(ImageReader reader) throws IOException
+    {
+        double[] density = null;
+
+        IIOMetadata metadata = reader.getImageMetadata(0);
+        if (metadata != null && metadata.isStandardMetadataFormatSupported()) {
+            // The pixel sizes are in millimeters
+            IIOMetadataNode root =
+                (IIOMetadataNode) metadata.getAsTree(IIOMetadataFormatImpl.standardMetadataFormatName);
+            double horizontal = getValue(root, "HorizontalPixelSize");
+            double vertical = getValue(root, "VerticalPixelSize");
+            if (horizontal > 0) {
+                density = new double[] { MILLIMETERS_PER_INCH / horizontal,
+                    MILLIMETERS_PER_INCH / (vertical > 0 ? vertical : horizontal) };
+            }
+        }
+
+        return density;
+    }
+
+    private double getValue(IIOMetadataNode root, String name)
+    {
+        NodeList nodes = root.getElementsByTagName(name);
+
+        return nodes.getLength() > 0 ? NumberUtils.toDouble(((Element) nodes.item(0)).getAttribute(VALUE), 0) : 0;
+    }
+
+    private BufferedImage resize(BufferedImage image, int width, int height, boolean opaque)
+    {
+        int type = opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+
+        // Divide the size by 2 at most at each step to get a smooth result
+        BufferedImage result = image;
+        do {
+            int stepWidth = Math.max(width, result.getWidth() / 2);
+            int stepHeight = Math.max(height, result.getHeight() / 2);
+            BufferedImage step = new BufferedImage(stepWidth, stepHeight, type);
+            Graphics2D graphics = step.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                if (opaque) {
+                    graphics.setColor(Color.WHITE);
+                    graphics.fillRect(0, 0, stepWidth, stepHeight);
+                }
+                graphics.drawImage(result, 0, 0, stepWidth, stepHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+            result = step;
+        } while (result.getWidth() > width || result.getHeight() > height);
+
+        return result;
+    }
+
+    private void write(ProcessedImage image, Path target, String format) throws IOException
+    {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(target.toFile())) {
+            writer.setOutput(output);
+            ImageWriteParam writeParam = writer.getDefaultWriteParam();
+            if (JPEG.equals(format)) {
+                writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                writeParam.setCompressionQuality(JPEG_QUALITY);
+            }
+            IIOMetadata metadata = image.density != null ? getMetadata(writer, image, format, writeParam) : null;
+            writer.write(null, new IIOImage(image.image, null, metadata), writeParam);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * @return the metadata holding the density of the image, or {@code null} if it's not supported for the format
+     */
+    private IIOMetadata getMetadata(ImageWriter writer, ProcessedImage image, String format,
+        ImageWriteParam writeParam)
+    {
+        IIOMetadata metadata =
+            writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image.image), writeParam);
+        String formatName = metadata.getNativeMetadataFormatName();
+
+        // The density is set through the native metadata since the standard one is not converted properly by the PNG
+        // and JPEG writers of some Java versions
+        try {
+            if (PNG.equals(format)) {
+                IIOMetadataNode physicalDimensions = new IIOMetadataNode("pHYs");
+                physicalDimensions.setAttribute("pixelsPerUnitXAxis", toDensity(image.density[0] / METERS_PER_INCH));
+                physicalDimensions.setAttribute("pixelsPerUnitYAxis", toDensity(image.density[1] / METERS_PER_INCH));
+                physicalDimensions.setAttribute("unitSpecifier", "meter");
+                IIOMetadataNode root = new IIOMetadataNode(formatName);
+                root.appendChild(physicalDimensions);
+                metadata.mergeTree(formatName, root);
+            } else if (JPEG.equals(format)) {
+                // The JFIF segment is part of the default metadata
+                IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(formatName);
+                NodeList nodes = root.getElementsByTagName("app0JFIF");
+                for (int i = 0; i < nodes.getLength(); i++) {
+                    Element jfif = (Element) nodes.item(i);
+                    // Dots per inch
+                    jfif.setAttribute("resUnits", "1");
+                    jfif.setAttribute("Xdensity", toDensity(Math.min(image.density[0], MAX_JPEG_DENSITY)));
+                    jfif.setAttribute("Ydensity", toDensity(Math.min(image.density[1], MAX_JPEG_DENSITY)));
+                }
+                metadata.setFromTree(formatName, root);
+            } else {
+                // The other formats are written only when the conversion is disabled, and are rarely used with LaTeX
+                metadata = null;
+            }
+        } catch (IIOInvalidTreeException e) {
+            this.logger.debug("Failed to set the density of the image", e);
+            metadata = null;
+        }
+
+        return metadata;
+    }
+
+    private String toDensity(double value)
+    {
+        return String.valueOf(Math.max(1, Math.round(value)));
+    }
+
+    /**
+     * @return the maximum size of the image in pixels, at the configured resolution
+     */
+    private Dimension getMaxSize(Map<String, String> parameters)
+    {
+        int resolution = getResolution();
+
+        return new Dimension((int) Math.ceil(getInches(parameters.get(WIDTH), TEXT_WIDTH) * resolution),
+            (int) Math.ceil(getInches(parameters.get(HEIGHT), TEXT_HEIGHT) * resolution));
+    }
+
+    /**
+     * @param value the value of a dimension, as supported by the {@code ImageBlock} template
+     * @param textLength the length of the text area in the same direction, in inches
+     * @return the length in inches
+     */
+    private double getInches(String value, double textLength)
+    {
+        String length = StringUtils.trim(value);
+        double inches = textLength;
+        if (StringUtils.endsWith(length, "%")) {
+            inches = textLength * NumberUtils.toDouble(StringUtils.removeEnd(length, "%"), 100) / 100;
+        } else if (StringUtils.isNotEmpty(length)) {
+            double pixels = NumberUtils.toDouble(StringUtils.removeEnd(length, "px"), -1);
+            if (pixels > 0) {
+                inches = pixels / PIXELS_PER_INCH;
+            }
+        }
+
+        return Math.min(inches, textLength);
+    }
+
+    /**
+     * @param name an image format name or file extension
+     * @return the normalized format name
+     */
+    private String getFormat(String name)
+    {
+        String format = FilenameUtils.getExtension(name.toLowerCase(Locale.ROOT));
+        if (format.isEmpty()) {
+            format = name.toLowerCase(Locale.ROOT);
+        }
+
+        return "jpg".equals(format) ? JPEG : format;
+    }
+
+    private boolean isConverted(String path)
+    {
+        return this.configuration.isImageConversionEnabled()
+            && CONVERTED_EXTENSIONS.contains(FilenameUtils.getExtension(path).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return true if the image is displayed with an explicit size, and thus can be downscaled
+     */
+    private boolean isResized(Map<String, String> parameters)
+    {
+        return getResolution() > 0
+            && (StringUtils.isNotBlank(parameters.get(WIDTH)) || StringUtils.isNotBlank(parameters.get(HEIGHT)));
+    }
+
+    private int getResolution()
+    {
+        return this.configuration.getImageResolution();
+    }
+
+    /**
+     * An image to write in the LaTeX package.
+     */
+    private static final class ProcessedImage
+    {
+        private final BufferedImage image;
+
+        /**
+         * The horizontal and vertical density of the image in dots per inch, or {@code null} if unknown.
+         */
+        private final double[] density;
+
+        ProcessedImage(BufferedImage image, double[] density)
+        {
+            this.image = image;
+            this.density = density;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.output;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.context.concurrent.ContextStoreManager;
+
+/**
+ * Runs tasks in worker threads, each task getting its own {@link ExecutionContext} initialized from the context of
+ * the thread which created it (current wiki, user, locale and request data).
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+@Component(roles = IsolatedContextExecutor.class)
+@Singleton
+public class IsolatedContextExecutor
+{
+    private static final List<String> CONTEXT_ENTRIES =
+        Arrays.asList("wiki", "user", "author", "secure", "locale", "request.*", "action");
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    @Inject
+    private ContextStoreManager contextStoreManager;
+
+    /**
+     * @param name the prefix of the names of the created threads
+     * @param threads the number of threads of the executor
+     * @return a new executor, to be shut down by the caller
+     */
+    public ExecutorService createExecutor(String name, int threads)
+    {
+        return Executors.newFixedThreadPool(threads,
+            new BasicThreadFactory.Builder().namingPattern(name + "-%d").daemon(true).build());
+    }
+
+    /**
+     * Wrap the passed task so that it's executed in a new {@link ExecutionContext}. Must be called from the thread
+     * whose context should be copied.
+     *
+     * @param <T> the type of the task result
+     * @param task the task to wrap
+     * @return the wrapped task
+     * @throws ComponentLookupException when failing to save the current context
+     */
+    public <T> Callable<T> isolate(Callable<T> task) throws ComponentLookupException
+    {
+        Map<String, Serializable> contextStore = this.contextStoreManager.save(CONTEXT_ENTRIES);
+
+        return () -> {
+            try {
+                this.executionContextManager.initialize(new ExecutionContext());
+                this.contextStoreManager.restore(contextStore);
+
+                return task.call();
+            } finally {
+                this.execution.removeContext();
+            }
+        };
+    }
+}
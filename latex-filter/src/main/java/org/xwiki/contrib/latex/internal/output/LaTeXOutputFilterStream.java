@@ -19,47 +19,70 @@
  */
 package org.xwiki.contrib.latex.internal.output;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.script.ScriptContext;
 
-import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.annotation.InstantiationStrategy;
 import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
+import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.contrib.latex.internal.LaTeXBlockRenderer;
+import org.xwiki.contrib.latex.internal.LaTeXFileStore;
 import org.xwiki.contrib.latex.internal.LaTeXResourceConverter;
+import org.xwiki.contrib.latex.internal.TemplateRenderer;
+import org.xwiki.contrib.latex.internal.UIExtensionManager;
 import org.xwiki.contrib.latex.output.LaTeXOutputProperties;
+import org.xwiki.environment.Environment;
 import org.xwiki.filter.FilterDescriptorManager;
 import org.xwiki.filter.FilterEventParameters;
 import org.xwiki.filter.FilterException;
 import org.xwiki.filter.output.AbstractBeanOutputFilterStream;
+import org.xwiki.filter.output.FileOutputTarget;
 import org.xwiki.filter.output.OutputStreamOutputTarget;
 import org.xwiki.filter.output.OutputTarget;
 import org.xwiki.job.event.status.JobProgressManager;
 import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.model.reference.WikiReference;
+import org.xwiki.rendering.block.Block;
 import org.xwiki.rendering.block.XDOM;
 import org.xwiki.rendering.internal.parser.XDOMGeneratorListener;
 import org.xwiki.rendering.listener.WrappingListener;
 import org.xwiki.rendering.renderer.BlockRenderer;
-import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.printer.WriterWikiPrinter;
 import org.xwiki.script.ScriptContextManager;
 
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.web.XWikiURLFactory;
+
 /**
  * @version $Id: 29443af498e773a330ccb0420285b030967f40c8 $
  */
@@ -84,6 +107,21 @@ public class LaTeXOutputFilterStream extends AbstractBeanOutputFilterStream<LaTe
 
     private static final String LATEX_BINDING_RESOURCE_CONVERTER = "resourceConverter";
 
+    /**
+     * The size above which the LaTeX content of a document is buffered in a temporary file instead of in memory.
+     */
+    private static final int CONTENT_MEMORY_THRESHOLD = 1024 * 1024;
+
+    /**
+     * The number of top level blocks whose resources are fetched while the previous blocks are rendered.
+     */
+    private static final int PREFETCH_DISTANCE = 8;
+
+    /**
+     * The UI extension point used by the {@code XDOM} template to write something at the end of the document.
+     */
+    private static final String XDOM_AFTER_EXTENSION_POINT = "org.xwiki.contrib.latex.XDOM.after";
+
     @Inject
     private FilterDescriptorManager filterManager;
 
@@ -95,9 +133,15 @@ public class LaTeXOutputFilterStream extends AbstractBeanOutputFilterStream<LaTe
     @Named(LaTeXBlockRenderer.ROLEHINT)
     private BlockRenderer renderer;
 
+    @Inject
+    private TemplateRenderer templateRenderer;
+
     @Inject
     private IndexGenerator indexGenerator;
 
+    @Inject
+    private UIExtensionManager uiExtensionManager;
+
     @Inject
     private ScriptContextManager scriptContextManager;
 
@@ -107,6 +151,19 @@ public class LaTeXOutputFilterStream extends AbstractBeanOutputFilterStream<LaTe
     @Inject
     private JobProgressManager progressManager;
 
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private IsolatedContextExecutor contextExecutor;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<EntityReference> documentResolver;
+
     private boolean contextInitialized;
 
     private Object previousLatexBinding;
@@ -115,21 +172,55 @@ public class LaTeXOutputFilterStream extends AbstractBeanOutputFilterStream<LaTe
 
     private WrappingListener contentListener = new WrappingListener();
 
-    // FIXME: refactor the latex renderer to support events instead of XDOM
+    private StreamingDocumentRenderer documentRenderer;
+
+    private DeferredFileOutputStream documentContent;
+
+    private Writer documentWriter;
+
     private XDOMGeneratorListener xdomGenerator;
 
+    private ExecutorService conversionExecutor;
+
+    private ExecutorService resourceExecutor;
+
+    /**
+     * The documents being converted in parallel, in the order in which they have been received.
+     */
+    private Deque<ConvertingDocument> convertingDocuments = new ArrayDeque<>();
+
+    /**
+     * The first error which prevented a document from being converted, if any.
+     */
+    private Exception conversionError;
+
     private EntityReference currentReference;
 
+    private LaTeXResourceConverter resourceConverter;
+
     private ZipArchiveOutputStream zipStream;
 
+    private ZipFileStore zipFileStore;
+
+    private DirectoryFileStore directoryFileStore;
+
+    private LaTeXFileStore fileStore;
+
     private Set<String> includes = new LinkedHashSet<>();
 
-    private void initializeZipStream() throws FilterException
+    private void initializeFileStore() throws FilterException
     {
         OutputTarget target = this.properties.getTarget();
-        if (target instanceof OutputStreamOutputTarget) {
+        if (target instanceof FileOutputTarget && ((FileOutputTarget) target).getFile().isDirectory()) {
+            // Write the files directly where they are expected, e.g. to be converted to PDF
+            this.directoryFileStore = new DirectoryFileStore(((FileOutputTarget) target).getFile());
+            this.fileStore = this.directoryFileStore;
+        } else if (target instanceof OutputStreamOutputTarget) {
             try {
                 this.zipStream = new ZipArchiveOutputStream(((OutputStreamOutputTarget) target).getOutputStream());
+                this.zipFileStore = new ZipFileStore(this.zipStream, this.properties.getCompressionLevel(),
+                    createCompressionExecutor(), this.environment.getTemporaryDirectory());
+                this.fileStore = this.zipFileStore;
             } catch (IOException e) {
                 throw new FilterException("Failed to create zip output stream", e);
             }
@@ -138,6 +229,15 @@ public class LaTeXOutputFilterStream extends AbstractBeanOutputFilterStream<LaTe
         }
     }
 
+    private ExecutorService createCompressionExecutor()
+    {
+        if (this.properties.getCompressionThreads() > 0) {
+            return this.contextExecutor.createExecutor("LaTeX compression", this.properties.getCompressionThreads());
+        }
+
+        return null;
+    }
+
     /**
      * Make sure the context contains the right information for the templates.
      */
@@ -150,23 +250,30 @@ public class LaTeXOutputFilterStream extends AbstractBeanOutputFilterStream<LaTe
             this.previousLatexBinding = scriptContext.getAttribute(LATEX_BINDING);
             this.previousLatexScope = scriptContext.getAttributesScope(LATEX_BINDING);
 
-            Map<String, Object> latex = new HashMap<>();
+            // The resource reference converter is initialized for each document, see #begin()
+            this.resourceConverter = this.resourceConverterProvider.get();
 
-            // Provide filter properties
-            latex.put(LATEX_BINDING_PROPERTIES, this.properties);
+            scriptContext.setAttribute(LATEX_BINDING, createLatexBinding(this.resourceConverter, this.includes),
+                ScriptContext.ENGINE_SCOPE);
 
-            // Provide list of documents
-            latex.put(LATEX_BINDING_INCLUDES, this.includes);
+            this.contextInitialized = true;
+        }
+    }
 
-            // Provide the resource reference converter
-            LaTeXResourceConverter resourceConverter = this.resourceConverterProvider.get();
-            resourceConverter.initialize(this.currentReference, this.zipStream);
-            latex.put(LATEX_BINDING_RESOURCE_CONVERTER, resourceConverter);
+    private Map<String, Object> createLatexBinding(LaTeXResourceConverter converter, Set<String> includedPaths)
+    {
+        Map<String, Object> latex = new HashMap<>();
 
-            scriptContext.setAttribute(LATEX_BINDING, latex, ScriptContext.ENGINE_SCOPE);
+        // Provide filter properties
+        latex.put(LATEX_BINDING_PROPERTIES, this.properties);
 
-            this.contextInitialized = true;
-        }
+        // Provide list of documents
+        latex.put(LATEX_BINDING_INCLUDES, includedPaths);
+
+        // Provide the resource reference converter
+        latex.put(LATEX_BINDING_RESOURCE_CONVERTER, converter);
+
+        return latex;
     }
 
     /**
@@ -182,28 +289,60 @@ public class LaTeXOutputFilterStream extends AbstractBeanOutputFilterStream<LaTe
             } else {
                 scriptContext.removeAttribute(LATEX_BINDING, ScriptContext.ENGINE_SCOPE);
             }
+
+            this.contextInitialized = false;
         }
     }
 
     @Override
     public void close() throws IOException
     {
-        this.zipStream.close();
-        this.properties.getTarget().close();
+        try {
+            if (this.fileStore != null) {
+                // Wait for the documents still being converted to LaTeX
+                saveConvertedDocuments(0);
+                // Wait for the resources still being stored
+                waitForResources();
+
+                // Don't generate an index for an incomplete package
+                checkConversions();
+
+                // Generate the index including all the exported documents.
+                generateIndex();
+                if (this.directoryFileStore != null && this.properties.isCleanTarget()) {
+                    // Remove the files left by a previous export in the same directory
+                    this.directoryFileStore.deleteOtherFiles(this.properties.getPreservedFiles());
+                }
+                if (this.zipStream != null) {
+                    // Write the entries compressed in parallel
+                    this.zipFileStore.finish();
+                    this.zipStream.close();
+                }
+            }
+        } finally {
+            stopConversions();
+            popContext();
+            this.properties.getTarget().close();
+        }
     }
 
-    private void generateIndex() throws IOException
+    private void checkConversions() throws IOException
     {
-        this.progressManager.startStep(this, "Generate the LaTeX Index");
+        if (this.conversionError != null) {
+            throw new IOException("Failed to convert some of the exported documents to LaTeX",
+                this.conversionError);
+        } else if (this.documentRenderer != null || this.xdomGenerator != null) {
+            throw new IOException(
+                String.format("The conversion of document [%s] to LaTeX didn't finish", this.currentReference));
+        }
+    }
 
+    private void generateIndex() throws IOException
+    {
         String indexContent = this.indexGenerator.generate();
         try (InputStream inputStream = IOUtils.toInputStream(indexContent, "UTF-8")) {
-            ZipUtils.store("index.tex", inputStream, this.zipStream);
+            this.fileStore.store("index.tex", inputStream);
         }
-
-        popContext();
-
-        this.progressManager.endStep(this);
     }
 
     @Override
@@ -213,46 +352,239 @@ public class LaTeXOutputFilterStream extends AbstractBeanOutputFilterStream<LaTe
         return this.filterManager.createCompositeFilter(this.contentListener, this);
     }
 
+    private boolean isParallel()
+    {
+        return this.properties.getThreads() > 1;
+    }
+
+    private boolean isStreaming()
+    {
+        // When the content is streamed, the XDOM template (including its "after" UI extensions) is evaluated before
+        // the content. Some extensions expect to be evaluated after it (e.g. to output something collected while the
+        // content is rendered), so the whole document is rendered at the end when there are some.
+        return this.properties.isStreaming() && this.uiExtensionManager.getExtensions(XDOM_AFTER_EXTENSION_POINT)
+            .isEmpty();
+    }
+
     private void begin() throws FilterException
     {
-        this.progressManager.pushLevelProgress(3, this);
-        if (this.xdomGenerator == null) {
+        this.progressManager.pushLevelProgress(2, this);
+        if (this.fileStore == null) {
+            initializeFileStore();
+        }
+        checkPushContext();
+
+        // Resolve the resources relatively to the document being exported
+        this.resourceConverter.initialize(this.currentReference, this.fileStore);
+
+        this.progressManager.startStep(this, "Convert document to LaTeX");
+
+        if (isParallel()) {
+            // The document is converted in another thread once all its content has been received
             this.xdomGenerator = new XDOMGeneratorListener();
             this.contentListener.setWrappedListener(this.xdomGenerator);
-            initializeZipStream();
+        } else {
+            // Note: the LaTeX content cannot be written directly in its zip entry since resources (images,
+            // attachments, etc.) are added to the package while the document is being rendered. So we stream it to a
+            // buffer which is stored in a temporary file when it gets too big.
+            this.documentContent = createDocumentContent();
+            this.documentWriter = createDocumentWriter(this.documentContent);
+
+            // Render the document content as it's received
+            LaTeXResourceConverter converter = this.resourceConverter;
+            // Generate the next blocks in advance only when their resources can be fetched in the meantime
+            int prefetchDistance = this.properties.getResourceThreads() > 0 ? PREFETCH_DISTANCE : 0;
+            // Reuse the same template processor for all the top level blocks of the document
+            this.documentRenderer = new StreamingDocumentRenderer(this.templateRenderer.createDocumentRenderer(),
+                new WriterWikiPrinter(this.documentWriter), isStreaming(),
+                block -> prefetch(converter, block), prefetchDistance);
+            this.contentListener.setWrappedListener(new TopLevelBlockGenerator(this.documentRenderer).getListener());
         }
-        checkPushContext();
     }
 
-    private void end() throws IOException
+    private DeferredFileOutputStream createDocumentContent()
     {
+        return new DeferredFileOutputStream(CONTENT_MEMORY_THRESHOLD, "latex", ".tex",
+            this.environment.getTemporaryDirectory());
+    }
+
+    private Writer createDocumentWriter(DeferredFileOutputStream content)
+    {
+        return new BufferedWriter(new OutputStreamWriter(content, StandardCharsets.UTF_8));
+    }
+
+    private void end() throws IOException, ComponentLookupException
+    {
+        String path = "pages/" + this.latexPathSerializer.serialize(this.currentReference);
+
         if (this.xdomGenerator != null) {
-            this.progressManager.startStep(this, "Convert document to LaTeX");
             XDOM xdom = this.xdomGenerator.getXDOM();
             this.xdomGenerator = null;
 
-            DefaultWikiPrinter printer = new DefaultWikiPrinter();
-            this.renderer.render(xdom, printer);
+            // Start fetching the resources of the document while it's waiting to be converted
+            LaTeXResourceConverter converter = this.resourceConverterProvider.get();
+            converter.initialize(this.currentReference, this.fileStore);
+            prefetch(converter, xdom);
+
+            this.convertingDocuments.add(new ConvertingDocument(path, getConversionExecutor().submit(
+                this.contextExecutor.isolate(getConversionTask(xdom, converter)))));
             this.progressManager.endStep(this);
 
-            this.progressManager.startStep(this, "Save LaTeX content in Zip");
-            String latexContent = printer.toString();
+            // Save the documents which are already converted and wait for the oldest ones when too many are waiting
+            saveConvertedDocuments(this.properties.getThreads());
+        } else if (this.documentRenderer != null) {
+            this.documentRenderer = null;
+
+            try {
+                this.documentWriter.close();
+                this.progressManager.endStep(this);
 
-            String path = "pages/" + this.latexPathSerializer.serialize(this.currentReference);
+                this.progressManager.startStep(this, "Save LaTeX content");
+                saveDocument(path, this.documentContent);
+            } finally {
+                deleteDocumentContent(this.documentContent);
+                this.documentContent = null;
+                this.documentWriter = null;
+            }
+
+            this.progressManager.endStep(this);
+        }
+    }
+
+    private void saveDocument(String path, DeferredFileOutputStream content) throws IOException
+    {
+        try (InputStream inputStream = content.isInMemory() ? new ByteArrayInputStream(content.getData())
+            : Files.newInputStream(content.getFile().toPath()))
+        {
+            this.fileStore.store(path + ".tex", inputStream);
+        }
 
-            ZipArchiveEntry entry = new ZipArchiveEntry(path + ".tex");
+        this.includes.add(path);
+    }
+
+    private void deleteDocumentContent(DeferredFileOutputStream content) throws IOException
+    {
+        if (!content.isInMemory()) {
+            Files.deleteIfExists(content.getFile().toPath());
+        }
+    }
+
+    private ExecutorService getConversionExecutor()
+    {
+        if (this.conversionExecutor == null) {
+            this.conversionExecutor =
+                this.contextExecutor.createExecutor("LaTeX conversion", this.properties.getThreads());
+        }
+
+        return this.conversionExecutor;
+    }
+
+    private ExecutorService getResourceExecutor()
+    {
+        if (this.resourceExecutor == null) {
+            this.resourceExecutor =
+                this.contextExecutor.createExecutor("LaTeX resources", this.properties.getResourceThreads());
+        }
+
+        return this.resourceExecutor;
+    }
+
+    private void prefetch(LaTeXResourceConverter converter, Block block)
+    {
+        if (this.properties.getResourceThreads() > 0) {
+            converter.prefetch(block, getResourceExecutor());
+        }
+    }
 
+    private void waitForResources() throws IOException
+    {
+        if (this.resourceExecutor != null) {
+            this.resourceExecutor.shutdown();
             try {
-                this.zipStream.putArchiveEntry(entry);
+                this.resourceExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while storing the resources of the exported documents", e);
+            }
+        }
+    }
+
+    /**
+     * @return the task converting the passed document content to LaTeX in a dedicated execution context
+     */
+    private Callable<DeferredFileOutputStream> getConversionTask(XDOM xdom, LaTeXResourceConverter converter)
+    {
+        EntityReference reference = this.currentReference;
+        // The templates of the document should not see the documents saved while it's being converted
+        Set<String> includedPaths = new LinkedHashSet<>(this.includes);
+        XWikiURLFactory urlFactory = this.xcontextProvider.get().getURLFactory();
+
+        return () -> {
+            XWikiContext xcontext = this.xcontextProvider.get();
+            xcontext.setURLFactory(urlFactory);
+            xcontext.setDoc(xcontext.getWiki().getDocument(this.documentResolver.resolve(reference), xcontext));
+
+            this.scriptContextManager.getCurrentScriptContext().setAttribute(LATEX_BINDING,
+                createLatexBinding(converter, includedPaths), ScriptContext.ENGINE_SCOPE);
+
+            DeferredFileOutputStream content = createDocumentContent();
+            try (Writer writer = createDocumentWriter(content)) {
+                this.renderer.render(xdom, new WriterWikiPrinter(writer));
+            } catch (Exception e) {
+                deleteDocumentContent(content);
+                throw e;
+            }
 
-                IOUtils.write(latexContent, this.zipStream, StandardCharsets.UTF_8);
+            return content;
+        };
+    }
+
+    /**
+     * Save the converted documents in the order in which they have been received.
+     *
+     * @param maxWaiting the number of documents which can stay waiting for their conversion to finish
+     */
+    private void saveConvertedDocuments(int maxWaiting) throws IOException
+    {
+        while (!this.convertingDocuments.isEmpty() && (this.convertingDocuments.size() > maxWaiting
+            || this.convertingDocuments.peek().content.isDone()))
+        {
+            ConvertingDocument document = this.convertingDocuments.poll();
+            DeferredFileOutputStream content = document.getContent();
+            try {
+                saveDocument(document.path, content);
             } finally {
-                this.zipStream.closeArchiveEntry();
+                deleteDocumentContent(content);
             }
+        }
+    }
 
-            this.includes.add(path);
+    /**
+     * Cancel the conversions which are still running (after a failure) and clean what they produced.
+     */
+    private void stopConversions() throws IOException
+    {
+        if (this.resourceExecutor != null) {
+            this.resourceExecutor.shutdownNow();
+        }
 
-            this.progressManager.endStep(this);
+        if (this.conversionExecutor != null) {
+            this.conversionExecutor.shutdownNow();
+
+            for (ConvertingDocument document : this.convertingDocuments) {
+                if (document.content.isDone() && !document.content.isCancelled()) {
+                    try {
+                        deleteDocumentContent(document.getContent());
+                    } catch (IOException e) {
+                        // The conversion failed so there is nothing to delete
+                    }
+                }
+            }
+            this.convertingDocuments.clear();
+        }
+
+        if (this.zipFileStore != null) {
+            this.zipFileStore.cancel();
         }
     }
 
@@ -307,13 +639,14 @@ public class LaTeXOutputFilterStream extends AbstractBeanOutputFilterStream<LaTe
     {
         try {
             // Finish generating LaTeX content for the document.
+            // Note: the index is generated only once, when closing the stream.
             end();
-            // Generate the index for the document.
-            generateIndex();
-        } catch (IOException e) {
+        } catch (IOException | ComponentLookupException e) {
+            if (this.conversionError == null) {
+                this.conversionError = e;
+            }
             throw new FilterException(e);
         } finally {
-            // Note: calling the pop here and not inside end() since generateIndex() will also add some steps.
             this.progressManager.popLevelProgress(this);
         }
 
@@ -343,4 +676,29 @@ public class LaTeXOutputFilterStream extends AbstractBeanOutputFilterStream<LaTe
     {
         // Not supported
     }
+
+    private static final class ConvertingDocument
+    {
+        private final String path;
+
+        private final Future<DeferredFileOutputStream> content;
+
+        ConvertingDocument(String path, Future<DeferredFileOutputStream> content)
+        {
+            this.path = path;
+            this.content = content;
+        }
+
+        DeferredFileOutputStream getContent() throws IOException
+        {
+            try {
+                return this.content.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(String.format("Interrupted while converting [%s] to LaTeX", this.path), e);
+            } catch (ExecutionException e) {
+                throw new IOException(String.format("Failed to convert [%s] to LaTeX", this.path), e.getCause());
+            }
+        }
+    }
 }
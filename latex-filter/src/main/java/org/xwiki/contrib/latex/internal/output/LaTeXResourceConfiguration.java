@@ -0,0 +1,120 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.output;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+
+/**
+ * Configuration of the handling of the resources (attachments, downloaded files and images) included in the LaTeX
+ * packages, and of the caches keeping them between exports.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+@Component(roles = LaTeXResourceConfiguration.class)
+@Singleton
+public class LaTeXResourceConfiguration
+{
+    private static final String ATTACHMENTS_PREFIX = "latex.attachments.";
+
+    private static final String DOWNLOAD_PREFIX = "latex.download.";
+
+    private static final String IMAGES_PREFIX = "latex.images.";
+
+    private static final String CACHE_MAX_SIZE = "cache.maxSize";
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configurationSource;
+
+    /**
+     * @return the maximum size in megabytes of the attachment contents kept to be reused by the next exports.
+     *         {@code 0} disables the cache. Default is {@code 1000}
+     */
+    public long getAttachmentCacheMaxSize()
+    {
+        return this.configurationSource.getProperty(ATTACHMENTS_PREFIX + CACHE_MAX_SIZE, 1000L);
+    }
+
+    /**
+     * @return the timeout in seconds to connect to the server of a remote resource. Default is {@code 10}
+     */
+    public int getDownloadConnectTimeout()
+    {
+        return this.configurationSource.getProperty(DOWNLOAD_PREFIX + "connectTimeout", 10);
+    }
+
+    /**
+     * @return the timeout in seconds to wait for data from the server of a remote resource. Default is {@code 30}
+     */
+    public int getDownloadReadTimeout()
+    {
+        return this.configurationSource.getProperty(DOWNLOAD_PREFIX + "readTimeout", 30);
+    }
+
+    /**
+     * @return the maximum size in megabytes of a remote resource. Default is {@code 50}
+     */
+    public long getDownloadMaxSize()
+    {
+        return this.configurationSource.getProperty(DOWNLOAD_PREFIX + "maxSize", 50L);
+    }
+
+    /**
+     * @return the maximum size in megabytes of the downloaded resources kept to be reused by the next exports.
+     *         Default is {@code 500}
+     */
+    public long getDownloadCacheMaxSize()
+    {
+        return this.configurationSource.getProperty(DOWNLOAD_PREFIX + CACHE_MAX_SIZE, 500L);
+    }
+
+    /**
+     * @return the resolution in dots per inch to which the images bigger than their displayed size are downscaled.
+     *         {@code 0} disables the downscaling. Default is {@code 0}
+     */
+    public int getImageResolution()
+    {
+        return this.configurationSource.getProperty(IMAGES_PREFIX + "dpi", 0);
+    }
+
+    /**
+     * @return true if the images in formats not supported by pdflatex (GIF, BMP, TIFF) should be converted to PNG.
+     *         Default is {@code true}
+     */
+    public boolean isImageConversionEnabled()
+    {
+        return this.configurationSource.getProperty(IMAGES_PREFIX + "convert", true);
+    }
+
+    /**
+     * @return the maximum size in megabytes of the processed images kept to be reused by the next exports. Default
+     *         is {@code 500}
+     */
+    public long getImageCacheMaxSize()
+    {
+        return this.configurationSource.getProperty(IMAGES_PREFIX + CACHE_MAX_SIZE, 500L);
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.output;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.MacroMarkerBlock;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.listener.MetaData;
+import org.xwiki.rendering.renderer.BlockRenderer;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+
+/**
+ * Renders a document to LaTeX as its top level blocks are generated, so that only the block being rendered (and the
+ * one before it, for the templates looking at the previous sibling, and the few ones generated in advance so that their
+ * resources are fetched in the meantime) is kept in memory instead of the whole document.
+ * <p>
+ * The {@code XDOM} template is rendered once with a marker in place of the document content, and the output is split
+ * around this marker to get what should be written before and after the content. When this is not possible (the
+ * template doesn't output the content as is, or streaming is disabled) the whole document is generated and rendered at
+ * the end, as before. Some content also needs the whole document to be rendered (e.g. footnotes, for which the
+ * template looks for the footnote content elsewhere in the document): when such content is found, the rest of the
+ * document is kept in memory and rendered at the end.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+public class StreamingDocumentRenderer implements TopLevelBlockGenerator.Callback
+{
+    /**
+     * The macros for which the template needs to access the whole document.
+     */
+    private static final Set<String> DOCUMENT_MACROS = new HashSet<>(Arrays.asList("footnote", "putFootnotes"));
+
+    private final BlockRenderer renderer;
+
+    private final WikiPrinter printer;
+
+    private final Consumer<Block> prefetcher;
+
+    private final int prefetchDistance;
+
+    /**
+     * The top level blocks which have been generated (and prefetched) but not rendered yet.
+     */
+    private final Deque<Block> pendingBlocks = new ArrayDeque<>();
+
+    /**
+     * True while the top level blocks are rendered as soon as they're generated.
+     */
+    private boolean streaming;
+
+    /**
+     * True if what comes before the document content has already been written.
+     */
+    private boolean framed;
+
+    /**
+     * What should be written after the document content.
+     */
+    private String frameEnd;
+
+    private XDOM root;
+
+    /**
+     * The last rendered top level block, kept as previous sibling of the next rendered block.
+     */
+    private Block previousBlock;
+
+    /**
+     * The number of children of the root which have already been rendered.
+     */
+    private int renderedCount;
+
+    /**
+     * @param renderer the LaTeX renderer
+     * @param printer the printer where to write the LaTeX content of the document
+     * @param streaming true if the document should be rendered as it's generated, false to render it at the end
+     */
+    public StreamingDocumentRenderer(BlockRenderer renderer, WikiPrinter printer, boolean streaming)
+    {
+        this(renderer, printer, streaming, block -> { }, 0);
+    }
+
+    /**
+     * @param renderer the LaTeX renderer
+     * @param printer the printer where to write the LaTeX content of the document
+     * @param streaming true if the document should be rendered as it's generated, false to render it at the end
+     * @param prefetcher called with each top level block as soon as it's generated, before it's rendered, e.g. to
+     *        start fetching the resources it uses
+     * @param prefetchDistance the number of top level blocks generated in advance of the one being rendered, so that
+     *        their resources are fetched while the previous blocks are rendered
+     */
+    public StreamingDocumentRenderer(BlockRenderer renderer, WikiPrinter printer, boolean streaming,
+        Consumer<Block> prefetcher, int prefetchDistance)
+    {
+        this.renderer = renderer;
+        this.printer = printer;
+        this.streaming = streaming;
+        this.prefetcher = prefetcher;
+        this.prefetchDistance = prefetchDistance;
+    }
+
+    @Override
+    public void beginDocument(MetaData metadata)
+    {
+        this.root = new XDOM(Collections.emptyList(), metadata);
+
+        if (this.streaming) {
+            renderFrame(metadata);
+        }
+    }
+
+    @Override
+    public void onBlocks(List<Block> blocks)
+    {
+        blocks.forEach(this.prefetcher);
+
+        if (this.streaming && requiresDocument(blocks)) {
+            // Keep the rest of the document in memory, starting with the blocks which are not rendered yet.
+            this.streaming = false;
+            this.root.addChildren(new ArrayList<>(this.pendingBlocks));
+            this.pendingBlocks.clear();
+        }
+
+        if (this.streaming) {
+            // Render the oldest blocks, while the resources of the next ones are being fetched
+            this.pendingBlocks.addAll(blocks);
+            List<Block> readyBlocks = new ArrayList<>();
+            while (this.pendingBlocks.size() > this.prefetchDistance) {
+                readyBlocks.add(this.pendingBlocks.removeFirst());
+            }
+            render(readyBlocks);
+        } else {
+            this.root.addChildren(blocks);
+        }
+    }
+
+    @Override
+    public void endDocument(MetaData metadata)
+    {
+        if (this.framed) {
+            render(new ArrayList<>(this.pendingBlocks));
+            this.pendingBlocks.clear();
+
+            List<Block> children = this.root.getChildren();
+            if (this.renderedCount < children.size()) {
+                this.renderer.render(new ArrayList<>(children.subList(this.renderedCount, children.size())),
+                    this.printer);
+            }
+            this.printer.print(this.frameEnd);
+        } else {
+            this.renderer.render(this.root, this.printer);
+        }
+
+        this.root = null;
+        this.previousBlock = null;
+    }
+
+    private void renderFrame(MetaData metadata)
+    {
+        String marker = "XWikiLaTeXContent" + UUID.randomUUID().toString().replace("-", "");
+
+        XDOM frame = new XDOM(Collections.singletonList(new WordBlock(marker)), metadata);
+        DefaultWikiPrinter framePrinter = new DefaultWikiPrinter();
+        this.renderer.render(frame, framePrinter);
+        String frameContent = framePrinter.toString();
+
+        int index = frameContent.indexOf(marker);
+        if (index >= 0 && frameContent.indexOf(marker, index + marker.length()) < 0) {
+            this.printer.print(frameContent.substring(0, index));
+            this.frameEnd = frameContent.substring(index + marker.length());
+            this.framed = true;
+        } else {
+            this.streaming = false;
+        }
+    }
+
+    private void render(List<Block> blocks)
+    {
+        if (blocks.isEmpty()) {
+            return;
+        }
+
+        // Only keep the previous block in the document, the other ones have already been rendered.
+        List<Block> children = new ArrayList<>(blocks.size() + 1);
+        for (Block child : this.root.getChildren()) {
+            detach(child);
+        }
+        if (this.previousBlock != null) {
+            children.add(this.previousBlock);
+        }
+        children.addAll(blocks);
+        this.root.setChildren(children);
+        this.renderedCount = children.size();
+
+        this.renderer.render(blocks, this.printer);
+
+        this.previousBlock = blocks.get(blocks.size() - 1);
+    }
+
+    private void detach(Block block)
+    {
+        block.setParent(null);
+        block.setPreviousSiblingBlock(null);
+        block.setNextSiblingBlock(null);
+    }
+
+    private boolean requiresDocument(List<Block> blocks)
+    {
+        for (Block block : blocks) {
+            Block macroBlock = block.getFirstBlock(
+                b -> b instanceof MacroMarkerBlock && DOCUMENT_MACROS.contains(((MacroMarkerBlock) b).getId()),
+                Block.Axes.DESCENDANT_OR_SELF);
+            if (macroBlock != null) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.output;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.internal.parser.XDOMGeneratorListener;
+import org.xwiki.rendering.listener.Listener;
+import org.xwiki.rendering.listener.MetaData;
+
+/**
+ * Generates the blocks of a document one top level block at a time instead of generating the whole
+ * {@link org.xwiki.rendering.block.XDOM} at once, so that each of them can be rendered and released before the next
+ * one is generated.
+ * <p>
+ * Since the events of the {@link Listener} interface are all named {@code beginXXX}, {@code endXXX} or {@code onXXX},
+ * the depth of the events is tracked from their name (through a dynamic proxy) which makes this generator support any
+ * new event without modification.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+public class TopLevelBlockGenerator implements InvocationHandler
+{
+    /**
+     * Receives the generated blocks.
+     *
+     * @version $Id$
+     */
+    public interface Callback
+    {
+        /**
+         * The document starts.
+         *
+         * @param metadata the metadata of the document
+         */
+        void beginDocument(MetaData metadata);
+
+        /**
+         * A top level block has been fully generated.
+         *
+         * @param blocks the generated top level blocks (generally only one)
+         */
+        void onBlocks(List<Block> blocks);
+
+        /**
+         * The document ends.
+         *
+         * @param metadata the metadata of the document
+         */
+        void endDocument(MetaData metadata);
+    }
+
+    private static final String BEGIN_DOCUMENT = "beginDocument";
+
+    private static final String END_DOCUMENT = "endDocument";
+
+    private final Callback callback;
+
+    private final Listener listener;
+
+    /**
+     * The depth of the current event, 0 being outside of the document and 1 being directly inside the document.
+     */
+    private int depth;
+
+    private XDOMGeneratorListener generator;
+
+    /**
+     * @param callback the callback which receives the generated blocks
+     */
+    public TopLevelBlockGenerator(Callback callback)
+    {
+        this.callback = callback;
+        this.listener = (Listener) Proxy.newProxyInstance(Listener.class.getClassLoader(),
+            new Class<?>[] { Listener.class }, this);
+    }
+
+    /**
+     * @return the listener to send the document events to
+     */
+    public Listener getListener()
+    {
+        return this.listener;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+    {
+        if (method.getDeclaringClass() == Object.class) {
+            return method.invoke(this, args);
+        }
+
+        String name = method.getName();
+        if (this.depth == 0 && name.equals(BEGIN_DOCUMENT)) {
+            this.depth++;
+            this.callback.beginDocument((MetaData) args[0]);
+        } else if (this.depth == 1 && name.equals(END_DOCUMENT)) {
+            this.depth--;
+            this.callback.endDocument((MetaData) args[0]);
+        } else {
+            try {
+                onEvent(method, args, name);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        return null;
+    }
+
+    private void onEvent(Method method, Object[] args, String name)
+        throws IllegalAccessException, InvocationTargetException
+    {
+        if (this.generator == null) {
+            this.generator = new XDOMGeneratorListener();
+            this.generator.beginDocument(MetaData.EMPTY);
+        }
+
+        method.invoke(this.generator, args);
+
+        if (name.startsWith("begin")) {
+            this.depth++;
+        } else if (name.startsWith("end")) {
+            this.depth--;
+        }
+
+        if (this.depth == 1) {
+            // A top level block has been fully generated
+            this.generator.endDocument(MetaData.EMPTY);
+            List<Block> blocks = new ArrayList<>(this.generator.getXDOM().getChildren());
+            this.generator = null;
+
+            this.callback.onBlocks(blocks);
+        }
+    }
+}
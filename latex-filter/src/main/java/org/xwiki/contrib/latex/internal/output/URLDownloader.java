@@ -0,0 +1,233 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.environment.Environment;
+
+/**
+ * Downloads the remote resources (e.g. images referenced by URL) included in the LaTeX packages. The downloaded files
+ * are kept in the temporary directory and shared between exports: when a resource is downloaded again the server is
+ * asked whether it changed since the previous download (using the {@code ETag} and {@code Last-Modified} headers it
+ * returned) so that unchanged resources are not transferred again. Downloads are bounded in time and size so that a
+ * slow or misbehaving server cannot block an export.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+@Component(roles = URLDownloader.class)
+@Singleton
+public class URLDownloader implements Initializable
+{
+    private static final String DATA_EXTENSION = ".data";
+
+    private static final String METADATA_EXTENSION = ".properties";
+
+    private static final String ETAG = "ETag";
+
+    private static final String LAST_MODIFIED = "Last-Modified";
+
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    private static final int SECOND = 1000;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private LaTeXResourceConfiguration configuration;
+
+    @Inject
+    private Logger logger;
+
+    private FileCache cache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.cache = new FileCache(new File(this.environment.getTemporaryDirectory(), "latex/downloads").toPath(),
+            file -> file.getFileName().toString().endsWith(DATA_EXTENSION), this.logger);
+    }
+
+    /**
+     * Download the resource located at the passed URL, unless the cached copy is still up to date.
+     *
+     * @param url the URL of the resource
+     * @return the downloaded resource, which is not removed until it's closed, and not to be modified
+     * @throws IOException when failing to download the resource, when it takes too long or when it's too big
+     */
+    public FileCache.Entry download(URL url) throws IOException
+    {
+        String key = HashUtils.hash(url.toString());
+        Path metadataFile = this.cache.getDirectory().resolve(key + METADATA_EXTENSION);
+
+        String name = key + DATA_EXTENSION;
+        FileCache.Entry entry;
+        synchronized (this.cache.getLock(key)) {
+            // Make sure the cached copy is not removed while checking if it's still up to date
+            try (FileCache.Entry cachedEntry = this.cache.get(name)) {
+                Properties metadata = cachedEntry != null ? loadMetadata(metadataFile) : new Properties();
+
+                URLConnection connection = url.openConnection();
+                connection.setConnectTimeout(this.configuration.getDownloadConnectTimeout() * SECOND);
+                connection.setReadTimeout(this.configuration.getDownloadReadTimeout() * SECOND);
+                metadata.stringPropertyNames().forEach(header -> connection.setRequestProperty(
+                    ETAG.equals(header) ? "If-None-Match" : "If-Modified-Since", metadata.getProperty(header)));
+
+                if (isModified(connection, metadata)) {
+                    entry = this.cache.store(file -> save(connection, file, name));
+                    try {
+                        saveMetadata(connection, metadataFile);
+                    } catch (IOException e) {
+                        entry.close();
+                        throw e;
+                    }
+                } else {
+                    entry = this.cache.pin(name);
+                }
+            }
+        }
+
+        for (Path evictedFile : this.cache.evict(this.configuration.getDownloadCacheMaxSize() * MEGABYTE, 0)) {
+            deleteMetadata(evictedFile);
+        }
+
+        return entry;
+    }
+
+    private boolean isModified(URLConnection connection, Properties metadata) throws IOException
+    {
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            int status = httpConnection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && !metadata.isEmpty()) {
+                return false;
+            } else if (status / 100 != 2) {
+                disconnect(connection);
+
+                throw new IOException(String.format("Unexpected response status [%s] when downloading [%s]", status,
+                    connection.getURL()));
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the name of the cached file
+     */
+    private String save(URLConnection connection, Path file, String name) throws IOException
+    {
+        long maxSize = this.configuration.getDownloadMaxSize() * MEGABYTE;
+        String tooBigMessage = "[%s] is bigger than the maximum size of [%s] bytes";
+        if (connection.getContentLengthLong() > maxSize) {
+            disconnect(connection);
+
+            throw new IOException(String.format(tooBigMessage, connection.getURL(), maxSize));
+        }
+
+        // Read one more byte than allowed to know when the resource is too big
+        try (InputStream stream = new BoundedInputStream(connection.getInputStream(), maxSize + 1)) {
+            if (Files.copy(stream, file) > maxSize) {
+                throw new IOException(String.format(tooBigMessage, connection.getURL(), maxSize));
+            }
+        }
+
+        return name;
+    }
+
+    private void disconnect(URLConnection connection)
+    {
+        if (connection instanceof HttpURLConnection) {
+            ((HttpURLConnection) connection).disconnect();
+        }
+    }
+
+    private Properties loadMetadata(Path metadataFile)
+    {
+        Properties metadata = new Properties();
+        if (Files.isRegularFile(metadataFile)) {
+            try (Reader reader = Files.newBufferedReader(metadataFile, StandardCharsets.UTF_8)) {
+                metadata.load(reader);
+            } catch (IOException e) {
+                // Download the resource again
+                this.logger.warn("Failed to read the metadata of the downloaded file [{}]. Root cause: [{}]",
+                    metadataFile, ExceptionUtils.getRootCauseMessage(e));
+                metadata.clear();
+            }
+        }
+
+        return metadata;
+    }
+
+    private void saveMetadata(URLConnection connection, Path metadataFile) throws IOException
+    {
+        Properties metadata = new Properties();
+        for (String header : new String[] { ETAG, LAST_MODIFIED }) {
+            String value = connection.getHeaderField(header);
+            if (StringUtils.isNotEmpty(value)) {
+                metadata.setProperty(header, value);
+            }
+        }
+
+        if (metadata.isEmpty()) {
+            // The resource will have to be downloaded again each time
+            Files.deleteIfExists(metadataFile);
+        } else {
+            try (Writer writer = Files.newBufferedWriter(metadataFile, StandardCharsets.UTF_8)) {
+                metadata.store(writer, null);
+            }
+        }
+    }
+
+    private void deleteMetadata(Path file)
+    {
+        Path metadataFile = file.resolveSibling(
+            StringUtils.removeEnd(file.getFileName().toString(), DATA_EXTENSION) + METADATA_EXTENSION);
+        try {
+            Files.deleteIfExists(metadataFile);
+        } catch (IOException e) {
+            this.logger.warn("Failed to remove the metadata of the downloaded file [{}]. Root cause: [{}]", file,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+}
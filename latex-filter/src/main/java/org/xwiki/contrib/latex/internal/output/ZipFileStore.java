@@ -0,0 +1,237 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.output;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.zip.ParallelScatterZipCreator;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.parallel.FileBasedScatterGatherBackingStore;
+import org.apache.commons.compress.parallel.ScatterGatherBackingStore;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.xwiki.contrib.latex.internal.LaTeXFileStore;
+
+/**
+ * Stores the files of the LaTeX package as entries of a zip file. Entries are written one at a time, whatever the
+ * number of threads storing files.
+ * <p>
+ * Already compressed files (e.g. images) are stored without compression. When an executor is provided, big text
+ * files are compressed in parallel and written to the zip file by {@link #finish()}.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+public class ZipFileStore implements LaTeXFileStore
+{
+    /**
+     * The size above which a compressed entry is compressed in parallel, when an executor is provided. Smaller
+     * entries are faster to compress directly than to spool.
+     */
+    private static final int PARALLEL_THRESHOLD = 1024 * 1024;
+
+    private static final String TEMPORARY_PREFIX = "zip";
+
+    private final ZipArchiveOutputStream zipStream;
+
+    private final File temporaryDirectory;
+
+    private final ExecutorService compressionExecutor;
+
+    private final ParallelScatterZipCreator parallelCreator;
+
+    private final Set<String> paths = new HashSet<>();
+
+    private final List<Path> spooledFiles = new ArrayList<>();
+
+    /**
+     * The backing stores are created by the compression threads.
+     */
+    private final List<ScatterGatherBackingStore> backingStores = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param zipStream the zip file to add the entries to
+     */
+    public ZipFileStore(ZipArchiveOutputStream zipStream)
+    {
+        this(zipStream, Deflater.DEFAULT_COMPRESSION, null, null);
+    }
+
+    /**
+     * @param zipStream the zip file to add the entries to
+     * @param compressionLevel the compression level of the compressed entries, from {@link Deflater#NO_COMPRESSION}
+     *        to {@link Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param compressionExecutor the executor used to compress the big entries in parallel, {@code null} to compress
+     *        all the entries as they are stored
+     * @param temporaryDirectory the directory where to buffer the entries before they are written, {@code null} to
+     *        use the default temporary directory
+     */
+    public ZipFileStore(ZipArchiveOutputStream zipStream, int compressionLevel, ExecutorService compressionExecutor,
+        File temporaryDirectory)
+    {
+        this.zipStream = zipStream;
+        this.zipStream.setLevel(compressionLevel);
+        this.temporaryDirectory = temporaryDirectory;
+        this.compressionExecutor = compressionExecutor;
+        if (compressionExecutor != null) {
+            this.parallelCreator =
+                new ParallelScatterZipCreator(compressionExecutor, this::createBackingStore, compressionLevel);
+        } else {
+            this.parallelCreator = null;
+        }
+    }
+
+    @Override
+    public synchronized boolean contains(String path)
+    {
+        return this.paths.contains(path);
+    }
+
+    @Override
+    public synchronized boolean store(String path, InputStream inputStream) throws IOException
+    {
+        if (!this.paths.add(path)) {
+            return false;
+        }
+
+        if (this.parallelCreator != null && !ZipUtils.isCompressed(path)) {
+            storeInParallel(path, inputStream);
+        } else {
+            ZipUtils.store(path, inputStream, this.zipStream, this.temporaryDirectory);
+        }
+
+        return true;
+    }
+
+    @Override
+    public synchronized boolean store(String path, File file) throws IOException
+    {
+        if (this.parallelCreator != null && !ZipUtils.isCompressed(path)) {
+            return LaTeXFileStore.super.store(path, file);
+        }
+
+        if (!this.paths.add(path)) {
+            return false;
+        }
+
+        // No need to spool the file to compute the checksum of uncompressed entries
+        ZipUtils.store(path, file, this.zipStream);
+
+        return true;
+    }
+
+    /**
+     * Write the entries compressed in parallel to the zip file. Must be called before closing the zip file.
+     *
+     * @throws IOException when failing to compress an entry
+     */
+    public synchronized void finish() throws IOException
+    {
+        if (this.parallelCreator != null) {
+            try {
+                this.parallelCreator.writeTo(this.zipStream);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while compressing the zip entries", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to compress the zip entries", e);
+            } finally {
+                cancel();
+            }
+        }
+    }
+
+    /**
+     * Stop the compressions which are still running (after a failure) and delete the temporary files. Does nothing
+     * once {@link #finish()} has been called.
+     *
+     * @throws IOException when failing to delete a temporary file
+     */
+    public synchronized void cancel() throws IOException
+    {
+        if (this.compressionExecutor != null) {
+            this.compressionExecutor.shutdownNow();
+        }
+
+        for (Path file : this.spooledFiles) {
+            Files.deleteIfExists(file);
+        }
+        this.spooledFiles.clear();
+
+        for (ScatterGatherBackingStore backingStore : this.backingStores) {
+            backingStore.close();
+        }
+        this.backingStores.clear();
+    }
+
+    private void storeInParallel(String path, InputStream inputStream) throws IOException
+    {
+        DeferredFileOutputStream content =
+            new DeferredFileOutputStream(PARALLEL_THRESHOLD, TEMPORARY_PREFIX, ".tmp", this.temporaryDirectory);
+        try {
+            IOUtils.copy(inputStream, content);
+        } finally {
+            content.close();
+        }
+
+        if (content.isInMemory()) {
+            ZipUtils.store(path, new ByteArrayInputStream(content.getData()), this.zipStream);
+        } else {
+            Path file = content.getFile().toPath();
+            this.spooledFiles.add(file);
+
+            ZipArchiveEntry entry = new ZipArchiveEntry(path);
+            entry.setMethod(ZipEntry.DEFLATED);
+            this.parallelCreator.addArchiveEntry(entry, () -> {
+                try {
+                    return Files.newInputStream(file, StandardOpenOption.DELETE_ON_CLOSE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    private ScatterGatherBackingStore createBackingStore() throws IOException
+    {
+        ScatterGatherBackingStore backingStore = new FileBasedScatterGatherBackingStore(
+            File.createTempFile(TEMPORARY_PREFIX, ".scatter", this.temporaryDirectory));
+        this.backingStores.add(backingStore);
+
+        return backingStore;
+    }
+}
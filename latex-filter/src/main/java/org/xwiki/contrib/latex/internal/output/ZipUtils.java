@@ -19,12 +19,24 @@
  */
 package org.xwiki.contrib.latex.internal.output;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
 
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,11 +50,35 @@ public final class ZipUtils
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(ZipUtils.class);
 
+    /**
+     * The extensions of the files whose content is already compressed, and which are thus stored without compression
+     * since compressing them again would cost time for almost no gain.
+     */
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList("png", "jpg", "jpeg", "gif",
+        "webp", "pdf", "zip", "gz", "tgz", "bz2", "xz", "7z", "jar", "docx", "xlsx", "pptx", "odt", "ods", "odp", "mp3",
+        "mp4", "woff", "woff2"));
+
+    /**
+     * The size above which the content of an uncompressed entry is buffered in a temporary file instead of in memory
+     * while its checksum is computed.
+     */
+    private static final int MEMORY_THRESHOLD = 1024 * 1024;
+
     private ZipUtils()
     {
         // Utility class
     }
 
+    /**
+     * @param path the path of a file
+     * @return true if the content of the file is already compressed, based on its extension
+     * @since 1.26.2
+     */
+    public static boolean isCompressed(String path)
+    {
+        return COMPRESSED_EXTENSIONS.contains(FilenameUtils.getExtension(path).toLowerCase(Locale.ROOT));
+    }
+
     /**
      * @param path the path under with to add a zip entry in the zip
      * @param inputStream the content to add to the zip entry
@@ -50,13 +86,104 @@ public final class ZipUtils
      * @throws IOException in case of error
      */
     public static void store(String path, InputStream inputStream, ZipArchiveOutputStream zipStream) throws IOException
+    {
+        store(path, inputStream, zipStream, null);
+    }
+
+    /**
+     * Add an entry to the zip file. Already compressed files (see {@link #isCompressed(String)}) are stored without
+     * compression.
+     *
+     * @param path the path under with to add a zip entry in the zip
+     * @param inputStream the content to add to the zip entry
+     * @param zipStream the zip file to add to
+     * @param temporaryDirectory the directory where to buffer the big uncompressed entries, {@code null} to use the
+     *        default temporary directory
+     * @throws IOException in case of error
+     * @since 1.26.2
+     */
+    public static void store(String path, InputStream inputStream, ZipArchiveOutputStream zipStream,
+        File temporaryDirectory) throws IOException
+    {
+        if (isCompressed(path)) {
+            storeUncompressed(path, inputStream, zipStream, temporaryDirectory);
+        } else {
+            storeEntry(new ZipArchiveEntry(path), inputStream, zipStream);
+        }
+    }
+
+    /**
+     * Add an entry to the zip file. Already compressed files (see {@link #isCompressed(String)}) are stored without
+     * compression.
+     *
+     * @param path the path under with to add a zip entry in the zip
+     * @param file the content to add to the zip entry
+     * @param zipStream the zip file to add to
+     * @throws IOException in case of error
+     * @since 1.26.2
+     */
+    public static void store(String path, File file, ZipArchiveOutputStream zipStream) throws IOException
+    {
+        if (isCompressed(path)) {
+            // Uncompressed entries need their size and checksum before their content
+            CRC32 crc = new CRC32();
+            try (InputStream inputStream = new CheckedInputStream(Files.newInputStream(file.toPath()), crc)) {
+                IOUtils.consume(inputStream);
+            }
+            try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+                storeEntry(createUncompressedEntry(path, file.length(), crc), inputStream, zipStream);
+            }
+        } else {
+            try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+                storeEntry(new ZipArchiveEntry(path), inputStream, zipStream);
+            }
+        }
+    }
+
+    private static void storeUncompressed(String path, InputStream inputStream, ZipArchiveOutputStream zipStream,
+        File temporaryDirectory) throws IOException
+    {
+        // Uncompressed entries need their size and checksum before their content
+        CRC32 crc = new CRC32();
+        DeferredFileOutputStream content =
+            new DeferredFileOutputStream(MEMORY_THRESHOLD, "zip", ".tmp", temporaryDirectory);
+        try {
+            try {
+                IOUtils.copy(new CheckedInputStream(inputStream, crc), content);
+            } finally {
+                content.close();
+            }
+
+            try (InputStream contentStream = content.isInMemory() ? new ByteArrayInputStream(content.getData())
+                : Files.newInputStream(content.getFile().toPath()))
+            {
+                storeEntry(createUncompressedEntry(path, content.getByteCount(), crc), contentStream, zipStream);
+            }
+        } finally {
+            if (!content.isInMemory()) {
+                Files.deleteIfExists(content.getFile().toPath());
+            }
+        }
+    }
+
+    private static ZipArchiveEntry createUncompressedEntry(String path, long size, CRC32 crc)
     {
         ZipArchiveEntry entry = new ZipArchiveEntry(path);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(size);
+        entry.setCrc(crc.getValue());
+
+        return entry;
+    }
+
+    private static void storeEntry(ZipArchiveEntry entry, InputStream inputStream, ZipArchiveOutputStream zipStream)
+        throws IOException
+    {
         try {
             zipStream.putArchiveEntry(entry);
             IOUtils.copy(inputStream, zipStream);
         } catch (IOException e) {
-            LOGGER.error("Failed to store file at [{}]", path, e);
+            LOGGER.error("Failed to store file at [{}]", entry.getName(), e);
         } finally {
             zipStream.closeArchiveEntry();
         }
@@ -19,7 +19,10 @@
  */
 package org.xwiki.contrib.latex.output;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.zip.Deflater;
 
 import org.xwiki.filter.DefaultFilterStreamProperties;
 import org.xwiki.filter.output.OutputTarget;
@@ -71,8 +74,23 @@ public class LaTeXOutputProperties extends DefaultFilterStreamProperties
      */
     private Date date;
 
+    private boolean streaming = true;
+
+    private int threads = 1;
+
+    private int resourceThreads;
+
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    private int compressionThreads;
+
+    private boolean cleanTarget;
+
+    private List<String> preservedFiles = new ArrayList<>();
+
     /**
-     * @return The path and name of the ZIP where to save the content
+     * @return The path and name of the ZIP where to save the content, or the existing directory in which to write
+     *         the LaTeX files (since 1.26.2)
      */
     @PropertyName("Target")
     @PropertyDescription("The target where to save the content")
@@ -310,4 +328,164 @@ public class LaTeXOutputProperties extends DefaultFilterStreamProperties
     {
         this.date = date;
     }
+
+    /**
+     * @return true if the documents should be converted to LaTeX while their content is received (which keeps less
+     *         content in memory), false to convert them once their whole content has been received. Disabling it can
+     *         be needed if a customized {@code XDOM} template inspects the whole content of the document. Documents
+     *         are never streamed when UI extensions are registered for {@code org.xwiki.contrib.latex.XDOM.after},
+     *         since the {@code XDOM} template (and thus these extensions) would be evaluated before the content
+     * @since 1.26.2
+     */
+    @PropertyName("Streaming")
+    @PropertyDescription("Whether the documents should be converted to LaTeX while their content is received")
+    @PropertyHidden
+    public boolean isStreaming()
+    {
+        return this.streaming;
+    }
+
+    /**
+     * @param streaming see {@link #isStreaming()}
+     * @since 1.26.2
+     */
+    public void setStreaming(boolean streaming)
+    {
+        this.streaming = streaming;
+    }
+
+    /**
+     * @return the number of documents converted to LaTeX at the same time, each in its own thread. Default is
+     *         {@code 1} (documents are converted one after the other, as their content is received)
+     * @since 1.26.2
+     */
+    @PropertyName("Threads")
+    @PropertyDescription("The number of documents converted to LaTeX at the same time")
+    @PropertyHidden
+    public int getThreads()
+    {
+        return this.threads;
+    }
+
+    /**
+     * @param threads see {@link #getThreads()}
+     * @since 1.26.2
+     */
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
+
+    /**
+     * @return the number of resources (e.g. attached images) fetched at the same time, in the background, before the
+     *         content using them is rendered. Default is {@code 0} (resources are fetched one after the other, when
+     *         the content using them is rendered)
+     * @since 1.26.2
+     */
+    @PropertyName("Resource threads")
+    @PropertyDescription("The number of resources fetched at the same time")
+    @PropertyHidden
+    public int getResourceThreads()
+    {
+        return this.resourceThreads;
+    }
+
+    /**
+     * @param resourceThreads see {@link #getResourceThreads()}
+     * @since 1.26.2
+     */
+    public void setResourceThreads(int resourceThreads)
+    {
+        this.resourceThreads = resourceThreads;
+    }
+
+    /**
+     * @return the compression level of the text files (e.g. the {@code .tex} files) of the zip file, from {@code 0}
+     *         (no compression) to {@code 9} (best compression). Default is {@code -1} (the default compression level).
+     *         Already compressed files (e.g. images) are never compressed again
+     * @since 1.26.2
+     */
+    @PropertyName("Compression level")
+    @PropertyDescription("The compression level of the text files of the zip file, from 0 to 9")
+    @PropertyHidden
+    public int getCompressionLevel()
+    {
+        return this.compressionLevel;
+    }
+
+    /**
+     * @param compressionLevel see {@link #getCompressionLevel()}
+     * @since 1.26.2
+     */
+    public void setCompressionLevel(int compressionLevel)
+    {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @return the number of big text files of the zip file compressed at the same time, each in its own thread.
+     *         Default is {@code 0} (files are compressed one after the other, as they are stored)
+     * @since 1.26.2
+     */
+    @PropertyName("Compression threads")
+    @PropertyDescription("The number of big files of the zip file compressed at the same time")
+    @PropertyHidden
+    public int getCompressionThreads()
+    {
+        return this.compressionThreads;
+    }
+
+    /**
+     * @param compressionThreads see {@link #getCompressionThreads()}
+     * @since 1.26.2
+     */
+    public void setCompressionThreads(int compressionThreads)
+    {
+        this.compressionThreads = compressionThreads;
+    }
+
+    /**
+     * @return true if the files of the target directory which are not part of the exported LaTeX package (e.g. the
+     *         files of documents exported previously in the same directory) should be removed, except the ones listed
+     *         by {@link #getPreservedFiles()}. Only used when the target is a directory. Default is {@code false}
+     * @since 1.26.2
+     */
+    @PropertyName("Clean target")
+    @PropertyDescription("Remove the files of the target directory which are not part of the export")
+    @PropertyHidden
+    public boolean isCleanTarget()
+    {
+        return this.cleanTarget;
+    }
+
+    /**
+     * @param cleanTarget see {@link #isCleanTarget()}
+     * @since 1.26.2
+     */
+    public void setCleanTarget(boolean cleanTarget)
+    {
+        this.cleanTarget = cleanTarget;
+    }
+
+    /**
+     * @return the paths (relative to the target directory) of the files to keep when cleaning the target directory,
+     *         the paths ending with {@code /} designating directories
+     * @since 1.26.2
+     */
+    @PropertyName("Preserved files")
+    @PropertyDescription("The files to keep when cleaning the target directory")
+    @PropertyHidden
+    public List<String> getPreservedFiles()
+    {
+        return this.preservedFiles;
+    }
+
+    /**
+     * @param preservedFiles see {@link #getPreservedFiles()}
+     * @since 1.26.2
+     */
+    public void setPreservedFiles(List<String> preservedFiles)
+    {
+        this.preservedFiles = preservedFiles;
+    }
 }
@@ -0,0 +1,142 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xwiki.contrib.latex.internal.output.DirectoryFileStore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link DirectoryFileStore}.
+ *
+ * @version $Id$
+ */
+public class DirectoryFileStoreTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void storeOnlyOncePerPath() throws Exception
+    {
+        File directory = this.folder.newFolder();
+        DirectoryFileStore store = new DirectoryFileStore(directory);
+
+        assertFalse(store.contains("files/attachments/image.png"));
+        assertTrue(store.store("files/attachments/image.png", toInputStream("first")));
+        assertTrue(store.contains("files/attachments/image.png"));
+        assertFalse(store.store("files/attachments/image.png", toInputStream("second")));
+
+        assertEquals("first", new String(Files.readAllBytes(new File(directory, "files/attachments/image.png")
+            .toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void storeKeepsUnchangedFiles() throws Exception
+    {
+        File directory = this.folder.newFolder();
+        File file = new File(directory, "index.tex");
+        Files.write(file.toPath(), "content".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(0));
+
+        assertTrue(new DirectoryFileStore(directory).store("index.tex", toInputStream("content")));
+        assertEquals(0, Files.getLastModifiedTime(file.toPath()).toMillis());
+
+        assertTrue(new DirectoryFileStore(directory).store("index.tex", toInputStream("new content")));
+        assertEquals("new content", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        assertEquals(1, directory.list().length);
+    }
+
+    @Test
+    public void storeFile() throws Exception
+    {
+        File source = this.folder.newFile();
+        Files.write(source.toPath(), "content".getBytes(StandardCharsets.UTF_8));
+        File directory = this.folder.newFolder();
+        File file = new File(directory, "files/attachments/image.png");
+
+        assertTrue(new DirectoryFileStore(directory).store("files/attachments/image.png", source));
+        assertTrue(Files.isSameFile(source.toPath(), file.toPath()));
+
+        File newSource = this.folder.newFile();
+        Files.write(newSource.toPath(), "new content".getBytes(StandardCharsets.UTF_8));
+        assertTrue(new DirectoryFileStore(directory).store("files/attachments/image.png", newSource));
+        assertEquals("new content", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        assertEquals("content", new String(Files.readAllBytes(source.toPath()), StandardCharsets.UTF_8));
+        assertEquals(1, file.getParentFile().list().length);
+    }
+
+    @Test
+    public void storeOutsideOfDirectory() throws Exception
+    {
+        DirectoryFileStore store = new DirectoryFileStore(this.folder.newFolder());
+
+        try {
+            store.store("../escaped.tex", toInputStream("content"));
+            fail("Should have failed");
+        } catch (IOException expected) {
+            assertFalse(new File(this.folder.getRoot(), "escaped.tex").exists());
+        }
+    }
+
+    @Test
+    public void deleteOtherFiles() throws Exception
+    {
+        File directory = this.folder.newFolder();
+        for (String path : Arrays.asList("index.tex", "index.aux", "files/attachments/old.png",
+            "_minted-index/default.pygstyle", "files/downloaded/old.png"))
+        {
+            File file = new File(directory, path);
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), path.getBytes(StandardCharsets.UTF_8));
+        }
+
+        DirectoryFileStore store = new DirectoryFileStore(directory);
+        store.store("index.tex", toInputStream("content"));
+        store.store("files/attachments/new.png", toInputStream("content"));
+        store.deleteOtherFiles(Arrays.asList("index.aux", "_minted-index/"));
+
+        assertTrue(new File(directory, "index.tex").exists());
+        assertTrue(new File(directory, "index.aux").exists());
+        assertTrue(new File(directory, "_minted-index/default.pygstyle").exists());
+        assertEquals(Arrays.asList("new.png"), Arrays.asList(new File(directory, "files/attachments").list()));
+        // The directories left empty are removed
+        assertFalse(new File(directory, "files/downloaded").exists());
+    }
+
+    private ByteArrayInputStream toInputStream(String content)
+    {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+import org.xwiki.contrib.latex.internal.output.FileCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link FileCache}.
+ *
+ * @version $Id$
+ */
+public class FileCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileCache createCache() throws IOException
+    {
+        return new FileCache(this.folder.newFolder().toPath(), LoggerFactory.getLogger(FileCacheTest.class));
+    }
+
+    private FileCache.Entry store(FileCache cache, String name, String content) throws IOException
+    {
+        return cache.store(file -> {
+            Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+            return name;
+        });
+    }
+
+    @Test
+    public void storeAndGet() throws Exception
+    {
+        FileCache cache = createCache();
+
+        assertNull(cache.get("entry"));
+        try (FileCache.Entry entry = store(cache, "entry", "first")) {
+            assertEquals(cache.getDirectory().resolve("entry"), entry.getPath());
+        }
+        try (FileCache.Entry entry = store(cache, "entry", "second")) {
+            assertEquals("second", new String(Files.readAllBytes(entry.getPath()), StandardCharsets.UTF_8));
+        }
+        try (FileCache.Entry entry = cache.get("entry")) {
+            assertEquals("second", new String(Files.readAllBytes(entry.getPath()), StandardCharsets.UTF_8));
+        }
+
+        // The temporary files are removed
+        assertEquals(1, cache.getDirectory().toFile().list().length);
+    }
+
+    @Test
+    public void evictKeepsPinnedEntries() throws Exception
+    {
+        FileCache cache = createCache();
+
+        FileCache.Entry pinned = store(cache, "pinned", "content");
+        store(cache, "unused", "content").close();
+        Path temporaryFile = cache.createTemporaryFile();
+        Files.write(temporaryFile, new byte[] { 1 });
+
+        assertEquals(Collections.singletonList(cache.getDirectory().resolve("unused")), cache.evict(0, 0));
+        assertTrue(Files.exists(pinned.getPath()));
+        assertTrue(Files.exists(temporaryFile));
+
+        pinned.close();
+        // Closing twice doesn't unpin the entry for the other users
+        try (FileCache.Entry entry = cache.get("pinned")) {
+            pinned.close();
+            assertTrue(cache.evict(0, 0).isEmpty());
+        }
+        assertEquals(Collections.singletonList(pinned.getPath()), cache.evict(0, 0));
+        assertFalse(Files.exists(pinned.getPath()));
+    }
+
+    @Test
+    public void evictExpiredEntries() throws Exception
+    {
+        FileCache cache = createCache();
+
+        store(cache, "entry", "content").close();
+
+        assertTrue(cache.evict(Long.MAX_VALUE, 0).isEmpty());
+        assertEquals(1, cache.evict(Long.MAX_VALUE, System.currentTimeMillis() + 1000).size());
+        assertNull(cache.get("entry"));
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.NodeList;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.contrib.latex.internal.output.FileCache;
+import org.xwiki.contrib.latex.internal.output.ImageProcessor;
+import org.xwiki.contrib.latex.internal.output.LaTeXResourceConfiguration;
+import org.xwiki.environment.Environment;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link ImageProcessor}.
+ *
+ * @version $Id$
+ */
+@ComponentList({ ImageProcessor.class, LaTeXResourceConfiguration.class })
+public class ImageProcessorTest
+{
+    private static final String DPI = "latex.images.dpi";
+
+    private static final double MM_PER_INCH = 25.4;
+
+    private static final String HORIZONTAL_PIXEL_SIZE = "HorizontalPixelSize";
+
+    private static final String VALUE = "value";
+
+    @Rule
+    public MockitoComponentManagerRule componentManager = new MockitoComponentManagerRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ConfigurationSource configuration;
+
+    private ImageProcessor processor;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Environment environment = this.componentManager.registerMockComponent(Environment.class);
+        when(environment.getTemporaryDirectory()).thenReturn(this.folder.getRoot());
+        this.configuration = this.componentManager.registerMockComponent(ConfigurationSource.class, "xwikiproperties");
+        when(this.configuration.getProperty(any(String.class), any(Object.class)))
+            .thenAnswer(invocation -> invocation.getArgument(1));
+
+        this.processor = this.componentManager.getInstance(ImageProcessor.class);
+    }
+
+    private Map<String, String> size(String width, String height)
+    {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("width", width);
+        parameters.put("height", height);
+        return parameters;
+    }
+
+    /**
+     * @param dpi the density of the image, or 0 to not specify it
+     */
+    private byte[] createImage(String format, int width, int height, int dpi) throws IOException
+    {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+        IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image),
+            writer.getDefaultWriteParam());
+        if (dpi > 0) {
+            // The pixel size is in millimeters
+            IIOMetadataNode dimension = new IIOMetadataNode("Dimension");
+            for (String name : new String[] { HORIZONTAL_PIXEL_SIZE, "VerticalPixelSize" }) {
+                IIOMetadataNode node = new IIOMetadataNode(name);
+                node.setAttribute(VALUE, String.valueOf((float) (MM_PER_INCH / dpi)));
+                dimension.appendChild(node);
+            }
+            IIOMetadataNode root = new IIOMetadataNode(IIOMetadataFormatImpl.standardMetadataFormatName);
+            root.appendChild(dimension);
+            metadata.mergeTree(IIOMetadataFormatImpl.standardMetadataFormatName, root);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(output);
+            writer.write(new IIOImage(image, null, metadata));
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] process(byte[] image, String path, Map<String, String> parameters) throws IOException
+    {
+        try (InputStream content = new ByteArrayInputStream(image);
+            FileCache.Entry entry = this.processor.process(content, path, parameters))
+        {
+            return Files.readAllBytes(entry.getPath());
+        }
+    }
+
+    /**
+     * @return the format, width, height and density (rounded) of the image
+     */
+    private String describe(byte[] image) throws IOException
+    {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+            ImageReader reader = ImageIO.getImageReaders(input).next();
+            try {
+                reader.setInput(input);
+                IIOMetadataNode root = (IIOMetadataNode) reader.getImageMetadata(0)
+                    .getAsTree(IIOMetadataFormatImpl.standardMetadataFormatName);
+                NodeList pixelSize = root.getElementsByTagName(HORIZONTAL_PIXEL_SIZE);
+                long dpi = 0;
+                if (pixelSize.getLength() > 0) {
+                    String value = ((IIOMetadataNode) pixelSize.item(0)).getAttribute(VALUE);
+                    dpi = Math.round(MM_PER_INCH / Double.parseDouble(value));
+                }
+                return String.format("%s %dx%d %ddpi", reader.getFormatName().toLowerCase(Locale.ROOT),
+                    reader.getWidth(0), reader.getHeight(0), dpi);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    @Test
+    public void getPath()
+    {
+        when(this.configuration.getProperty(DPI, 0)).thenReturn(144);
+
+        // 144px is 2in, and the missing or relative dimensions are based on a 7x10in text area
+        assertEquals("files/image-288x1440.png", this.processor.getPath("files/image.gif", size("144px", null)));
+        assertEquals("files/image-504x144.jpg", this.processor.getPath("files/image.jpg", size("50%", "72")));
+        // Dimensions bigger than the text area are limited to it
+        assertEquals("files/image-1008x1440.png", this.processor.getPath("files/image.png", size("2000px", "")));
+        // Invalid values are ignored
+        assertEquals("files/image-1008x1440.png", this.processor.getPath("files/image.png", size("auto", "-1px")));
+
+        assertEquals("files/image.png", this.processor.getPath("files/image.png", size(null, null)));
+        assertEquals("files/image.png", this.processor.getPath("files/image.TIFF", size(null, null)));
+    }
+
+    @Test
+    public void isProcessed()
+    {
+        assertFalse(this.processor.isProcessed("image.png", size("100px", null)));
+        assertTrue(this.processor.isProcessed("image.gif", size(null, null)));
+
+        when(this.configuration.getProperty(DPI, 0)).thenReturn(144);
+
+        assertTrue(this.processor.isProcessed("image.png", size("100px", null)));
+        assertFalse(this.processor.isProcessed("image.jpg", size(null, " ")));
+
+        when(this.configuration.getProperty("latex.images.convert", true)).thenReturn(false);
+
+        assertFalse(this.processor.isProcessed("image.gif", Collections.emptyMap()));
+    }
+
+    @Test
+    public void downscaleAndKeepPrintedSize() throws Exception
+    {
+        when(this.configuration.getProperty(DPI, 0)).thenReturn(72);
+
+        // 100px at 72 DPI for an image of 1000x500 pixels: one pixel out of 10 is kept, and the density follows
+        byte[] image = createImage("tiff", 1000, 500, 144);
+        assertEquals("png 100x50 14dpi", describe(process(image, "image-100x720.png", size("100px", null))));
+        assertEquals("jpeg 100x50 14dpi", describe(process(image, "image-100x720.jpg", size("100px", null))));
+
+        // Images which are already small enough are left as they are
+        image = createImage("png", 100, 50, 0);
+        assertArrayEquals(image, process(image, "image-200x720.png", size("200px", null)));
+    }
+
+    @Test
+    public void keepImagesWithoutExplicitSize() throws Exception
+    {
+        when(this.configuration.getProperty(DPI, 0)).thenReturn(72);
+
+        byte[] image = createImage("png", 2000, 1000, 0);
+        assertArrayEquals(image, process(image, "image.png", size(null, null)));
+    }
+
+    @Test
+    public void convertToPNG() throws Exception
+    {
+        byte[] gif = createImage("gif", 30, 20, 0);
+        assertEquals("png 30x20 0dpi", describe(process(gif, "image.png", size(null, null))));
+
+        // The density of the converted images is kept
+        byte[] tiff = createImage("tiff", 30, 20, 300);
+        assertEquals("png 30x20 300dpi", describe(process(tiff, "image.png", size(null, null))));
+    }
+}
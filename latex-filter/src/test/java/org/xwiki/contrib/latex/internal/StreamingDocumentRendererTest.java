@@ -0,0 +1,188 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.xwiki.contrib.latex.internal.output.StreamingDocumentRenderer;
+import org.xwiki.contrib.latex.internal.output.TopLevelBlockGenerator;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.listener.Listener;
+import org.xwiki.rendering.listener.MetaData;
+import org.xwiki.rendering.renderer.BlockRenderer;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link StreamingDocumentRenderer} and {@link TopLevelBlockGenerator}.
+ *
+ * @version $Id$
+ */
+public class StreamingDocumentRendererTest
+{
+    /**
+     * Simple renderer outputting the words and surrounding the other blocks with brackets.
+     */
+    private final BlockRenderer renderer = new BlockRenderer()
+    {
+        @Override
+        public void render(Block block, WikiPrinter printer)
+        {
+            render(Collections.singletonList(block), printer);
+        }
+
+        @Override
+        public void render(Collection<Block> blocks, WikiPrinter printer)
+        {
+            for (Block block : blocks) {
+                if (block instanceof XDOM) {
+                    printer.print("<");
+                    render(block.getChildren(), printer);
+                    printer.print(">");
+                } else if (block instanceof WordBlock) {
+                    printer.print(((WordBlock) block).getWord());
+                } else {
+                    printer.print("[");
+                    render(block.getChildren(), printer);
+                    printer.print("]");
+                }
+            }
+        }
+    };
+
+    private final DefaultWikiPrinter printer = new DefaultWikiPrinter();
+
+    private Listener createListener(boolean streaming)
+    {
+        return new TopLevelBlockGenerator(new StreamingDocumentRenderer(this.renderer, this.printer, streaming))
+            .getListener();
+    }
+
+    private void paragraph(Listener listener, String word)
+    {
+        listener.beginParagraph(Listener.EMPTY_PARAMETERS);
+        listener.onWord(word);
+        listener.endParagraph(Listener.EMPTY_PARAMETERS);
+    }
+
+    @Test
+    public void renderWhileGenerating()
+    {
+        Listener listener = createListener(true);
+
+        listener.beginDocument(MetaData.EMPTY);
+        assertEquals("<", this.printer.toString());
+        paragraph(listener, "a");
+        assertEquals("<[a]", this.printer.toString());
+        listener.beginGroup(Listener.EMPTY_PARAMETERS);
+        paragraph(listener, "b");
+        assertEquals("<[a]", this.printer.toString());
+        listener.endGroup(Listener.EMPTY_PARAMETERS);
+        assertEquals("<[a][[b]]", this.printer.toString());
+        listener.onHorizontalLine(Listener.EMPTY_PARAMETERS);
+        listener.endDocument(MetaData.EMPTY);
+
+        assertEquals("<[a][[b]][]>", this.printer.toString());
+    }
+
+    @Test
+    public void renderAtTheEndAfterFootnote()
+    {
+        Listener listener = createListener(true);
+
+        listener.beginDocument(MetaData.EMPTY);
+        paragraph(listener, "a");
+        listener.beginMacroMarker("footnote", Listener.EMPTY_PARAMETERS, "note", false);
+        paragraph(listener, "b");
+        listener.endMacroMarker("footnote", Listener.EMPTY_PARAMETERS, "note", false);
+        paragraph(listener, "c");
+        assertEquals("<[a]", this.printer.toString());
+        listener.endDocument(MetaData.EMPTY);
+
+        assertEquals("<[a][[b]][c]>", this.printer.toString());
+    }
+
+    @Test
+    public void renderWithoutStreaming()
+    {
+        Listener listener = createListener(false);
+
+        listener.beginDocument(MetaData.EMPTY);
+        paragraph(listener, "a");
+        paragraph(listener, "b");
+        assertEquals("", this.printer.toString());
+        listener.endDocument(MetaData.EMPTY);
+
+        assertEquals("<[a][b]>", this.printer.toString());
+    }
+
+    @Test
+    public void prefetchBeforeRendering()
+    {
+        List<String> events = new ArrayList<>();
+        StreamingDocumentRenderer documentRenderer = new StreamingDocumentRenderer(this.renderer, this.printer,
+            true, block -> events.add(((WordBlock) block.getChildren().get(0)).getWord() + this.printer.toString()),
+            1);
+        Listener listener = new TopLevelBlockGenerator(documentRenderer).getListener();
+
+        listener.beginDocument(MetaData.EMPTY);
+        paragraph(listener, "a");
+        assertEquals("<", this.printer.toString());
+        paragraph(listener, "b");
+        assertEquals("<[a]", this.printer.toString());
+        paragraph(listener, "c");
+        assertEquals("<[a][b]", this.printer.toString());
+        listener.endDocument(MetaData.EMPTY);
+
+        assertEquals("<[a][b][c]>", this.printer.toString());
+        // Each block is prefetched while the previous one is not rendered yet
+        assertEquals(Arrays.asList("a<", "b<", "c<[a]"), events);
+    }
+
+    @Test
+    public void renderPrefetchedBlocksAtTheEndAfterFootnote()
+    {
+        Listener listener = new TopLevelBlockGenerator(
+            new StreamingDocumentRenderer(this.renderer, this.printer, true, block -> { }, 2)).getListener();
+
+        listener.beginDocument(MetaData.EMPTY);
+        paragraph(listener, "a");
+        paragraph(listener, "b");
+        paragraph(listener, "c");
+        assertEquals("<[a]", this.printer.toString());
+        listener.beginMacroMarker("footnote", Listener.EMPTY_PARAMETERS, "note", false);
+        paragraph(listener, "d");
+        listener.endMacroMarker("footnote", Listener.EMPTY_PARAMETERS, "note", false);
+        paragraph(listener, "e");
+        assertEquals("<[a]", this.printer.toString());
+        listener.endDocument(MetaData.EMPTY);
+
+        assertEquals("<[a][b][c][[d]][e]>", this.printer.toString());
+    }
+}
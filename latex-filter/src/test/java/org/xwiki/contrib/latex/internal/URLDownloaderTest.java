@@ -0,0 +1,183 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.contrib.latex.internal.output.FileCache;
+import org.xwiki.contrib.latex.internal.output.LaTeXResourceConfiguration;
+import org.xwiki.contrib.latex.internal.output.URLDownloader;
+import org.xwiki.environment.Environment;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link URLDownloader}, using a local HTTP server.
+ *
+ * @version $Id$
+ */
+@ComponentList({ URLDownloader.class, LaTeXResourceConfiguration.class })
+public class URLDownloaderTest
+{
+    @Rule
+    public MockitoComponentManagerRule componentManager = new MockitoComponentManagerRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+
+    private ConfigurationSource configuration;
+
+    private URLDownloader downloader;
+
+    /**
+     * The content served by the server, and its ETag.
+     */
+    private volatile String content = "first";
+
+    private volatile String etag = "\"1\"";
+
+    private volatile long delay;
+
+    /**
+     * The status of the responses sent by the server.
+     */
+    private final List<Integer> responses = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Environment environment = this.componentManager.registerMockComponent(Environment.class);
+        when(environment.getTemporaryDirectory()).thenReturn(this.folder.getRoot());
+        this.configuration = this.componentManager.registerMockComponent(ConfigurationSource.class, "xwikiproperties");
+        when(this.configuration.getProperty(any(String.class), any(Object.class)))
+            .thenAnswer(invocation -> invocation.getArgument(1));
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/image.png", this::handle);
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.start();
+
+        this.downloader = this.componentManager.getInstance(URLDownloader.class);
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try {
+            Thread.sleep(this.delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        exchange.getResponseHeaders().set("ETag", this.etag);
+        if (this.etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            this.responses.add(304);
+            exchange.sendResponseHeaders(304, -1);
+        } else {
+            byte[] bytes = this.content.getBytes(StandardCharsets.UTF_8);
+            this.responses.add(200);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream stream = exchange.getResponseBody()) {
+                stream.write(bytes);
+            }
+        }
+        exchange.close();
+    }
+
+    private URL getURL() throws IOException
+    {
+        return new URL("http", this.server.getAddress().getHostString(), this.server.getAddress().getPort(),
+            "/image.png");
+    }
+
+    private String download() throws IOException
+    {
+        try (FileCache.Entry file = this.downloader.download(getURL())) {
+            return FileUtils.readFileToString(file.getFile(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void downloadOnlyWhenModified() throws Exception
+    {
+        assertEquals("first", download());
+        assertEquals("first", download());
+
+        this.content = "second";
+        this.etag = "\"2\"";
+        assertEquals("second", download());
+
+        assertEquals(List.of(200, 304, 200), this.responses);
+    }
+
+    @Test
+    public void downloadTooBig() throws Exception
+    {
+        when(this.configuration.getProperty("latex.download.maxSize", 50L)).thenReturn(1L);
+        this.content = "a".repeat(1024 * 1024 + 1);
+
+        try {
+            download();
+            fail("Resources bigger than the maximum size should not be downloaded");
+        } catch (IOException e) {
+            assertEquals(String.format("[%s] is bigger than the maximum size of [1048576] bytes", getURL()),
+                e.getMessage());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void downloadTooSlow() throws Exception
+    {
+        when(this.configuration.getProperty("latex.download.readTimeout", 30)).thenReturn(1);
+        this.delay = 3000;
+
+        download();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+import org.xwiki.contrib.latex.internal.output.ZipFileStore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ZipFileStore}.
+ *
+ * @version $Id$
+ */
+public class ZipFileStoreTest
+{
+    @Test
+    public void storeOnlyOncePerPath() throws Exception
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ZipArchiveOutputStream zipStream = new ZipArchiveOutputStream(output)) {
+            ZipFileStore store = new ZipFileStore(zipStream);
+
+            assertFalse(store.contains("files/image.png"));
+            assertTrue(store.store("files/image.png", toInputStream("first")));
+            assertTrue(store.contains("files/image.png"));
+            assertFalse(store.store("files/image.png", toInputStream("second")));
+        }
+
+        try (ZipArchiveInputStream zipStream =
+            new ZipArchiveInputStream(new ByteArrayInputStream(output.toByteArray())))
+        {
+            ZipArchiveEntry entry = zipStream.getNextZipEntry();
+            assertEquals("files/image.png", entry.getName());
+            assertEquals("first", IOUtils.toString(zipStream, StandardCharsets.UTF_8));
+            assertNull(zipStream.getNextZipEntry());
+        }
+    }
+
+    @Test
+    public void storeCompressedFilesWithoutCompression() throws Exception
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ZipArchiveOutputStream zipStream = new ZipArchiveOutputStream(output)) {
+            ZipFileStore store = new ZipFileStore(zipStream, Deflater.BEST_COMPRESSION, null, null);
+
+            store.store("files/image.PNG", toInputStream("image"));
+            store.store("index.tex", toInputStream("text"));
+            store.finish();
+        }
+
+        try (ZipArchiveInputStream zipStream =
+            new ZipArchiveInputStream(new ByteArrayInputStream(output.toByteArray())))
+        {
+            ZipArchiveEntry entry = zipStream.getNextZipEntry();
+            assertEquals("files/image.PNG", entry.getName());
+            assertEquals(ZipEntry.STORED, entry.getMethod());
+            assertEquals("image", IOUtils.toString(zipStream, StandardCharsets.UTF_8));
+
+            entry = zipStream.getNextZipEntry();
+            assertEquals("index.tex", entry.getName());
+            assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+            assertEquals("text", IOUtils.toString(zipStream, StandardCharsets.UTF_8));
+
+            assertNull(zipStream.getNextZipEntry());
+        }
+    }
+
+    @Test
+    public void compressBigFilesInParallel() throws Exception
+    {
+        String bigContent = StringUtils.repeat("\\section{Title}\n", 200000);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ZipArchiveOutputStream zipStream = new ZipArchiveOutputStream(output)) {
+            ZipFileStore store =
+                new ZipFileStore(zipStream, Deflater.DEFAULT_COMPRESSION, Executors.newFixedThreadPool(2), null);
+
+            store.store("big.tex", toInputStream(bigContent));
+            store.store("small.tex", toInputStream("small"));
+            store.finish();
+        }
+
+        Map<String, String> entries = new HashMap<>();
+        try (ZipArchiveInputStream zipStream =
+            new ZipArchiveInputStream(new ByteArrayInputStream(output.toByteArray())))
+        {
+            for (ZipArchiveEntry entry = zipStream.getNextZipEntry(); entry != null;
+                entry = zipStream.getNextZipEntry())
+            {
+                assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+                entries.put(entry.getName(), IOUtils.toString(zipStream, StandardCharsets.UTF_8));
+            }
+        }
+
+        assertEquals(2, entries.size());
+        assertEquals(bigContent, entries.get("big.tex"));
+        assertEquals("small", entries.get("small.tex"));
+    }
+
+    private ByteArrayInputStream toInputStream(String content)
+    {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
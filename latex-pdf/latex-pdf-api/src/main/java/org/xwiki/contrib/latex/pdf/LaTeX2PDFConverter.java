@@ -20,6 +20,8 @@
 package org.xwiki.contrib.latex.pdf;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 
 import org.xwiki.component.annotation.Role;
 import org.xwiki.stability.Unstable;
@@ -43,6 +45,32 @@ public interface LaTeX2PDFConverter
      */
     LaTeX2PDFResult convert(File latexDirectory) throws LaTeX2PDFException;
 
+    /**
+     * Converts the LaTeX files of the passed request to a PDF. Implementations can use the request to avoid retrieving
+     * generated files that are not wanted and to write the PDF directly where the caller wants it.
+     *
+     * @param request the sources to convert and the wanted generated files
+     * @return the result of the conversion and the compilation logs. When the PDF is written to the
+     *         {@link LaTeX2PDFRequest#getPDFOutputStream() requested stream} the PDF file may be {@code null}
+     * @throws LaTeX2PDFException when an error occurs during the conversion
+     * @since 1.26.2
+     */
+    default LaTeX2PDFResult convert(LaTeX2PDFRequest request) throws LaTeX2PDFException
+    {
+        LaTeX2PDFResult result = convert(request.getSourceDirectory());
+
+        if (result.getPDFFile() != null && request.getPDFOutputStream() != null) {
+            try {
+                Files.copy(result.getPDFFile().toPath(), request.getPDFOutputStream());
+            } catch (IOException e) {
+                throw new LaTeX2PDFException(String.format("Failed to write the PDF file [%s] to the output stream",
+                    result.getPDFFile()), e);
+            }
+        }
+
+        return result;
+    }
+
     /**
      * @return true if the converter is ready to perform conversions (e.g. will return false if docker is not installed
      *         or not ready)
@@ -51,4 +79,15 @@ public interface LaTeX2PDFConverter
     {
         return true;
     }
+
+    /**
+     * @return a value that changes when the configuration of the converter changes in a way that affects the
+     *         generated PDF (e.g. the commands that are executed). Used to know if a previously generated PDF can be
+     *         reused
+     * @since 1.26.2
+     */
+    default String getConfigurationFingerprint()
+    {
+        return getClass().getName();
+    }
 }
@@ -0,0 +1,99 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.pdf;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * Describes a conversion from LaTeX to PDF: the sources to convert and the generated files that the caller wants.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+@Unstable
+public class LaTeX2PDFRequest
+{
+    /**
+     * The name of the PDF file generated by the conversion.
+     */
+    public static final String PDF_FILENAME = "index.pdf";
+
+    private final File sourceDirectory;
+
+    private List<String> artifacts = Collections.singletonList(PDF_FILENAME);
+
+    private OutputStream pdfOutputStream;
+
+    /**
+     * @param sourceDirectory see {@link #getSourceDirectory()}
+     */
+    public LaTeX2PDFRequest(File sourceDirectory)
+    {
+        this.sourceDirectory = sourceDirectory;
+    }
+
+    /**
+     * @return the directory containing the LaTeX files (must contain a {@code index.tex} file)
+     */
+    public File getSourceDirectory()
+    {
+        return this.sourceDirectory;
+    }
+
+    /**
+     * @return the names of the generated files (relative to the source directory) that the caller wants to find in
+     *         the source directory after the conversion. Names ending with {@code /} are directories. Other generated
+     *         files may not be available. Default is {@code index.pdf}
+     */
+    public List<String> getArtifacts()
+    {
+        return this.artifacts;
+    }
+
+    /**
+     * @param artifacts see {@link #getArtifacts()}
+     */
+    public void setArtifacts(List<String> artifacts)
+    {
+        this.artifacts = artifacts;
+    }
+
+    /**
+     * @return the stream to which the generated PDF should be written, or {@code null} to get it as the
+     *         {@code index.pdf} file of the source directory. The stream is not closed by the converter
+     */
+    public OutputStream getPDFOutputStream()
+    {
+        return this.pdfOutputStream;
+    }
+
+    /**
+     * @param pdfOutputStream see {@link #getPDFOutputStream()}
+     */
+    public void setPDFOutputStream(OutputStream pdfOutputStream)
+    {
+        this.pdfOutputStream = pdfOutputStream;
+    }
+}
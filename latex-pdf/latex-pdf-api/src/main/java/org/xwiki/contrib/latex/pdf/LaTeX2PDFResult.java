@@ -36,16 +36,29 @@ public class LaTeX2PDFResult
 
     private String logs;
 
+    private boolean successful;
+
     /**
      * @param pdfFile see {@link #getPDFFile()}
      * @param logs see {@link #getLogs()}
      */
     public LaTeX2PDFResult(File pdfFile, String logs)
     {
-        this(logs);
+        this(pdfFile != null, logs);
         this.pdfFile = pdfFile;
     }
 
+    /**
+     * @param successful see {@link #isSuccessful()}
+     * @param logs see {@link #getLogs()}
+     * @since 1.26.2
+     */
+    public LaTeX2PDFResult(boolean successful, String logs)
+    {
+        this(logs);
+        this.successful = successful;
+    }
+
     /**
      * @param logs see {@link #getLogs()}
      */
@@ -62,6 +75,16 @@ public class LaTeX2PDFResult
         return this.pdfFile;
     }
 
+    /**
+     * @return true if the PDF has been generated, either as {@link #getPDFFile() a file} or written to the
+     *         {@link LaTeX2PDFRequest#getPDFOutputStream() requested stream}
+     * @since 1.26.2
+     */
+    public boolean isSuccessful()
+    {
+        return this.successful;
+    }
+
     /**
      * @return the compilation logs
      */
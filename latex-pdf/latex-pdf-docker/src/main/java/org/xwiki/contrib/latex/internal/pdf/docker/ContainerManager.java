@@ -19,12 +19,25 @@
  */
 package org.xwiki.contrib.latex.internal.pdf.docker;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.compress.utils.IOUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
@@ -33,10 +46,12 @@ import org.xwiki.contrib.latex.pdf.LaTeX2PDFException;
 import org.xwiki.text.StringUtils;
 
 import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.async.ResultCallback;
 import com.github.dockerjava.api.async.ResultCallbackTemplate;
 import com.github.dockerjava.api.command.LogContainerCmd;
 import com.github.dockerjava.api.command.PullImageResultCallback;
 import com.github.dockerjava.api.command.WaitContainerResultCallback;
+import com.github.dockerjava.api.exception.NotFoundException;
 import com.github.dockerjava.api.model.Frame;
 import com.github.dockerjava.core.command.LogContainerResultCallback;
 
@@ -52,7 +67,9 @@ public class ContainerManager
 
     private static final String DATA_DIR = "data";
 
-    private static final String ABSOLUTE_DATA_DIR = String.format("/%s", DATA_DIR);
+    static final String ABSOLUTE_DATA_DIR = String.format("/%s", DATA_DIR);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
 
     private DockerClient client;
 
@@ -69,14 +86,51 @@ public class ContainerManager
      *
      * @param containerId the id of the container into which to copy
      * @param hostDirectory the directory to copy from the host
+     * @throws LaTeX2PDFException if there's an error during the copy
      */
-    public void copyToContainer(String containerId, File hostDirectory)
+    public void copyToContainer(String containerId, File hostDirectory) throws LaTeX2PDFException
     {
-        this.client.copyArchiveToContainerCmd(containerId)
-            .withHostResource(hostDirectory.getAbsolutePath())
-            .withDirChildrenOnly(true)
-            .withRemotePath(ABSOLUTE_DATA_DIR)
-            .exec();
+        copyToContainer(containerId, hostDirectory, ABSOLUTE_DATA_DIR);
+    }
+
+    /**
+     * Copy the passed host directory to the passed (existing) directory in the container. The files are sent to the
+     * Docker daemon while they are archived, without creating a temporary archive on the host.
+     *
+     * @param containerId the id of the container into which to copy
+     * @param hostDirectory the directory to copy from the host
+     * @param containerDirectory the absolute path of the directory in the container
+     * @throws LaTeX2PDFException if there's an error during the copy
+     * @since 1.26.2
+     */
+    public void copyToContainer(String containerId, File hostDirectory, String containerDirectory)
+        throws LaTeX2PDFException
+    {
+        try (PipedInputStream tarInputStream = new PipedInputStream(BUFFER_SIZE)) {
+            PipedOutputStream tarOutputStream = new PipedOutputStream(tarInputStream);
+            FutureTask<Void> tarTask = new FutureTask<>(() -> {
+                tar(hostDirectory, tarOutputStream);
+                return null;
+            });
+            Thread tarThread = new Thread(tarTask, "LaTeX sources archiver");
+            tarThread.setDaemon(true);
+            tarThread.start();
+
+            // Note: if the copy fails, closing the input stream makes the archiving thread fail and stop
+            this.client.copyArchiveToContainerCmd(containerId)
+                .withTarInputStream(tarInputStream)
+                .withRemotePath(containerDirectory)
+                .exec();
+
+            tarTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LaTeX2PDFException(String.format("Interrupted while copying [%s] to the container",
+                hostDirectory.getAbsolutePath()), e);
+        } catch (IOException | ExecutionException e) {
+            throw new LaTeX2PDFException(String.format("Failed to copy host directory [%s] to container at [%s]",
+                hostDirectory.getAbsolutePath(), containerDirectory), e);
+        }
     }
 
     /**
@@ -88,7 +142,147 @@ public class ContainerManager
      */
     public void copyToHost(String containerId, File hostDirectory) throws LaTeX2PDFException
     {
-        unTar(containerId, hostDirectory);
+        copyToHost(containerId, ABSOLUTE_DATA_DIR, hostDirectory);
+    }
+
+    /**
+     * Copy the passed container directory into the passed directory on the host.
+     *
+     * @param containerId the id of the container from which to copy
+     * @param containerDirectory the absolute path of the directory to copy from the container
+     * @param hostDirectory the directory to copy to on the host
+     * @throws LaTeX2PDFException if there's an error during the copy
+     * @since 1.26.2
+     */
+    public void copyToHost(String containerId, String containerDirectory, File hostDirectory)
+        throws LaTeX2PDFException
+    {
+        unTar(containerId, containerDirectory, hostDirectory);
+    }
+
+    /**
+     * Copy a single file from the container to the host.
+     *
+     * @param containerId the id of the container from which to copy
+     * @param containerFile the absolute path of the file in the container
+     * @param hostFile the file to write on the host
+     * @return false if the file doesn't exist in the container
+     * @throws LaTeX2PDFException if there's an error during the copy
+     * @since 1.26.2
+     */
+    public boolean copyFileToHost(String containerId, String containerFile, File hostFile) throws LaTeX2PDFException
+    {
+        try (TarArchiveInputStream tarStream = new TarArchiveInputStream(
+            this.client.copyArchiveFromContainerCmd(containerId, containerFile).exec()))
+        {
+            TarArchiveEntry tarEntry = tarStream.getNextTarEntry();
+            if (tarEntry == null || tarEntry.isDirectory()) {
+                return false;
+            }
+            try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(hostFile), BUFFER_SIZE)) {
+                IOUtils.copy(tarStream, outputStream);
+            }
+            return true;
+        } catch (NotFoundException e) {
+            return false;
+        } catch (IOException e) {
+            throw new LaTeX2PDFException(String.format("Failed to copy container file [%s] to host at [%s]",
+                containerFile, hostFile.getAbsolutePath()), e);
+        }
+    }
+
+    /**
+     * Write a single file of the container to the passed stream, without storing it on the host.
+     *
+     * @param containerId the id of the container from which to copy
+     * @param containerFile the absolute path of the file in the container
+     * @param outputStream the stream to write the file content to (not closed by this method)
+     * @return false if the file doesn't exist in the container
+     * @throws LaTeX2PDFException if there's an error during the copy
+     * @since 1.26.2
+     */
+    public boolean copyFileToStream(String containerId, String containerFile, OutputStream outputStream)
+        throws LaTeX2PDFException
+    {
+        try (TarArchiveInputStream tarStream = new TarArchiveInputStream(
+            this.client.copyArchiveFromContainerCmd(containerId, containerFile).exec()))
+        {
+            TarArchiveEntry tarEntry = tarStream.getNextTarEntry();
+            if (tarEntry == null || tarEntry.isDirectory()) {
+                return false;
+            }
+            IOUtils.copy(tarStream, outputStream, BUFFER_SIZE);
+            return true;
+        } catch (NotFoundException e) {
+            return false;
+        } catch (IOException e) {
+            throw new LaTeX2PDFException(String.format("Failed to write container file [%s] to the output stream",
+                containerFile), e);
+        }
+    }
+
+    /**
+     * Execute a command in a running container and wait till it ends.
+     *
+     * @param containerId the id of the container in which to execute the command
+     * @param workingDirectory the absolute path of the directory in which to execute the command
+     * @param command the command to execute
+     * @param timeout the maximum number of seconds to wait for the command to end, {@code 0} meaning no limit
+     * @return the output and exit code of the command
+     * @throws LaTeX2PDFException if the command didn't end in time, in which case it might still be running and the
+     *         container should not be used anymore
+     * @since 1.26.2
+     */
+    public ExecutionResult execute(String containerId, String workingDirectory, List<String> command, int timeout)
+        throws LaTeX2PDFException
+    {
+        String execId = this.client.execCreateCmd(containerId)
+            .withCmd(command.toArray(new String[0]))
+            .withWorkingDir(workingDirectory)
+            .withAttachStdout(true)
+            .withAttachStderr(true)
+            .exec()
+            .getId();
+
+        StringBuilder logs = new StringBuilder();
+        ResultCallback.Adapter<Frame> callback = new ResultCallback.Adapter<Frame>()
+        {
+            @Override
+            public void onNext(Frame item)
+            {
+                logs.append(item.toString()).append('\n');
+            }
+        };
+        this.client.execStartCmd(execId).exec(callback);
+        try {
+            if (!wait(callback, timeout)) {
+                throw new LaTeX2PDFException(String.format("The command [%s] didn't end after [%s] seconds",
+                    command, timeout));
+            }
+        } finally {
+            closeQuietly(callback);
+        }
+
+        ExecutionResult result =
+            new ExecutionResult(logs.toString(), this.client.inspectExecCmd(execId).exec().getExitCodeLong());
+        LOGGER.debug("Exit code [{}], output [{}]", result.getExitCode(), result.getLogs());
+        return result;
+    }
+
+    /**
+     * @param containerId the id of the container to check
+     * @return true if the container exists and is running
+     * @since 1.26.2
+     */
+    public boolean isRunning(String containerId)
+    {
+        boolean running;
+        try {
+            running = Boolean.TRUE.equals(this.client.inspectContainerCmd(containerId).exec().getState().getRunning());
+        } catch (NotFoundException e) {
+            running = false;
+        }
+        return running;
     }
 
     /**
@@ -135,6 +329,30 @@ public class ContainerManager
         wait(resultCallback);
     }
 
+    /**
+     * Start the passed container and wait till it exits.
+     *
+     * @param containerId the id of the container to start
+     * @param timeout the maximum number of seconds to wait for the container to exit, {@code 0} meaning no limit
+     * @throws LaTeX2PDFException if the container didn't exit in time, in which case it might still be running
+     * @since 1.26.2
+     */
+    public void startContainer(String containerId, int timeout) throws LaTeX2PDFException
+    {
+        this.client.startContainerCmd(containerId).exec();
+
+        WaitContainerResultCallback resultCallback = new WaitContainerResultCallback();
+        this.client.waitContainerCmd(containerId).exec(resultCallback);
+        try {
+            if (!wait(resultCallback, timeout)) {
+                throw new LaTeX2PDFException(
+                    String.format("The container [%s] didn't exit after [%s] seconds", containerId, timeout));
+            }
+        } finally {
+            closeQuietly(resultCallback);
+        }
+    }
+
     /**
      * Docker-pull the passed image.
      *
@@ -159,15 +377,44 @@ public class ContainerManager
         }
     }
 
-    private void unTar(String containerId, File latexDirectory) throws LaTeX2PDFException
+    /**
+     * @return false if the timeout expired before the completion
+     */
+    private boolean wait(ResultCallbackTemplate template, int timeout) throws LaTeX2PDFException
+    {
+        if (timeout <= 0) {
+            wait(template);
+            return true;
+        }
+
+        try {
+            return template.awaitCompletion(timeout, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LaTeX2PDFException("Interrupted while waiting for the end of the conversion", e);
+        }
+    }
+
+    private void closeQuietly(ResultCallbackTemplate template)
+    {
+        try {
+            template.close();
+        } catch (IOException e) {
+            LOGGER.debug("Failed to close the Docker callback", e);
+        }
+    }
+
+    private void unTar(String containerId, String containerDirectory, File latexDirectory) throws LaTeX2PDFException
     {
         try (TarArchiveInputStream tarStream = new TarArchiveInputStream(
-            this.client.copyArchiveFromContainerCmd(containerId, ABSOLUTE_DATA_DIR).exec()))
+            this.client.copyArchiveFromContainerCmd(containerId, containerDirectory).exec()))
         {
-            unTar(tarStream, latexDirectory, String.format("%s/", DATA_DIR));
+            // The entries of the archive are prefixed with the name of the copied directory
+            unTar(tarStream, latexDirectory,
+                String.format("%s/", StringUtils.substringAfterLast(containerDirectory, "/")));
         } catch (IOException e) {
             throw new LaTeX2PDFException(
-                String.format("Failed to copy container directory [/data] to host at [%s]",
+                String.format("Failed to copy container directory [%s] to host at [%s]", containerDirectory,
                     latexDirectory.getAbsolutePath()), e);
         }
     }
@@ -183,14 +430,39 @@ public class ContainerManager
             if (tarEntry.isDirectory()) {
                 handleTarDirectory(file);
             } else {
-                FileOutputStream fos = new FileOutputStream(file);
-                IOUtils.copy(tis, fos);
-                fos.close();
+                try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE)) {
+                    IOUtils.copy(tis, outputStream);
+                }
             }
         }
         tis.close();
     }
 
+    private void tar(File directory, OutputStream outputStream) throws IOException
+    {
+        Path root = directory.toPath();
+        try (TarArchiveOutputStream tarStream =
+            new TarArchiveOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+            Stream<Path> paths = Files.walk(root))
+        {
+            tarStream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tarStream.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+
+            Iterator<Path> iterator = paths.iterator();
+            while (iterator.hasNext()) {
+                Path path = iterator.next();
+                if (!path.equals(root)) {
+                    String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+                    tarStream.putArchiveEntry(new TarArchiveEntry(path.toFile(), name));
+                    if (Files.isRegularFile(path)) {
+                        Files.copy(path, tarStream);
+                    }
+                    tarStream.closeArchiveEntry();
+                }
+            }
+        }
+    }
+
     private void handleTarDirectory(File file) throws IOException
     {
         if (!file.exists()) {
@@ -199,4 +471,47 @@ public class ContainerManager
             }
         }
     }
+
+    /**
+     * The result of a command executed in a container.
+     *
+     * @version $Id$
+     * @since 1.26.2
+     */
+    public static final class ExecutionResult
+    {
+        private final String logs;
+
+        private final Long exitCode;
+
+        ExecutionResult(String logs, Long exitCode)
+        {
+            this.logs = logs;
+            this.exitCode = exitCode;
+        }
+
+        /**
+         * @return the output of the command
+         */
+        public String getLogs()
+        {
+            return this.logs;
+        }
+
+        /**
+         * @return the exit code of the command, {@code null} if unknown
+         */
+        public Long getExitCode()
+        {
+            return this.exitCode;
+        }
+
+        /**
+         * @return true if the command exited with a {@code 0} exit code
+         */
+        public boolean isSuccessful()
+        {
+            return Long.valueOf(0).equals(this.exitCode);
+        }
+    }
 }
@@ -0,0 +1,242 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.pdf.docker;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.CreateContainerCmd;
+import com.github.dockerjava.api.model.HostConfig;
+
+/**
+ * Pool of long-lived containers in which the conversions are executed, to avoid paying for the creation and the
+ * start of a new container for each conversion. Containers are checked before being reused and replaced after a
+ * configured number of conversions. A container which is not reused is replaced by a new started container, so that
+ * the next conversion doesn't wait for it.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+public class ContainerPool
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContainerPool.class);
+
+    /**
+     * Keep the container running until it's removed.
+     */
+    private static final List<String> KEEP_ALIVE_COMMAND = Arrays.asList("sleep", "infinity");
+
+    private final String imageName;
+
+    private final HostConfig hostConfig;
+
+    private final int size;
+
+    private final int maxConversions;
+
+    private final BlockingQueue<PooledContainer> idleContainers = new LinkedBlockingQueue<>();
+
+    /**
+     * One permit per container which can be used at the same time.
+     */
+    private final Semaphore permits;
+
+    private volatile boolean closed;
+
+    /**
+     * @param imageName the image of the containers
+     * @param hostConfig the host configuration of the containers
+     * @param size the maximum number of containers
+     * @param maxConversions the number of conversions after which a container is replaced
+     */
+    public ContainerPool(String imageName, HostConfig hostConfig, int size, int maxConversions)
+    {
+        this.imageName = imageName;
+        this.hostConfig = hostConfig;
+        this.size = size;
+        this.maxConversions = maxConversions;
+        this.permits = new Semaphore(size, true);
+    }
+
+    /**
+     * Get a running container, waiting for one to be released if all the containers of the pool are in use.
+     *
+     * @param client the client to use to communicate with the Docker daemon
+     * @return the container, to be released with {@link #release(PooledContainer, boolean, DockerClient)}
+     * @throws InterruptedException if interrupted while waiting for a container
+     */
+    public PooledContainer acquire(DockerClient client) throws InterruptedException
+    {
+        this.permits.acquire();
+
+        try {
+            PooledContainer container;
+            while ((container = this.idleContainers.poll()) != null) {
+                if (new ContainerManager(client).isRunning(container.getId())) {
+                    return container;
+                }
+                remove(container, client);
+            }
+
+            return create(client);
+        } catch (RuntimeException e) {
+            this.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Start containers until the pool is full, so that the first conversions don't wait for them.
+     *
+     * @param client the client to use to communicate with the Docker daemon
+     */
+    public void warmUp(DockerClient client)
+    {
+        // Hold a permit while creating a container so that there is never more containers than the size of the pool
+        while (!this.closed && this.idleContainers.size() < this.size && this.permits.tryAcquire()) {
+            try {
+                // The containers in use hold the other permits
+                if (this.idleContainers.size() <= this.permits.availablePermits()) {
+                    this.idleContainers.offer(create(client));
+                } else {
+                    break;
+                }
+            } finally {
+                this.permits.release();
+            }
+        }
+    }
+
+    /**
+     * @param container the container to give back to the pool
+     * @param reusable false if the container should not be used anymore (e.g. because the conversion failed and left
+     *     it in an unknown state, or because the conversions are not isolated enough to share a container)
+     * @param client the client to use to communicate with the Docker daemon
+     */
+    public void release(PooledContainer container, boolean reusable, DockerClient client)
+    {
+        try {
+            container.conversions++;
+            if (!this.closed && reusable && container.conversions < this.maxConversions) {
+                this.idleContainers.offer(container);
+            } else {
+                remove(container, client);
+                replace(client);
+            }
+        } finally {
+            this.permits.release();
+        }
+    }
+
+    /**
+     * Remove the idle containers. The containers in use are removed when released.
+     *
+     * @param client the client to use to communicate with the Docker daemon
+     */
+    public void close(DockerClient client)
+    {
+        this.closed = true;
+
+        PooledContainer container;
+        while ((container = this.idleContainers.poll()) != null) {
+            remove(container, client);
+        }
+    }
+
+    /**
+     * Start a new container in place of a removed one, while still holding the permit of the removed one.
+     */
+    private void replace(DockerClient client)
+    {
+        if (!this.closed) {
+            try {
+                this.idleContainers.offer(create(client));
+            } catch (Exception e) {
+                // The container will be created by the next conversion
+                LOGGER.warn("Failed to start a new pooled container. Root cause: [{}]",
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+    }
+
+    private PooledContainer create(DockerClient client)
+    {
+        try (CreateContainerCmd command = client.createContainerCmd(this.imageName)) {
+            PooledContainer container = new PooledContainer(command
+                .withCmd(KEEP_ALIVE_COMMAND)
+                .withHostConfig(this.hostConfig)
+                .exec()
+                .getId());
+            try {
+                client.startContainerCmd(container.getId()).exec();
+            } catch (RuntimeException e) {
+                remove(container, client);
+                throw e;
+            }
+
+            LOGGER.debug("Started pooled container [{}]", container.getId());
+
+            return container;
+        }
+    }
+
+    private void remove(PooledContainer container, DockerClient client)
+    {
+        try {
+            client.removeContainerCmd(container.getId()).withForce(true).exec();
+        } catch (Exception e) {
+            LOGGER.warn("Failed to remove pooled container [{}]. Root cause: [{}]", container.getId(),
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    /**
+     * A container of the pool.
+     *
+     * @version $Id$
+     */
+    public static final class PooledContainer
+    {
+        private final String id;
+
+        private int conversions;
+
+        PooledContainer(String id)
+        {
+            this.id = id;
+        }
+
+        /**
+         * @return the id of the container
+         */
+        public String getId()
+        {
+            return this.id;
+        }
+    }
+}
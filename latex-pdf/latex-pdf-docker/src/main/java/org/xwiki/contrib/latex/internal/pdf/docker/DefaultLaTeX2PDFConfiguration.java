@@ -21,6 +21,7 @@ package org.xwiki.contrib.latex.internal.pdf.docker;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -40,8 +41,91 @@ import org.xwiki.contrib.latex.pdf.docker.LaTeX2PDFConfiguration;
 @Singleton
 public class DefaultLaTeX2PDFConfiguration implements LaTeX2PDFConfiguration
 {
+    /**
+     * The directory, inside the container, where the precompiled preamble formats are stored.
+     */
+    static final String FORMATS_DIRECTORY = "/formats";
+
     private static final String PREFIX = "latex.pdf.docker.";
 
+    private static final String COMMANDS = PREFIX + "commands";
+
+    private static final String SHELL_ESCAPE = "-shell-escape";
+
+    private static final Pattern SHELL_ESCAPE_PATTERN = Pattern.compile("(^|\\s)-?" + SHELL_ESCAPE + "(\\s|$)");
+
+    /**
+     * The number of minutes after which the generation of a format which failed is tried again.
+     */
+    private static final int FORMAT_RETRY_DELAY = 24 * 60;
+
+    /**
+     * Execute the commands again while the document is not stable yet, as latexmk does: when the table of contents,
+     * list of figures or list of tables changed, when an existing aux file changed (a new aux file is always created
+     * by the first run, LaTeX warns by itself when labels changed) or when LaTeX asks for another run in its logs.
+     * The first parameter is the commands to execute, the second one the command performing the first compilation and
+     * the third one the maximum number of reruns.
+     */
+    private static final String RERUN_SCRIPT = String.join("\n",
+        "compile() {",
+        "%s",
+        "}",
+        "sum() { if [ -f \"$1\" ]; then md5sum < \"$1\"; else echo none; fi; }",
+        "tables() { echo \"$(sum index.toc) $(sum index.lof) $(sum index.lot)\"; }",
+        "aux=$(sum index.aux); tables=$(tables); %s; reruns=0",
+        "while [ $reruns -lt %d ] && { [ \"$(tables)\" != \"$tables\" ]"
+            + " || { [ \"$aux\" != none ] && [ \"$(sum index.aux)\" != \"$aux\" ]; }"
+            + " || grep -q -E 'Rerun to get|Rerun LaTeX|Please rerun LaTeX' index.log; }; do",
+        "  aux=$(sum index.aux); tables=$(tables); compile; reruns=$((reruns+1))",
+        "done");
+
+    /**
+     * Dump the preamble of {@code index.tex} (everything before {@code \begin{document}}) in a TeX format using
+     * mylatexformat, once per distinct preamble and pdflatex version (a format can only be loaded by the pdflatex
+     * binary which generated it), and make {@code index.tex} load it with a {@code %&} first line so that the
+     * packages are not loaded again by each compilation. Nothing is changed when the format cannot be generated, and
+     * the generation is tried again after {@link #FORMAT_RETRY_DELAY} minutes (e.g. once mylatexformat has been
+     * installed). When pdflatex fails to load the format, the document is compiled again without it. The formats are
+     * kept in {@link #FORMATS_DIRECTORY}. A format is generated in the working directory of the conversion and moved
+     * atomically to {@link #FORMATS_DIRECTORY} through a unique temporary file, so that concurrent conversions (in
+     * different containers, where the process ids are the same) never see or remove the files of each other. The
+     * parameters are the Docker image name and the shell escape option.
+     */
+    private static final String FORMAT_SCRIPT = String.join("\n",
+        "prepare_format() {",
+        "  rm -f index.nofmt",
+        "  [ -f index.tex ] && grep -q '\\\\begin{document}' index.tex || return 0",
+        "  hash=$({ echo '%s'; pdflatex --version; sed '/\\\\begin{document}/q' index.tex; } | md5sum | cut -d' ' -f1)",
+        "  format=" + FORMATS_DIRECTORY + "/$hash",
+        "  find " + FORMATS_DIRECTORY + " -name '*.failed' -mmin +" + FORMAT_RETRY_DELAY
+            + " -exec rm -f {} + 2>/dev/null",
+        "  if [ ! -f $format.fmt ] && [ ! -f $format.failed ]; then",
+        "    tmp=",
+        "    if pdflatex -ini%s -interaction=nonstopmode -jobname=$hash '&pdflatex' mylatexformat.ltx index.tex"
+            + " > /dev/null 2>&1 && tmp=$(mktemp " + FORMATS_DIRECTORY + "/$hash.XXXXXX) && cp $hash.fmt $tmp; then",
+        "      mv -f $tmp $format.fmt",
+        "    else",
+        "      touch $format.failed",
+        "    fi",
+        "    rm -f $hash.* $tmp",
+        "  fi",
+        "  [ -f $format.fmt ] || return 0",
+        "  cp $format.fmt preamble.fmt && cp index.tex index.nofmt"
+            + " && { echo '%%&preamble'; cat index.tex; } > index.tmp && mv index.tmp index.tex",
+        "}",
+        "compile_with_format() {",
+        "  prepare_format",
+        "  compile",
+        "  [ -f index.nofmt ] || return 0",
+        "  if ! head -n 1 index.log 2>/dev/null | grep -q 'format=preamble'; then",
+        "    rm -f $format.fmt preamble.fmt; touch $format.failed",
+        "    mv index.nofmt index.tex",
+        "    compile",
+        "  fi",
+        "  rm -f index.nofmt",
+        "}",
+        "");
+
     @Inject
     @Named("xwikiproperties")
     private ConfigurationSource configurationSource;
@@ -55,9 +139,93 @@ public class DefaultLaTeX2PDFConfiguration implements LaTeX2PDFConfiguration
     @Override
     public List<String> getDockerCommands()
     {
-        // Note: we run the compilation twice so that the TOC is generated properly (it requires two passes from
-        // pdflatex).
-        return Arrays.asList("sh", "-c", this.configurationSource.getProperty(PREFIX + "commands",
-            "pdflatex -shell-escape index.tex; pdflatex -shell-escape index.tex"));
+        // Note: the commands are executed again when needed (e.g. to generate the TOC), see getMaxReruns().
+        String shellEscape = isShellEscapeEnabled() ? " " + SHELL_ESCAPE : "";
+        String commands =
+            this.configurationSource.getProperty(COMMANDS, String.format("pdflatex%s index.tex", shellEscape));
+
+        String script;
+        if (isFormatCacheEnabled()) {
+            script = String.format(FORMAT_SCRIPT, getDockerImageName(), shellEscape)
+                + String.format(RERUN_SCRIPT, commands.replace("%", "%%"), "compile_with_format", getMaxReruns());
+        } else {
+            script = String.format(RERUN_SCRIPT, commands.replace("%", "%%"), "compile", getMaxReruns());
+        }
+
+        return Arrays.asList("sh", "-c", script);
+    }
+
+    @Override
+    public boolean isShellEscapeEnabled()
+    {
+        String commands = this.configurationSource.getProperty(COMMANDS, String.class);
+
+        boolean enabled;
+        if (commands != null) {
+            // The configured commands are executed as they are
+            enabled = SHELL_ESCAPE_PATTERN.matcher(commands).find();
+        } else {
+            enabled = this.configurationSource.getProperty(PREFIX + "shellEscape", getPoolSize() == 0);
+        }
+
+        return enabled;
+    }
+
+    @Override
+    public boolean isFormatCacheEnabled()
+    {
+        return this.configurationSource.getProperty(PREFIX + "formatCache", false);
+    }
+
+    @Override
+    public int getMaxReruns()
+    {
+        // Configured commands often already execute pdflatex as many times as needed (e.g. with latexmk) so they are
+        // executed again only when explicitly asked
+        int defaultReruns = this.configurationSource.containsKey(COMMANDS) ? 0 : 2;
+
+        return this.configurationSource.getProperty(PREFIX + "maxReruns", defaultReruns);
+    }
+
+    @Override
+    public int getMaxConnections()
+    {
+        return this.configurationSource.getProperty(PREFIX + "maxConnections", 100);
+    }
+
+    @Override
+    public int getConnectionTimeout()
+    {
+        return this.configurationSource.getProperty(PREFIX + "connectionTimeout", 30);
+    }
+
+    @Override
+    public int getResponseTimeout()
+    {
+        return this.configurationSource.getProperty(PREFIX + "responseTimeout", 0);
+    }
+
+    @Override
+    public int getConversionTimeout()
+    {
+        return this.configurationSource.getProperty(PREFIX + "conversionTimeout", 600);
+    }
+
+    @Override
+    public int getPoolSize()
+    {
+        return this.configurationSource.getProperty(PREFIX + "pool.size", 0);
+    }
+
+    @Override
+    public int getPoolMaxConversions()
+    {
+        return this.configurationSource.getProperty(PREFIX + "pool.maxConversions", 50);
+    }
+
+    @Override
+    public List<String> getOutputFiles()
+    {
+        return this.configurationSource.getProperty(PREFIX + "outputFiles", Arrays.asList("index.pdf"));
     }
 }
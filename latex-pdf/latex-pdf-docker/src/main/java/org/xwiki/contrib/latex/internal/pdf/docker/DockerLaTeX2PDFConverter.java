@@ -20,16 +20,29 @@
 package org.xwiki.contrib.latex.internal.pdf.docker;
 
 import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.contrib.latex.pdf.docker.LaTeX2PDFConfiguration;
 import org.xwiki.contrib.latex.pdf.LaTeX2PDFConverter;
 import org.xwiki.contrib.latex.pdf.LaTeX2PDFException;
+import org.xwiki.contrib.latex.pdf.LaTeX2PDFRequest;
 import org.xwiki.contrib.latex.pdf.LaTeX2PDFResult;
 
 import com.github.dockerjava.api.DockerClient;
@@ -55,27 +68,76 @@ import com.github.dockerjava.transport.DockerHttpClient;
 @Component
 @Named("docker")
 @Singleton
-public class DockerLaTeX2PDFConverter implements LaTeX2PDFConverter
+public class DockerLaTeX2PDFConverter implements LaTeX2PDFConverter, Initializable, Disposable
 {
     private static final String DOCKER_SOCK = "/var/run/docker.sock";
 
+    private static final String FORMATS_VOLUME = "xwiki-latex-formats";
+
+    /**
+     * Remove everything from the data directory of a pooled container, including the hidden files.
+     */
+    private static final List<String> CLEAN_DATA_COMMAND = Arrays.asList("sh", "-c", String.format(
+        "mkdir -p %1$s && find %1$s -mindepth 1 -delete", ContainerManager.ABSOLUTE_DATA_DIR));
+
     @Inject
     private Logger logger;
 
     @Inject
     private LaTeX2PDFConfiguration configuration;
 
+    /**
+     * The client shared by all the conversions, created when first needed. Its connections are pooled.
+     */
+    private SharedDockerClient sharedDockerClient;
+
+    /**
+     * The running containers in which to perform the conversions, when enabled.
+     */
+    private ContainerPool containerPool;
+
+    /**
+     * The configuration used to create {@link #containerPool}.
+     */
+    private String containerPoolConfiguration;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        if (this.configuration.getPoolSize() > 0) {
+            // Don't delay the initialization with the pull of the image and the start of the containers
+            Thread thread = new Thread(this::warmUpContainerPool, "LaTeX container pool warm-up");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
     @Override
     public LaTeX2PDFResult convert(File latexDirectory) throws LaTeX2PDFException
     {
+        LaTeX2PDFRequest request = new LaTeX2PDFRequest(latexDirectory);
+        request.setArtifacts(this.configuration.getOutputFiles());
+
+        return convert(request);
+    }
+
+    @Override
+    public LaTeX2PDFResult convert(LaTeX2PDFRequest request) throws LaTeX2PDFException
+    {
+        File latexDirectory = request.getSourceDirectory();
+        SharedDockerClient client = acquireDockerClient();
         try {
-            return convertInternal(latexDirectory);
+            return convertInternal(request, client.getClient());
         } catch (Exception e) {
+            discardDockerClientIfDisconnected(client);
+
             // Note: docker-java only throws runtime exceptions so we convert them to checked exceptions so that the
             // XWiki converter API is more expressive for the caller and follows the XWiki best practices related to
             // exception handling.
             throw new LaTeX2PDFException(
                 String.format("Failed to convert LaTeX sources inside the [%s] directory to PDF", latexDirectory), e);
+        } finally {
+            releaseDockerClient(client);
         }
     }
 
@@ -83,20 +145,54 @@ public class DockerLaTeX2PDFConverter implements LaTeX2PDFConverter
     public boolean isReady()
     {
         boolean isReady;
-        DockerClient dockerClient = getDockerClient();
+        SharedDockerClient client = acquireDockerClient();
         try {
-            dockerClient.pingCmd().exec();
+            client.getClient().pingCmd().exec();
             isReady = true;
         } catch (Exception e) {
             this.logger.debug("Docker is not ready!", e);
+            discardDockerClient(client);
             isReady = false;
+        } finally {
+            releaseDockerClient(client);
         }
         return isReady;
     }
 
-    private LaTeX2PDFResult convertInternal(File latexDirectory) throws LaTeX2PDFException
+    @Override
+    public String getConfigurationFingerprint()
+    {
+        return String.format("docker:%s:%s", this.configuration.getDockerImageName(),
+            this.configuration.getDockerCommands());
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        ContainerPool pool;
+        synchronized (this) {
+            pool = this.containerPool;
+        }
+        if (pool != null) {
+            SharedDockerClient client = acquireDockerClient();
+            try {
+                pool.close(client.getClient());
+            } finally {
+                releaseDockerClient(client);
+            }
+        }
+
+        synchronized (this) {
+            if (this.sharedDockerClient != null) {
+                discardDockerClient(this.sharedDockerClient);
+            }
+        }
+    }
+
+    private LaTeX2PDFResult convertInternal(LaTeX2PDFRequest request, DockerClient dockerClient)
+        throws LaTeX2PDFException
     {
-        DockerClient dockerClient = getDockerClient();
+        File latexDirectory = request.getSourceDirectory();
         ContainerManager manager = new ContainerManager(dockerClient);
 
         // If the image doesn't exist locally, pull it.
@@ -104,19 +200,19 @@ public class DockerLaTeX2PDFConverter implements LaTeX2PDFConverter
             manager.pullImage(this.configuration.getDockerImageName());
         }
 
+        if (this.configuration.getPoolSize() > 0) {
+            return convertInPooledContainer(request, manager, dockerClient);
+        }
+
         // Example docker run command line that we're simulating:
         //   docker run -v <local dir>:/data blang/latex:ubuntu <cmd>
         CreateContainerResponse container = null;
         String logs;
+        boolean pdfRetrieved;
         try (CreateContainerCmd command = dockerClient.createContainerCmd(this.configuration.getDockerImageName())) {
             container = command
                 .withCmd(this.configuration.getDockerCommands())
-                .withHostConfig(HostConfig.newHostConfig()
-                    .withBinds(
-                        // Make sure it also works when XWiki is running in Docker
-                        new Bind(DOCKER_SOCK, new Volume(DOCKER_SOCK))
-                    )
-                )
+                .withHostConfig(createHostConfig(false))
                 .exec();
             // Copy the latex sources in the container so that they are visible to pdflatex.
             // Note: we don't use a volume binding such as:
@@ -127,28 +223,182 @@ public class DockerLaTeX2PDFConverter implements LaTeX2PDFConverter
             // copy files from the container to the host and back to get the generated PDF and other ancillary files.
             manager.copyToContainer(container.getId(), latexDirectory);
             // Perform the compilation
-            manager.startContainer(container.getId());
+            manager.startContainer(container.getId(), this.configuration.getConversionTimeout());
             // Get container logs & display them in debug mode
             logs = manager.getLogs(container.getId());
-            // Copy the generated files back to the host. For simplicity we copy all the files.
-            // One option would be to control pdflatex and use the "--output-directory" option but that would force
-            // users who want to tweak the configuration to understand they need to output the results to a specific
-            // directory (and break backward compatibility). Thus we have chosen the transparent route FTM.
-            manager.copyToHost(container.getId(), latexDirectory);
+            // Copy the generated files back to the host. Only the requested files are copied (the PDF by default),
+            // the sources and the intermediate files (.aux, .toc, etc) are not needed on the host.
+            pdfRetrieved = retrieveArtifacts(request, manager, container.getId(), ContainerManager.ABSOLUTE_DATA_DIR);
         } finally {
             // Remove the container. Note that we cannot use autoremove since we need to get the logs and that works
             // only if the container is still running.
             if (container != null) {
-                try (RemoveContainerCmd command = dockerClient.removeContainerCmd(container.getId())) {
+                // Force the removal of the containers still running (e.g. after a timeout)
+                try (RemoveContainerCmd command = dockerClient.removeContainerCmd(container.getId()).withForce(true)) {
                     command.exec();
                 }
             }
         }
 
+        return createResult(request, pdfRetrieved, logs);
+    }
+
+    private LaTeX2PDFResult convertInPooledContainer(LaTeX2PDFRequest request, ContainerManager manager,
+        DockerClient dockerClient) throws LaTeX2PDFException
+    {
+        ContainerPool pool = getContainerPool(dockerClient);
+        ContainerPool.PooledContainer container;
+        try {
+            container = pool.acquire(dockerClient);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LaTeX2PDFException("Interrupted while waiting for a container to perform the conversion", e);
+        }
+
+        // Each conversion is performed in its own directory and the data directory is emptied before and after the
+        // conversion so that nothing is left from the previous conversions
+        String workingDirectory = String.format("%s/%s", ContainerManager.ABSOLUTE_DATA_DIR, UUID.randomUUID());
+        boolean reusable = false;
+        String logs;
+        boolean pdfRetrieved;
+        try {
+            execute(manager, container.getId(), "/", CLEAN_DATA_COMMAND);
+            execute(manager, container.getId(), "/", Arrays.asList("mkdir", "-p", workingDirectory));
+            manager.copyToContainer(container.getId(), request.getSourceDirectory(), workingDirectory);
+            // A non zero exit code is expected when the document has errors, the result depends on the generated PDF
+            // Note: a container in which the conversion timed out is not reused since it might still be running
+            logs = manager.execute(container.getId(), workingDirectory, this.configuration.getDockerCommands(),
+                this.configuration.getConversionTimeout()).getLogs();
+            pdfRetrieved = retrieveArtifacts(request, manager, container.getId(), workingDirectory);
+            execute(manager, container.getId(), "/", CLEAN_DATA_COMMAND);
+            // A conversion allowed to execute external commands could leave a process spying on the next conversions
+            reusable = !this.configuration.isShellEscapeEnabled();
+        } finally {
+            pool.release(container, reusable, dockerClient);
+        }
+
+        return createResult(request, pdfRetrieved, logs);
+    }
+
+    private void execute(ContainerManager manager, String containerId, String workingDirectory, List<String> command)
+        throws LaTeX2PDFException
+    {
+        ContainerManager.ExecutionResult result =
+            manager.execute(containerId, workingDirectory, command, this.configuration.getConversionTimeout());
+        if (!result.isSuccessful()) {
+            throw new LaTeX2PDFException(String.format("The command [%s] failed with exit code [%s]: [%s]", command,
+                result.getExitCode(), result.getLogs()));
+        }
+    }
+
+    /**
+     * Copy the requested artifacts to the source directory on the host and write the PDF to the requested stream, if
+     * any.
+     *
+     * @return true if the PDF has been written to the requested stream
+     */
+    private boolean retrieveArtifacts(LaTeX2PDFRequest request, ContainerManager manager, String containerId,
+        String containerDirectory) throws LaTeX2PDFException
+    {
+        for (String fileName : request.getArtifacts()) {
+            if (fileName.endsWith("/")) {
+                String directoryName = StringUtils.removeEnd(fileName, "/");
+                try {
+                    manager.copyToHost(containerId, String.format("%s/%s", containerDirectory, directoryName),
+                        new File(request.getSourceDirectory(), directoryName));
+                } catch (NotFoundException e) {
+                    // The directory has not been generated
+                }
+            } else {
+                manager.copyFileToHost(containerId, String.format("%s/%s", containerDirectory, fileName),
+                    new File(request.getSourceDirectory(), fileName));
+            }
+        }
+
+        boolean pdfRetrieved = false;
+        if (request.getPDFOutputStream() != null) {
+            pdfRetrieved = manager.copyFileToStream(containerId,
+                String.format("%s/%s", containerDirectory, LaTeX2PDFRequest.PDF_FILENAME),
+                request.getPDFOutputStream());
+        }
+
+        return pdfRetrieved;
+    }
+
+    private void warmUpContainerPool()
+    {
+        SharedDockerClient client = acquireDockerClient();
+        try {
+            if (!isLocalImagePresent(this.configuration.getDockerImageName(), client.getClient())) {
+                new ContainerManager(client.getClient()).pullImage(this.configuration.getDockerImageName());
+            }
+            getContainerPool(client.getClient()).warmUp(client.getClient());
+        } catch (Exception e) {
+            // The containers will be started by the first conversions
+            this.logger.warn("Failed to start the pooled containers. Root cause: [{}]",
+                ExceptionUtils.getRootCauseMessage(e));
+        } finally {
+            releaseDockerClient(client);
+        }
+    }
+
+    /**
+     * @return the pool matching the current configuration, the previous pool being closed when the configuration
+     *     (e.g. the image) changed
+     */
+    private ContainerPool getContainerPool(DockerClient dockerClient)
+    {
+        String poolConfiguration = String.format("%s:%s:%s", getConfigurationFingerprint(),
+            this.configuration.getPoolSize(), this.configuration.getPoolMaxConversions());
+
+        ContainerPool previousPool = null;
+        ContainerPool pool;
+        synchronized (this) {
+            if (this.containerPool == null || !poolConfiguration.equals(this.containerPoolConfiguration)) {
+                previousPool = this.containerPool;
+                this.containerPool = new ContainerPool(this.configuration.getDockerImageName(),
+                    createHostConfig(true), this.configuration.getPoolSize(),
+                    this.configuration.getPoolMaxConversions());
+                this.containerPoolConfiguration = poolConfiguration;
+            }
+            pool = this.containerPool;
+        }
+
+        // The containers in use by the previous pool are removed when released
+        if (previousPool != null) {
+            previousPool.close(dockerClient);
+        }
+
+        return pool;
+    }
+
+    /**
+     * @param pooled true if the configuration is for long-lived containers shared by several conversions
+     */
+    private HostConfig createHostConfig(boolean pooled)
+    {
+        List<Bind> binds = new ArrayList<>();
+        if (!pooled) {
+            // Make sure it also works when XWiki is running in Docker. Not given to the pooled containers which
+            // would otherwise be able to control the other containers.
+            binds.add(new Bind(DOCKER_SOCK, new Volume(DOCKER_SOCK)));
+        }
+        if (this.configuration.isFormatCacheEnabled()) {
+            // Keep the precompiled preambles in a named volume so that they survive the containers
+            binds.add(new Bind(FORMATS_VOLUME, new Volume(DefaultLaTeX2PDFConfiguration.FORMATS_DIRECTORY)));
+        }
+
+        return HostConfig.newHostConfig().withBinds(binds);
+    }
+
+    private LaTeX2PDFResult createResult(LaTeX2PDFRequest request, boolean pdfRetrieved, String logs)
+    {
         // Prepare results. Express an error by setting a null PDF file.
-        File pdfFile = new File(latexDirectory, "index.pdf");
+        File pdfFile = new File(request.getSourceDirectory(), LaTeX2PDFRequest.PDF_FILENAME);
         LaTeX2PDFResult result;
-        if (pdfFile.exists()) {
+        if (request.getPDFOutputStream() != null) {
+            result = new LaTeX2PDFResult(pdfRetrieved, logs);
+        } else if (pdfFile.exists()) {
             result = new LaTeX2PDFResult(pdfFile, logs);
         } else {
             result = new LaTeX2PDFResult(logs);
@@ -157,17 +407,83 @@ public class DockerLaTeX2PDFConverter implements LaTeX2PDFConverter
         return result;
     }
 
-    private DockerClient getDockerClient()
+    /**
+     * @return the shared client, to be released with {@link #releaseDockerClient(SharedDockerClient)} once the caller
+     *         doesn't use it anymore
+     */
+    private synchronized SharedDockerClient acquireDockerClient()
+    {
+        if (this.sharedDockerClient == null) {
+            this.sharedDockerClient = new SharedDockerClient(createDockerClient());
+        }
+        this.sharedDockerClient.users++;
+
+        return this.sharedDockerClient;
+    }
+
+    private synchronized void releaseDockerClient(SharedDockerClient client)
+    {
+        client.users--;
+        closeUnusedDockerClient(client);
+    }
+
+    private DockerClient createDockerClient()
     {
         DockerClientConfig config = DefaultDockerClientConfig.createDefaultConfigBuilder()
             .build();
-        DockerHttpClient httpClient = new ApacheDockerHttpClient.Builder()
+        ApacheDockerHttpClient.Builder httpClientBuilder = new ApacheDockerHttpClient.Builder()
             .dockerHost(config.getDockerHost())
             .sslConfig(config.getSSLConfig())
-            .build();
+            .maxConnections(this.configuration.getMaxConnections())
+            .connectionTimeout(Duration.ofSeconds(this.configuration.getConnectionTimeout()));
+        if (this.configuration.getResponseTimeout() > 0) {
+            httpClientBuilder.responseTimeout(Duration.ofSeconds(this.configuration.getResponseTimeout()));
+        }
+        DockerHttpClient httpClient = httpClientBuilder.build();
+
         return DockerClientImpl.getInstance(config, httpClient);
     }
 
+    /**
+     * Discard the passed client when the Docker daemon cannot be reached with it anymore (e.g. the daemon has been
+     * restarted), so that a new client is created for the next conversions. Other failures (e.g. a LaTeX error or a
+     * failure to read the sources) keep the client.
+     */
+    private void discardDockerClientIfDisconnected(SharedDockerClient client)
+    {
+        try {
+            client.getClient().pingCmd().exec();
+        } catch (Exception e) {
+            this.logger.debug("Failed to ping the Docker daemon, discarding the Docker client", e);
+            discardDockerClient(client);
+        }
+    }
+
+    /**
+     * Stop sharing the passed client. It's closed once the conversions still using it are finished.
+     */
+    private synchronized void discardDockerClient(SharedDockerClient client)
+    {
+        // Make sure the client has not already been replaced by another thread
+        if (client == this.sharedDockerClient) {
+            this.sharedDockerClient = null;
+        }
+        client.discarded = true;
+        closeUnusedDockerClient(client);
+    }
+
+    private void closeUnusedDockerClient(SharedDockerClient client)
+    {
+        if (client.discarded && client.users == 0) {
+            try {
+                client.getClient().close();
+            } catch (IOException e) {
+                this.logger.warn("Failed to close the Docker client. Root cause: [{}]",
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+    }
+
     private boolean isLocalImagePresent(String imageName, DockerClient dockerClient)
     {
         boolean exists = true;
@@ -178,4 +494,29 @@ public class DockerLaTeX2PDFConverter implements LaTeX2PDFConverter
         }
         return exists;
     }
+
+    /**
+     * A Docker client with the number of conversions using it.
+     */
+    private static final class SharedDockerClient
+    {
+        private final DockerClient client;
+
+        private int users;
+
+        /**
+         * True when the client shouldn't be used by new conversions anymore.
+         */
+        private boolean discarded;
+
+        SharedDockerClient(DockerClient client)
+        {
+            this.client = client;
+        }
+
+        DockerClient getClient()
+        {
+            return this.client;
+        }
+    }
 }
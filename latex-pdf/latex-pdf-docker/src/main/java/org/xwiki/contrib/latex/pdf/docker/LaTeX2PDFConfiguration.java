@@ -19,6 +19,7 @@
  */
 package org.xwiki.contrib.latex.pdf.docker;
 
+import java.util.Arrays;
 import java.util.List;
 
 import org.xwiki.component.annotation.Role;
@@ -45,4 +46,116 @@ public interface LaTeX2PDFConfiguration
      *         conversion, as generated by the LaTeX export.
      */
     List<String> getDockerCommands();
+
+    /**
+     * @return the maximum number of times the commands are executed again when the document is not stable yet (i.e.
+     *         when the auxiliary files such as the table of contents changed or when LaTeX asks for another run).
+     *         Default is {@code 2} with the default commands and {@code 0} when the commands are configured, since
+     *         they might already execute LaTeX several times
+     * @since 1.26.2
+     */
+    default int getMaxReruns()
+    {
+        return 2;
+    }
+
+    /**
+     * @return the maximum number of connections opened at the same time to the Docker daemon. Default is {@code 100}
+     * @since 1.26.2
+     */
+    default int getMaxConnections()
+    {
+        return 100;
+    }
+
+    /**
+     * @return the number of seconds to wait for a connection to the Docker daemon to be established. Default is
+     *         {@code 30}
+     * @since 1.26.2
+     */
+    default int getConnectionTimeout()
+    {
+        return 30;
+    }
+
+    /**
+     * @return the number of seconds to wait for the Docker daemon to answer a request, {@code 0} meaning no limit.
+     *         Note that waiting for the end of the conversion is a single request, so a limit must be higher than the
+     *         longest conversion. Default is {@code 0}
+     * @since 1.26.2
+     */
+    default int getResponseTimeout()
+    {
+        return 0;
+    }
+
+    /**
+     * @return the maximum number of seconds a conversion can take, {@code 0} meaning no limit. The container of a
+     *         conversion taking longer (e.g. because pdflatex is waiting for an input or looping) is removed. Default
+     *         is {@code 600}
+     * @since 1.26.2
+     */
+    default int getConversionTimeout()
+    {
+        return 600;
+    }
+
+    /**
+     * @return the maximum number of containers kept running to perform the conversions, {@code 0} to create a new
+     *         container for each conversion. Pooled containers don't have access to the Docker daemon and each
+     *         conversion cleans the data directory of the container before and after its execution. A container is
+     *         reused by several conversions only when shell escape is disabled (see {@link #isShellEscapeEnabled()}):
+     *         otherwise a conversion could leave a process reading the sources of the next conversions, so each
+     *         container is replaced after a single conversion and the pool only saves the start of the containers.
+     *         Default is {@code 0}
+     * @since 1.26.2
+     */
+    default int getPoolSize()
+    {
+        return 0;
+    }
+
+    /**
+     * @return the number of conversions after which a pooled container is replaced by a new one. Default is
+     *         {@code 50}
+     * @since 1.26.2
+     */
+    default int getPoolMaxConversions()
+    {
+        return 50;
+    }
+
+    /**
+     * @return true if the conversion commands can execute external commands (i.e. pdflatex is called with
+     *         {@code -shell-escape}, which some packages such as {@code minted} require). When commands are
+     *         configured, it's enabled if they contain {@code -shell-escape}. Default is {@code true} when the
+     *         containers are not pooled (see {@link #getPoolSize()}), {@code false} otherwise
+     * @since 1.26.2
+     */
+    default boolean isShellEscapeEnabled()
+    {
+        return getPoolSize() == 0;
+    }
+
+    /**
+     * @return the names of the files generated by the conversion to copy back from the container (relative to the
+     *         directory of {@code index.tex}). Default is {@code index.pdf}
+     * @since 1.26.2
+     */
+    default List<String> getOutputFiles()
+    {
+        return Arrays.asList("index.pdf");
+    }
+
+    /**
+     * @return true if the preamble of the documents should be precompiled once in a TeX format (using the
+     *         {@code mylatexformat} package, which needs to be available in the image) and reused by the next
+     *         conversions of documents having the same preamble. The formats are stored in a Docker volume. Default
+     *         is {@code false}
+     * @since 1.26.2
+     */
+    default boolean isFormatCacheEnabled()
+    {
+        return false;
+    }
 }
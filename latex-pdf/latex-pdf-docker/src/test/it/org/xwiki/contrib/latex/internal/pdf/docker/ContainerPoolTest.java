@@ -0,0 +1,174 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.pdf.docker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.CreateContainerCmd;
+import com.github.dockerjava.api.command.CreateContainerResponse;
+import com.github.dockerjava.api.command.InspectContainerCmd;
+import com.github.dockerjava.api.command.RemoveContainerCmd;
+import com.github.dockerjava.api.command.StartContainerCmd;
+import com.github.dockerjava.api.model.HostConfig;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link ContainerPool}.
+ *
+ * @version $Id$
+ */
+class ContainerPoolTest
+{
+    private static final String IMAGE = "blang/latex:ubuntu";
+
+    private static final HostConfig HOST_CONFIG = HostConfig.newHostConfig();
+
+    private final DockerClient client = mock(DockerClient.class);
+
+    private final InspectContainerCmd inspectCommand = mock(InspectContainerCmd.class, RETURNS_DEEP_STUBS);
+
+    private final AtomicInteger createdContainers = new AtomicInteger();
+
+    @BeforeEach
+    void setUp()
+    {
+        CreateContainerCmd createCommand = mock(CreateContainerCmd.class);
+        when(this.client.createContainerCmd(IMAGE)).thenReturn(createCommand);
+        when(createCommand.withCmd(anyList())).thenReturn(createCommand);
+        when(createCommand.withHostConfig(HOST_CONFIG)).thenReturn(createCommand);
+        when(createCommand.exec()).thenAnswer(invocation -> {
+            CreateContainerResponse response = mock(CreateContainerResponse.class);
+            when(response.getId()).thenReturn("container" + this.createdContainers.incrementAndGet());
+            return response;
+        });
+
+        when(this.client.startContainerCmd(anyString())).thenReturn(mock(StartContainerCmd.class));
+
+        when(this.client.inspectContainerCmd(anyString())).thenReturn(this.inspectCommand);
+        when(this.inspectCommand.exec().getState().getRunning()).thenReturn(true);
+
+        RemoveContainerCmd removeCommand = mock(RemoveContainerCmd.class);
+        when(this.client.removeContainerCmd(anyString())).thenReturn(removeCommand);
+        when(removeCommand.withForce(true)).thenReturn(removeCommand);
+    }
+
+    @Test
+    void acquireReusesReleasedContainer() throws Exception
+    {
+        ContainerPool pool = new ContainerPool(IMAGE, HOST_CONFIG, 1, 50);
+
+        ContainerPool.PooledContainer container = pool.acquire(this.client);
+        pool.release(container, true, this.client);
+
+        assertEquals(container, pool.acquire(this.client));
+        assertEquals(1, this.createdContainers.get());
+        verify(this.client, never()).removeContainerCmd(anyString());
+    }
+
+    @Test
+    void releaseReplacesNotReusableContainer() throws Exception
+    {
+        ContainerPool pool = new ContainerPool(IMAGE, HOST_CONFIG, 1, 50);
+
+        ContainerPool.PooledContainer container = pool.acquire(this.client);
+        pool.release(container, false, this.client);
+
+        verify(this.client).removeContainerCmd("container1");
+        // The replacement is started when the container is released
+        assertEquals(2, this.createdContainers.get());
+        assertEquals("container2", pool.acquire(this.client).getId());
+        assertEquals(2, this.createdContainers.get());
+    }
+
+    @Test
+    void releaseReplacesContainerAfterMaxConversions() throws Exception
+    {
+        ContainerPool pool = new ContainerPool(IMAGE, HOST_CONFIG, 1, 2);
+
+        ContainerPool.PooledContainer container = pool.acquire(this.client);
+        pool.release(container, true, this.client);
+        pool.release(pool.acquire(this.client), true, this.client);
+
+        verify(this.client).removeContainerCmd("container1");
+        assertNotEquals(container, pool.acquire(this.client));
+    }
+
+    @Test
+    void acquireReplacesStoppedContainer() throws Exception
+    {
+        ContainerPool pool = new ContainerPool(IMAGE, HOST_CONFIG, 1, 50);
+        pool.release(pool.acquire(this.client), true, this.client);
+
+        when(this.inspectCommand.exec().getState().getRunning()).thenReturn(false);
+
+        assertEquals("container2", pool.acquire(this.client).getId());
+        verify(this.client).removeContainerCmd("container1");
+    }
+
+    @Test
+    void warmUpStartsContainersUntilPoolIsFull() throws Exception
+    {
+        ContainerPool pool = new ContainerPool(IMAGE, HOST_CONFIG, 2, 50);
+
+        pool.warmUp(this.client);
+        assertEquals(2, this.createdContainers.get());
+
+        // The pool is full, even when some of its containers are in use
+        ContainerPool.PooledContainer container = pool.acquire(this.client);
+        pool.warmUp(this.client);
+        assertEquals(2, this.createdContainers.get());
+
+        pool.release(container, true, this.client);
+        pool.acquire(this.client);
+        pool.acquire(this.client);
+        assertEquals(2, this.createdContainers.get());
+        verify(this.client, times(2)).startContainerCmd(anyString());
+    }
+
+    @Test
+    void closeRemovesContainers() throws Exception
+    {
+        ContainerPool pool = new ContainerPool(IMAGE, HOST_CONFIG, 2, 50);
+        ContainerPool.PooledContainer container1 = pool.acquire(this.client);
+        pool.release(pool.acquire(this.client), true, this.client);
+
+        pool.close(this.client);
+        verify(this.client).removeContainerCmd("container2");
+
+        // The containers in use are removed when released, without being replaced
+        pool.release(container1, true, this.client);
+        verify(this.client).removeContainerCmd(container1.getId());
+        assertEquals(2, this.createdContainers.get());
+    }
+}
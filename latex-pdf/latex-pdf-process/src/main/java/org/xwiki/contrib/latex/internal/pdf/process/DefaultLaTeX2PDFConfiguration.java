@@ -42,6 +42,8 @@ public class DefaultLaTeX2PDFConfiguration implements LaTeX2PDFConfiguration
 {
     private static final String PREFIX = "latex.pdf.process.";
 
+    private static final String COMMANDS = PREFIX + "commands";
+
     private static final String DEFAULT_COMMAND = "pdflatex -shell-escape index.tex";
 
     @Inject
@@ -51,9 +53,23 @@ public class DefaultLaTeX2PDFConfiguration implements LaTeX2PDFConfiguration
     @Override
     public List<String> getCommands()
     {
-        // Note: we run the compilation twice so that the TOC is generated properly (it requires two passes from
-        // pdflatex).
-        return this.configurationSource.getProperty(PREFIX + "commands",
-            Arrays.asList(DEFAULT_COMMAND, DEFAULT_COMMAND));
+        // Note: the commands are executed again when needed (e.g. to generate the TOC), see getMaxReruns().
+        return this.configurationSource.getProperty(COMMANDS, Arrays.asList(DEFAULT_COMMAND));
+    }
+
+    @Override
+    public int getMaxReruns()
+    {
+        // Configured commands often already execute pdflatex as many times as needed (e.g. with latexmk) so they are
+        // executed again only when explicitly asked
+        int defaultReruns = this.configurationSource.containsKey(COMMANDS) ? 0 : 2;
+
+        return this.configurationSource.getProperty(PREFIX + "maxReruns", defaultReruns);
+    }
+
+    @Override
+    public boolean isFormatCacheEnabled()
+    {
+        return this.configurationSource.getProperty(PREFIX + "formatCache", false);
     }
 }
@@ -0,0 +1,250 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.pdf.process;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.ExecuteWatchdog;
+import org.apache.commons.exec.PumpStreamHandler;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.environment.Environment;
+
+/**
+ * Precompiles the preamble of the LaTeX documents (everything before {@code \begin{document}}) in a TeX format using
+ * the {@code mylatexformat} package, so that the packages it loads are not loaded again by each compilation. A format
+ * is generated once per distinct preamble and kept in the temporary directory. When pdflatex fails to load a format
+ * (e.g. because pdflatex has been upgraded since the format was generated), the document is compiled without it.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+@Component(roles = PreambleFormatCache.class)
+@Singleton
+public class PreambleFormatCache
+{
+    private static final String INDEX_FILE = "index.tex";
+
+    private static final String BEGIN_DOCUMENT = "\\begin{document}";
+
+    private static final String FORMAT_NAME = "preamble";
+
+    private static final String FORMAT_EXTENSION = ".fmt";
+
+    /**
+     * The first line added to {@code index.tex} to tell pdflatex which format to load.
+     */
+    private static final String FORMAT_LINE = "%&" + FORMAT_NAME + '\n';
+
+    /**
+     * Written by pdflatex in the first line of the logs when the format is loaded.
+     */
+    private static final String FORMAT_LOADED = "format=" + FORMAT_NAME;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * The preambles for which the format generation failed, to not try again for each conversion.
+     */
+    private final Set<String> failedPreambles = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<>();
+
+    /**
+     * Make the {@code index.tex} file of the passed directory use the precompiled format of its preamble, generating
+     * it first if needed. The directory is left untouched when the format cannot be generated.
+     *
+     * @param latexDirectory the directory containing the LaTeX files
+     * @return true if the document uses a precompiled format, see {@link #restoreIfNotLoaded(File)}
+     */
+    public boolean prepare(File latexDirectory)
+    {
+        boolean prepared = false;
+        File indexFile = new File(latexDirectory, INDEX_FILE);
+        try {
+            byte[] content = Files.readAllBytes(indexFile.toPath());
+            // The preamble is ASCII, the rest of the file doesn't matter
+            int end = new String(content, StandardCharsets.ISO_8859_1).indexOf(BEGIN_DOCUMENT);
+            File formatFile = end < 0 ? null : getFormatFile(hash(content, end), latexDirectory);
+            if (formatFile != null) {
+                Files.copy(formatFile.toPath(), new File(latexDirectory, FORMAT_NAME + FORMAT_EXTENSION).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+                // The "%&" first line tells pdflatex which format to load
+                try (OutputStream stream = Files.newOutputStream(indexFile.toPath())) {
+                    stream.write(FORMAT_LINE.getBytes(StandardCharsets.US_ASCII));
+                    stream.write(content);
+                }
+                prepared = true;
+            }
+        } catch (IOException e) {
+            this.logger.warn("Failed to use a precompiled preamble for [{}]. Root cause: [{}]", indexFile,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+
+        return prepared;
+    }
+
+    /**
+     * Check, after a compilation of a document prepared with {@link #prepare(File)}, that pdflatex loaded the format.
+     * When it didn't, the document is restored so that it's compiled without it and the format is not used anymore.
+     *
+     * @param latexDirectory the directory containing the LaTeX files
+     * @return true if the format was not loaded and the document must be compiled again
+     * @throws IOException when failing to read the logs or to restore the document
+     */
+    public boolean restoreIfNotLoaded(File latexDirectory) throws IOException
+    {
+        boolean restore = !isLoaded(latexDirectory);
+        if (restore) {
+            Path indexFile = new File(latexDirectory, INDEX_FILE).toPath();
+            byte[] content = Files.readAllBytes(indexFile);
+            byte[] originalContent = Arrays.copyOfRange(content, FORMAT_LINE.length(), content.length);
+            Files.write(indexFile, originalContent);
+            Files.deleteIfExists(new File(latexDirectory, FORMAT_NAME + FORMAT_EXTENSION).toPath());
+
+            String hash = hash(originalContent,
+                new String(originalContent, StandardCharsets.ISO_8859_1).indexOf(BEGIN_DOCUMENT));
+            this.logger.warn("Failed to load the precompiled preamble [{}], the documents using it will be converted"
+                + " without a precompiled preamble", hash);
+            this.failedPreambles.add(hash);
+            Files.deleteIfExists(getFormatsDirectory().toPath().resolve(hash + FORMAT_EXTENSION));
+        }
+
+        return restore;
+    }
+
+    private File getFormatFile(String hash, File latexDirectory) throws IOException
+    {
+        if (this.failedPreambles.contains(hash)) {
+            return null;
+        }
+
+        File formatsDirectory = getFormatsDirectory();
+        File formatFile = new File(formatsDirectory, hash + FORMAT_EXTENSION);
+
+        // Generate the format only once when several documents with the same preamble are converted at the same time
+        synchronized (this.locks.computeIfAbsent(hash, key -> new Object())) {
+            if (!formatFile.exists() && !this.failedPreambles.contains(hash)) {
+                formatsDirectory.mkdirs();
+                if (!generate(latexDirectory, formatsDirectory, formatFile.toPath())) {
+                    this.failedPreambles.add(hash);
+                }
+            }
+        }
+
+        return formatFile.exists() ? formatFile : null;
+    }
+
+    private boolean isLoaded(File latexDirectory) throws IOException
+    {
+        boolean loaded = false;
+        File logFile = new File(latexDirectory, "index.log");
+        if (logFile.isFile()) {
+            try (BufferedReader reader = Files.newBufferedReader(logFile.toPath(), StandardCharsets.ISO_8859_1)) {
+                String firstLine = reader.readLine();
+                loaded = firstLine != null && firstLine.contains(FORMAT_LOADED);
+            }
+        }
+
+        return loaded;
+    }
+
+    private File getFormatsDirectory()
+    {
+        return new File(this.environment.getTemporaryDirectory(), "latex/formats");
+    }
+
+    private boolean generate(File latexDirectory, File formatsDirectory, Path formatFile) throws IOException
+    {
+        String jobName = UUID.randomUUID().toString();
+
+        CommandLine command = new CommandLine("pdflatex");
+        command.addArgument("-ini");
+        command.addArgument("-shell-escape");
+        command.addArgument("-interaction=nonstopmode");
+        command.addArgument("-jobname=" + jobName);
+        command.addArgument("-output-directory=" + formatsDirectory.getAbsolutePath(), false);
+        command.addArgument("&pdflatex", false);
+        command.addArgument("mylatexformat.ltx");
+        command.addArgument(INDEX_FILE);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        DefaultExecutor executor = new DefaultExecutor();
+        executor.setWorkingDirectory(latexDirectory);
+        executor.setStreamHandler(new PumpStreamHandler(outputStream));
+        executor.setWatchdog(new ExecuteWatchdog(10L * 60L * 1000L));
+
+        try {
+            executor.execute(command);
+            Files.move(formatsDirectory.toPath().resolve(jobName + FORMAT_EXTENSION), formatFile,
+                StandardCopyOption.ATOMIC_MOVE);
+
+            return true;
+        } catch (IOException e) {
+            this.logger.warn("Failed to precompile the preamble of [{}], the documents using it will be converted"
+                + " without a precompiled preamble. Root cause: [{}]", latexDirectory,
+                ExceptionUtils.getRootCauseMessage(e));
+            this.logger.debug("Logs: [{}]", outputStream);
+
+            return false;
+        } finally {
+            Files.deleteIfExists(formatsDirectory.toPath().resolve(jobName + FORMAT_EXTENSION));
+            Files.deleteIfExists(formatsDirectory.toPath().resolve(jobName + ".log"));
+        }
+    }
+
+    private String hash(byte[] content, int length) throws IOException
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content, 0, length);
+
+            return String.format("%064x", new BigInteger(1, digest.digest()));
+        } catch (NoSuchAlgorithmException e) {
+            // Should never happen since all Java platforms have to support SHA-256
+            throw new IOException("Failed to create the digest of the preamble", e);
+        }
+    }
+}
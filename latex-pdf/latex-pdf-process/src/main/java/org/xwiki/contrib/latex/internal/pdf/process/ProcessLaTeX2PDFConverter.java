@@ -21,6 +21,7 @@ package org.xwiki.contrib.latex.internal.pdf.process;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 
 import javax.inject.Inject;
@@ -51,17 +52,34 @@ import org.xwiki.contrib.latex.pdf.LaTeX2PDFResult;
 @Singleton
 public class ProcessLaTeX2PDFConverter implements LaTeX2PDFConverter
 {
+    private static final String AUXILIARY_FILES_ERROR = "Failed to read the LaTeX auxiliary files";
+
     @Inject
     private Logger logger;
 
     @Inject
     private LaTeX2PDFConfiguration configuration;
 
+    @Inject
+    private PreambleFormatCache formatCache;
+
     @Override
     public LaTeX2PDFResult convert(File latexDirectory) throws LaTeX2PDFException
     {
-        for (String command : this.configuration.getCommands()) {
-            executeCommand(command, latexDirectory);
+        boolean formatPrepared = this.configuration.isFormatCacheEnabled() && this.formatCache.prepare(latexDirectory);
+
+        // Execute the commands again only while the generated document is not stable, as latexmk does
+        RerunDetector rerunDetector = new RerunDetector(latexDirectory);
+        beforeRun(rerunDetector);
+        if (formatPrepared) {
+            executeCommandsWithFormat(latexDirectory);
+        } else {
+            executeCommands(latexDirectory);
+        }
+        int reruns = 0;
+        while (reruns++ < this.configuration.getMaxReruns() && isRerunNeeded(rerunDetector)) {
+            beforeRun(rerunDetector);
+            executeCommands(latexDirectory);
         }
 
         // Check if there's a PDF file to return.
@@ -83,6 +101,65 @@ public class ProcessLaTeX2PDFConverter implements LaTeX2PDFConverter
         return true;
     }
 
+    @Override
+    public String getConfigurationFingerprint()
+    {
+        return String.format("process:%s:%d", this.configuration.getCommands(), this.configuration.getMaxReruns());
+    }
+
+    private void beforeRun(RerunDetector rerunDetector) throws LaTeX2PDFException
+    {
+        try {
+            rerunDetector.beforeRun();
+        } catch (IOException e) {
+            throw new LaTeX2PDFException(AUXILIARY_FILES_ERROR, e);
+        }
+    }
+
+    private boolean isRerunNeeded(RerunDetector rerunDetector) throws LaTeX2PDFException
+    {
+        try {
+            return rerunDetector.isRerunNeeded();
+        } catch (IOException e) {
+            throw new LaTeX2PDFException(AUXILIARY_FILES_ERROR, e);
+        }
+    }
+
+    /**
+     * Execute the commands on a document using a precompiled preamble, and again without it when pdflatex failed to
+     * load it.
+     */
+    private void executeCommandsWithFormat(File latexDirectory) throws LaTeX2PDFException
+    {
+        // pdflatex fails when it cannot load the format
+        LaTeX2PDFException error = null;
+        try {
+            executeCommands(latexDirectory);
+        } catch (LaTeX2PDFException e) {
+            error = e;
+        }
+
+        boolean restored;
+        try {
+            restored = this.formatCache.restoreIfNotLoaded(latexDirectory);
+        } catch (IOException e) {
+            throw new LaTeX2PDFException("Failed to check the use of the precompiled preamble", e);
+        }
+
+        if (restored) {
+            executeCommands(latexDirectory);
+        } else if (error != null) {
+            throw error;
+        }
+    }
+
+    private void executeCommands(File latexDirectory) throws LaTeX2PDFException
+    {
+        for (String command : this.configuration.getCommands()) {
+            executeCommand(command, latexDirectory);
+        }
+    }
+
     private void executeCommand(String commandLine, File workingDirectory) throws LaTeX2PDFException
     {
         // The command line to execute
@@ -0,0 +1,155 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.pdf.process;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Decides if pdflatex needs to be executed again, in the spirit of latexmk: the auxiliary files read by pdflatex
+ * changed during the last run or pdflatex asked for it in its logs.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+public class RerunDetector
+{
+    /**
+     * The messages written in the logs by LaTeX and its packages when another run is needed.
+     */
+    private static final Pattern RERUN_PATTERN = Pattern.compile("Rerun to get|Rerun LaTeX|Please rerun LaTeX");
+
+    private static final String AUX_FILE = "index.aux";
+
+    /**
+     * The files written during a run and only read at the beginning of the next run (table of contents, list of
+     * figures and list of tables).
+     */
+    private static final List<String> TABLE_FILES = Arrays.asList("index.toc", "index.lof", "index.lot");
+
+    private static final String LOG_FILE = "index.log";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File latexDirectory;
+
+    private Map<String, String> checksums;
+
+    /**
+     * @param latexDirectory the directory in which pdflatex is executed
+     */
+    public RerunDetector(File latexDirectory)
+    {
+        this.latexDirectory = latexDirectory;
+    }
+
+    /**
+     * Remember the state of the auxiliary files before a run.
+     *
+     * @throws IOException when failing to read the auxiliary files
+     */
+    public void beforeRun() throws IOException
+    {
+        this.checksums = computeChecksums();
+    }
+
+    /**
+     * @return true if pdflatex should be executed again
+     * @throws IOException when failing to read the auxiliary files or the logs
+     */
+    public boolean isRerunNeeded() throws IOException
+    {
+        Map<String, String> newChecksums = computeChecksums();
+
+        // The aux file is always created by the first run, without it meaning that its content is needed: LaTeX warns
+        // by itself when the labels changed. So only a modification of an existing aux file requires a new run.
+        String auxChecksum = this.checksums.get(AUX_FILE);
+        if (auxChecksum != null && !auxChecksum.equals(newChecksums.get(AUX_FILE))) {
+            return true;
+        }
+
+        for (String tableFile : TABLE_FILES) {
+            if (!Objects.equals(this.checksums.get(tableFile), newChecksums.get(tableFile))) {
+                return true;
+            }
+        }
+
+        return hasRerunHint();
+    }
+
+    private boolean hasRerunHint() throws IOException
+    {
+        File logFile = new File(this.latexDirectory, LOG_FILE);
+        if (!logFile.isFile()) {
+            return false;
+        }
+
+        // TeX logs are not necessarily valid UTF-8 but the hints are ASCII
+        String logs = new String(Files.readAllBytes(logFile.toPath()), StandardCharsets.ISO_8859_1);
+
+        return RERUN_PATTERN.matcher(logs).find();
+    }
+
+    private Map<String, String> computeChecksums() throws IOException
+    {
+        Map<String, String> result = new HashMap<>();
+        result.put(AUX_FILE, computeChecksum(AUX_FILE));
+        for (String tableFile : TABLE_FILES) {
+            result.put(tableFile, computeChecksum(tableFile));
+        }
+
+        return result;
+    }
+
+    private String computeChecksum(String fileName) throws IOException
+    {
+        File file = new File(this.latexDirectory, fileName);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // Should never happen since all Java platforms have to support MD5
+            throw new IOException("Failed to create the digest for the auxiliary files", e);
+        }
+        try (InputStream stream = Files.newInputStream(file.toPath())) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int read = stream.read(buffer); read != -1; read = stream.read(buffer)) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        return Arrays.toString(digest.digest());
+    }
+}
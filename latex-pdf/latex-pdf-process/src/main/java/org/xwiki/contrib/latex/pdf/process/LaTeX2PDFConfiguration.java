@@ -38,4 +38,27 @@ public interface LaTeX2PDFConfiguration
      * @return the local process commands to execute to convert the LaTeX files to PDF
      */
     List<String> getCommands();
+
+    /**
+     * @return the maximum number of times the commands are executed again when the document is not stable yet (i.e.
+     *         when the auxiliary files such as the table of contents changed or when LaTeX asks for another run).
+     *         Default is {@code 2} with the default commands and {@code 0} when the commands are configured, since
+     *         they might already execute LaTeX several times
+     * @since 1.26.2
+     */
+    default int getMaxReruns()
+    {
+        return 2;
+    }
+
+    /**
+     * @return true if the preamble of the documents should be precompiled once in a TeX format (using the
+     *         {@code mylatexformat} package, which needs to be installed) and reused by the next conversions of
+     *         documents having the same preamble. Default is {@code false}
+     * @since 1.26.2
+     */
+    default boolean isFormatCacheEnabled()
+    {
+        return false;
+    }
 }
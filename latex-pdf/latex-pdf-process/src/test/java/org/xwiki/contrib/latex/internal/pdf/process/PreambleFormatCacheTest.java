@@ -0,0 +1,131 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.pdf.process;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.xwiki.environment.Environment;
+import org.xwiki.test.LogLevel;
+import org.xwiki.test.junit5.LogCaptureExtension;
+import org.xwiki.test.junit5.XWikiTempDir;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link PreambleFormatCache}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class PreambleFormatCacheTest
+{
+    private static final String DOCUMENT = "\\documentclass{article}\n\\begin{document}\nContent\n\\end{document}\n";
+
+    private static final String DOCUMENT_WITH_FORMAT = "%&preamble\n" + DOCUMENT;
+
+    @InjectMockComponents
+    private PreambleFormatCache formatCache;
+
+    @MockComponent
+    private Environment environment;
+
+    @XWikiTempDir
+    private File tmpDir;
+
+    @RegisterExtension
+    LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.WARN);
+
+    private File latexDirectory;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        when(this.environment.getTemporaryDirectory()).thenReturn(new File(this.tmpDir, "tmp"));
+        this.latexDirectory = new File(this.tmpDir, "latex");
+        this.latexDirectory.mkdirs();
+        write("index.tex", DOCUMENT_WITH_FORMAT);
+        write("preamble.fmt", "format");
+    }
+
+    @Test
+    void restoreIfNotLoadedWhenFormatIsLoaded() throws Exception
+    {
+        write("index.log", "This is pdfTeX, Version 3.141592653 (preloaded format=preamble 2024.1.1)\nOutput");
+
+        assertFalse(this.formatCache.restoreIfNotLoaded(this.latexDirectory));
+
+        assertEquals(DOCUMENT_WITH_FORMAT, read("index.tex"));
+        assertTrue(new File(this.latexDirectory, "preamble.fmt").exists());
+    }
+
+    @Test
+    void restoreIfNotLoadedWhenFormatIsNotLoaded() throws Exception
+    {
+        write("index.log", "This is pdfTeX, Version 3.141592653 (preloaded format=pdflatex 2024.1.1)\n"
+            + "! Fatal format file error; I'm stymied.");
+
+        assertTrue(this.formatCache.restoreIfNotLoaded(this.latexDirectory));
+
+        assertEquals(DOCUMENT, read("index.tex"));
+        assertFalse(new File(this.latexDirectory, "preamble.fmt").exists());
+        assertTrue(this.logCapture.getMessage(0).startsWith("Failed to load the precompiled preamble ["));
+    }
+
+    @Test
+    void restoreIfNotLoadedWithoutLogs() throws Exception
+    {
+        assertTrue(this.formatCache.restoreIfNotLoaded(this.latexDirectory));
+
+        assertEquals(DOCUMENT, read("index.tex"));
+        assertTrue(this.logCapture.getMessage(0).startsWith("Failed to load the precompiled preamble ["));
+    }
+
+    @Test
+    void prepareWithoutDocument() throws Exception
+    {
+        write("index.tex", "\\input{other}");
+
+        assertFalse(this.formatCache.prepare(this.latexDirectory));
+
+        assertEquals("\\input{other}", read("index.tex"));
+    }
+
+    private void write(String fileName, String content) throws Exception
+    {
+        Files.write(new File(this.latexDirectory, fileName).toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(String fileName) throws Exception
+    {
+        return new String(Files.readAllBytes(new File(this.latexDirectory, fileName).toPath()),
+            StandardCharsets.UTF_8);
+    }
+}
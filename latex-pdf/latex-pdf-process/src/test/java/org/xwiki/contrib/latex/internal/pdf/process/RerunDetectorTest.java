@@ -0,0 +1,124 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal.pdf.process;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link RerunDetector}.
+ *
+ * @version $Id$
+ */
+class RerunDetectorTest
+{
+    @TempDir
+    File latexDirectory;
+
+    private RerunDetector rerunDetector;
+
+    @BeforeEach
+    void setUp()
+    {
+        this.rerunDetector = new RerunDetector(this.latexDirectory);
+    }
+
+    @Test
+    void isRerunNeededWhenNothingChanged() throws Exception
+    {
+        write("index.aux", "\\relax");
+        write("index.toc", "\\contentsline");
+
+        this.rerunDetector.beforeRun();
+
+        assertFalse(this.rerunDetector.isRerunNeeded());
+    }
+
+    @Test
+    void isRerunNeededWhenAuxFileIsCreated() throws Exception
+    {
+        this.rerunDetector.beforeRun();
+        write("index.aux", "\\relax");
+
+        // LaTeX warns by itself when the labels of a new aux file are needed
+        assertFalse(this.rerunDetector.isRerunNeeded());
+    }
+
+    @Test
+    void isRerunNeededWhenAuxFileChanged() throws Exception
+    {
+        write("index.aux", "\\relax");
+        this.rerunDetector.beforeRun();
+        write("index.aux", "\\relax\\newlabel{section}{{1}{1}}");
+
+        assertTrue(this.rerunDetector.isRerunNeeded());
+    }
+
+    @Test
+    void isRerunNeededWhenTableOfContentsIsCreated() throws Exception
+    {
+        this.rerunDetector.beforeRun();
+        write("index.toc", "\\contentsline");
+
+        assertTrue(this.rerunDetector.isRerunNeeded());
+    }
+
+    @Test
+    void isRerunNeededWhenListOfFiguresChanged() throws Exception
+    {
+        write("index.lof", "\\contentsline");
+        this.rerunDetector.beforeRun();
+        write("index.lof", "\\contentsline\\contentsline");
+
+        assertTrue(this.rerunDetector.isRerunNeeded());
+    }
+
+    @Test
+    void isRerunNeededWhenAskedInLogs() throws Exception
+    {
+        this.rerunDetector.beforeRun();
+        write("index.log",
+            "LaTeX Warning: Label(s) may have changed. Rerun to get cross-references right.");
+
+        assertTrue(this.rerunDetector.isRerunNeeded());
+    }
+
+    @Test
+    void isRerunNeededWithLogsWithoutHint() throws Exception
+    {
+        this.rerunDetector.beforeRun();
+        write("index.log", "Output written on index.pdf (1 page, 1234 bytes).");
+
+        assertFalse(this.rerunDetector.isRerunNeeded());
+    }
+
+    private void write(String fileName, String content) throws Exception
+    {
+        Files.write(new File(this.latexDirectory, fileName).toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
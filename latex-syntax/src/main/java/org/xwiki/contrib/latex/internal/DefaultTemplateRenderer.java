@@ -20,6 +20,7 @@
 package org.xwiki.contrib.latex.internal;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -32,6 +33,8 @@ import javax.script.ScriptContext;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
 import org.xwiki.context.ExecutionContextException;
@@ -57,6 +60,8 @@ public class DefaultTemplateRenderer implements TemplateRenderer
 
     private static final String LATEX_BINDING_RESOURCE_CONVERTER = "resourceConverter";
 
+    private static final String PROCESSOR = "processor";
+
     @Inject
     private Logger logger;
 
@@ -90,12 +95,19 @@ public class DefaultTemplateRenderer implements TemplateRenderer
     @Named("plain/1.0")
     private BlockRenderer blockRender;
 
+    @Inject
+    @Named("context")
+    private Provider<ComponentManager> componentManagerProvider;
+
+    @Inject
+    private TemplateCache templateCache;
+
     @Override
     public void render(Collection<Block> blocks, WikiPrinter printer)
     {
         try {
             TemplateProcessor processor = initializeProcessor();
-            printer.print(processor.process(blocks));
+            processor.process(blocks, new WikiPrinterWriter(printer));
         } catch (Exception e) {
             this.logger.warn("Failed to render LaTeX templates. Reason [{}].", ExceptionUtils.getRootCauseMessage(e));
         } finally {
@@ -108,7 +120,7 @@ public class DefaultTemplateRenderer implements TemplateRenderer
     {
         try {
             TemplateProcessor processor = initializeProcessor();
-            printer.print(processor.render(relativeTemplateName));
+            processor.render(relativeTemplateName, new WikiPrinterWriter(printer));
         } catch (Exception e) {
             this.logger.warn("Failed to render LaTeX template [{}]. Reason [{}].", relativeTemplateName,
                 ExceptionUtils.getRootCauseMessage(e));
@@ -117,7 +129,13 @@ public class DefaultTemplateRenderer implements TemplateRenderer
         }
     }
 
-    private TemplateProcessor initializeProcessor() throws ExecutionContextException
+    @Override
+    public BlockRenderer createDocumentRenderer()
+    {
+        return new DocumentRenderer();
+    }
+
+    private TemplateProcessor initializeProcessor() throws ExecutionContextException, ComponentLookupException
     {
         // Push a new Execution Context for the template rendering. Note that we need to copy the "latex" binding if
         // it exists since this code can be called by the LaTeX exporter for example which sets config options in this
@@ -140,8 +158,9 @@ public class DefaultTemplateRenderer implements TemplateRenderer
 
         TemplateProcessor processor =
             new TemplateProcessor(this.templateManager, latexBinding, this.filter, this.uiExtensionManager,
-                this.blockRender);
-        latexBinding.put("processor", processor);
+                this.blockRender, this.componentManagerProvider.get().getInstanceMap(NativeBlockRenderer.class),
+                this.templateCache);
+        latexBinding.put(PROCESSOR, processor);
         latexBinding.put("tool", this.latexTool);
 
         // If there's no resource converter in the latex binding then set up a no op one so that there's always the
@@ -164,4 +183,42 @@ public class DefaultTemplateRenderer implements TemplateRenderer
             latexBinding.put(LATEX_BINDING_RESOURCE_CONVERTER, this.noOpResourceConverterProvider.get());
         }
     }
+
+    /**
+     * Renders the parts of a document with the same execution context and template processor.
+     */
+    private final class DocumentRenderer implements BlockRenderer
+    {
+        private ExecutionContext context;
+
+        private TemplateProcessor processor;
+
+        @Override
+        public void render(Block block, WikiPrinter printer)
+        {
+            render(Collections.singletonList(block), printer);
+        }
+
+        @Override
+        public void render(Collection<Block> blocks, WikiPrinter printer)
+        {
+            try {
+                if (this.processor == null) {
+                    this.processor = initializeProcessor();
+                    this.context = DefaultTemplateRenderer.this.execution.getContext();
+                } else {
+                    DefaultTemplateRenderer.this.execution.pushContext(this.context);
+                    // Another processor might have been used in between
+                    ((Map<String, Object>) DefaultTemplateRenderer.this.scriptContextManager.getCurrentScriptContext()
+                        .getAttribute(SC_LATEX)).put(PROCESSOR, this.processor);
+                }
+                this.processor.process(blocks, new WikiPrinterWriter(printer));
+            } catch (Exception e) {
+                DefaultTemplateRenderer.this.logger.warn("Failed to render LaTeX templates. Reason [{}].",
+                    ExceptionUtils.getRootCauseMessage(e));
+            } finally {
+                DefaultTemplateRenderer.this.execution.popContext();
+            }
+        }
+    }
 }
@@ -0,0 +1,67 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ * Stores the files making up a LaTeX package (pages, images, attachments, etc). Implementations must be thread-safe
+ * since several documents can be converted to LaTeX at the same time.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+public interface LaTeXFileStore
+{
+    /**
+     * @param path the path of the file, relative to the root of the LaTeX package
+     * @return true if a file has already been stored at the passed path
+     */
+    boolean contains(String path);
+
+    /**
+     * Store a file, unless a file has already been stored at the same path.
+     *
+     * @param path the path of the file, relative to the root of the LaTeX package
+     * @param inputStream the content of the file
+     * @return true if the file has been stored, false if a file was already stored at the passed path
+     * @throws IOException in case of an error when storing the file
+     */
+    boolean store(String path, InputStream inputStream) throws IOException;
+
+    /**
+     * Store a file, unless a file has already been stored at the same path. Implementations can reference the passed
+     * file instead of copying its content, so it should not be modified afterwards.
+     *
+     * @param path the path of the file, relative to the root of the LaTeX package
+     * @param file the file to store
+     * @return true if the file has been stored, false if a file was already stored at the passed path
+     * @throws IOException in case of an error when storing the file
+     */
+    default boolean store(String path, File file) throws IOException
+    {
+        try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+            return store(path, inputStream);
+        }
+    }
+}
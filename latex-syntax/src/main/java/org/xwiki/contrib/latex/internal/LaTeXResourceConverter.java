@@ -22,9 +22,11 @@ package org.xwiki.contrib.latex.internal;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
 
 import org.xwiki.component.annotation.Role;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.rendering.block.Block;
 import org.xwiki.rendering.block.ImageBlock;
 import org.xwiki.rendering.block.LinkBlock;
 import org.xwiki.rendering.listener.reference.ResourceReference;
@@ -44,6 +46,14 @@ public interface LaTeXResourceConverter
      */
     void initialize(EntityReference currentReference, OutputStream outputStream);
 
+    /**
+     * @param currentReference the current document reference, used to resolve references to absolute references
+     * @param fileStore the store to which copied resources should be written to, possibly shared with other
+     *        converters working on other documents of the same LaTeX package
+     * @since 1.26.2
+     */
+    void initialize(EntityReference currentReference, LaTeXFileStore fileStore);
+
     /**
      * Convert a {@link ResourceReference}'s reference so that it has the right reference when serialized into the
      * LaTeX output. For example this can mean converting the reference of an image attachment reference into a
@@ -96,4 +106,18 @@ public interface LaTeXResourceConverter
      * @since 1.13
      */
     void store(String path, InputStream inputStream) throws IOException;
+
+    /**
+     * Start fetching in the background the resources used by the passed content (e.g. the attached images), so that
+     * they're already stored when the content is rendered. Does nothing by default, the resources being then fetched
+     * when converting their reference.
+     *
+     * @param block the content which is going to be rendered
+     * @param executor the executor on which to fetch the resources
+     * @since 1.26.2
+     */
+    default void prefetch(Block block, ExecutorService executor)
+    {
+        // Resources are fetched when converting their reference
+    }
 }
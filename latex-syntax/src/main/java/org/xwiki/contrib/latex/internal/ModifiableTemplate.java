@@ -46,6 +46,15 @@ public class ModifiableTemplate implements Template
         this.content = new ModifiableTemplateContent(wrappedTemplate.getContent(), filter);
     }
 
+    /**
+     * @return the original Template object
+     * @since 1.26.2
+     */
+    public Template getWrappedTemplate()
+    {
+        return this.wrappedTemplate;
+    }
+
     @Override
     public String getId()
     {
@@ -43,6 +43,11 @@ public class ModifiableTemplateContent implements TemplateContent
 
     private VelocityContext velocityContext = new VelocityContext();
 
+    /**
+     * The filtered content, computed only once since the same template is evaluated for many blocks.
+     */
+    private volatile String filteredContent;
+
     /**
      * @param wrappedTemplateContent the original TemplateContent object we're wrapping
      * @param filter the Velocity filter to apply to the template content if the source is written in Velocity
@@ -55,6 +60,16 @@ public class ModifiableTemplateContent implements TemplateContent
 
     @Override
     public String getContent()
+    {
+        String result = this.filteredContent;
+        if (result == null) {
+            result = filterContent();
+            this.filteredContent = result;
+        }
+        return result;
+    }
+
+    private String filterContent()
     {
         String rawContent;
 
@@ -78,6 +93,7 @@ public class ModifiableTemplateContent implements TemplateContent
     public void setContent(String content)
     {
         this.content = content;
+        this.filteredContent = null;
     }
 
     @Override
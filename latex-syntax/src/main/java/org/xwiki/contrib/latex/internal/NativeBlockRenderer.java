@@ -0,0 +1,49 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.rendering.block.Block;
+
+/**
+ * Renders a given type of {@link Block} to LaTeX directly in Java, without evaluating a Velocity template. This is
+ * used for the blocks that are rendered very often (words, spaces, symbols) and for which the template evaluation cost
+ * dominates the export time. The hint of the component is the name of the template it replaces (e.g.
+ * {@code WordBlock}).
+ * <p>
+ * Note that a native renderer is only used when the default template is not overridden (by a wiki or a skin template)
+ * and when no UI Extension is registered before or after it, so that customizations keep working as before.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+@Role
+public interface NativeBlockRenderer
+{
+    /**
+     * @param block the block to render
+     * @param writer the writer to which the LaTeX output is written
+     * @throws IOException if the writer fails
+     */
+    void render(Block block, Writer writer) throws IOException;
+}
@@ -49,6 +49,12 @@ public class NoOpLaTeXResourceConverter implements LaTeXResourceConverter
         // Nothing to do
     }
 
+    @Override
+    public void initialize(EntityReference currentReference, LaTeXFileStore fileStore)
+    {
+        // Nothing to do
+    }
+
     @Override
     public ResourceReference convert(ResourceReference reference, String baseResourceReference, boolean forceDownload)
     {
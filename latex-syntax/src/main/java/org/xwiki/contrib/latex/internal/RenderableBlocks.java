@@ -0,0 +1,82 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+
+import org.apache.velocity.context.InternalContextAdapter;
+import org.apache.velocity.runtime.Renderable;
+import org.xwiki.rendering.block.Block;
+
+/**
+ * Blocks to be evaluated by a {@link TemplateProcessor} when rendered by Velocity, so that the result of the
+ * evaluation is written directly in the output of the calling template.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+public class RenderableBlocks implements Renderable
+{
+    private final TemplateProcessor processor;
+
+    private final Collection<Block> blocks;
+
+    private String result;
+
+    /**
+     * @param processor the processor used to evaluate the blocks
+     * @param blocks the blocks to evaluate
+     */
+    public RenderableBlocks(TemplateProcessor processor, Collection<Block> blocks)
+    {
+        this.processor = processor;
+        this.blocks = blocks;
+    }
+
+    @Override
+    public boolean render(InternalContextAdapter context, Writer writer) throws IOException
+    {
+        if (this.result != null) {
+            // Already evaluated through toString()
+            writer.write(this.result);
+        } else {
+            this.processor.process(this.blocks, writer);
+        }
+
+        return true;
+    }
+
+    /**
+     * Evaluate the blocks when the result is used as a String (e.g. when it's assigned to a variable with
+     * {@code #set} and then manipulated). The result is computed only once.
+     *
+     * @return the result of processing the blocks
+     */
+    @Override
+    public String toString()
+    {
+        if (this.result == null) {
+            this.result = this.processor.process(this.blocks);
+        }
+        return this.result;
+    }
+}
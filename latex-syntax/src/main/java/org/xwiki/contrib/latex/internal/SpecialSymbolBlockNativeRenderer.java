@@ -0,0 +1,75 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.SpecialSymbolBlock;
+
+/**
+ * Java equivalent of the {@code SpecialSymbolBlock} default template.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+@Component
+@Named("SpecialSymbolBlock")
+@Singleton
+public class SpecialSymbolBlockNativeRenderer implements NativeBlockRenderer
+{
+    @Override
+    public void render(Block block, Writer writer) throws IOException
+    {
+        char symbol = ((SpecialSymbolBlock) block).getSymbol();
+        switch (symbol) {
+            case '#':
+            case '&':
+            case '$':
+            case '%':
+            case '_':
+                writer.write('\\');
+                writer.write(symbol);
+                break;
+            case '\\':
+                writer.write("\\textbackslash{}");
+                break;
+            case '^':
+                writer.write("\\^{}");
+                break;
+            case '<':
+                writer.write("\\textless{}");
+                break;
+            case '>':
+                writer.write("\\textgreater{}");
+                break;
+            case '|':
+                writer.write("\\textbar{}");
+                break;
+            default:
+                writer.write(symbol);
+        }
+    }
+}
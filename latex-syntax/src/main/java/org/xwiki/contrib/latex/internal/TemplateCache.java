@@ -0,0 +1,161 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.skin.Skin;
+import org.xwiki.skin.SkinManager;
+import org.xwiki.template.Template;
+
+/**
+ * Keeps the LaTeX templates resolved by the {@link org.xwiki.template.TemplateManager} (and wrapped in a
+ * {@link ModifiableTemplate} which caches their filtered content) so that they're not looked up again for each
+ * rendered block and each export. Missing templates are cached too since most blocks don't have an override template.
+ * <p>
+ * Since the resolved template depends on the current wiki and skin, they are part of the cache key. Entries are
+ * invalidated by {@link TemplateCacheInvalidationListener} when documents or extensions are modified.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+@Component(roles = TemplateCache.class)
+@Singleton
+public class TemplateCache
+{
+    /**
+     * Functional interface for resolving a template when it's not in the cache.
+     */
+    @FunctionalInterface
+    public interface TemplateResolver
+    {
+        /**
+         * @param fullTemplateName the name of the template to resolve
+         * @return the resolved template or {@code null} if there's no template with this name
+         * @throws Exception if the template cannot be resolved
+         */
+        Template resolve(String fullTemplateName) throws Exception;
+    }
+
+    /**
+     * There are around 50 LaTeX templates, which each can be resolved in two locations, for each wiki and skin.
+     */
+    private static final int MAX_ENTRIES = 1000;
+
+    private static final char SEPARATOR = '/';
+
+    @Inject
+    private ModelContext modelContext;
+
+    @Inject
+    private Provider<SkinManager> skinManagerProvider;
+
+    @Inject
+    private Logger logger;
+
+    private final Map<String, Optional<Template>> templates = new LinkedHashMap<String, Optional<Template>>(16,
+        0.75F, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Optional<Template>> eldest)
+        {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * @param fullTemplateName the name of the template to get (e.g. {@code latex/default/WordBlock})
+     * @param resolver used to resolve the template when it's not in the cache
+     * @return the template, empty if there's no template with this name
+     * @throws Exception if the template cannot be resolved
+     */
+    public Optional<Template> getTemplate(String fullTemplateName, TemplateResolver resolver) throws Exception
+    {
+        String key = getKey(fullTemplateName);
+
+        Optional<Template> template;
+        synchronized (this.templates) {
+            template = this.templates.get(key);
+        }
+
+        if (template == null) {
+            // Note: resolve the template outside of the lock since it can be slow. The worst that can happen is that
+            // 2 threads resolve the same template at the same time.
+            template = Optional.ofNullable(resolver.resolve(fullTemplateName));
+            synchronized (this.templates) {
+                this.templates.put(key, template);
+            }
+        }
+
+        return template;
+    }
+
+    /**
+     * Remove all cached templates.
+     */
+    public void invalidateAll()
+    {
+        synchronized (this.templates) {
+            this.templates.clear();
+        }
+    }
+
+    private String getKey(String fullTemplateName)
+    {
+        return getCurrentWiki() + SEPARATOR + getCurrentSkin() + SEPARATOR + fullTemplateName;
+    }
+
+    private String getCurrentWiki()
+    {
+        EntityReference currentReference = this.modelContext.getCurrentEntityReference();
+        EntityReference wikiReference =
+            currentReference != null ? currentReference.extractReference(EntityType.WIKI) : null;
+
+        return wikiReference != null ? wikiReference.getName() : "";
+    }
+
+    private String getCurrentSkin()
+    {
+        String skinId;
+        try {
+            Skin skin = this.skinManagerProvider.get().getCurrentSkin(false);
+            skinId = skin != null ? skin.getId() : "";
+        } catch (Exception e) {
+            // The LaTeX syntax can be used outside of a XWiki request (in which case there's no skin).
+            this.logger.debug("Failed to get the current skin. Reason [{}]", ExceptionUtils.getRootCauseMessage(e));
+            skinId = "";
+        }
+        return skinId;
+    }
+}
@@ -19,11 +19,18 @@
  */
 package org.xwiki.contrib.latex.internal;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
@@ -33,6 +40,7 @@ import org.xwiki.rendering.macro.velocity.filter.VelocityMacroFilter;
 import org.xwiki.rendering.renderer.BlockRenderer;
 import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
 import org.xwiki.template.Template;
+import org.xwiki.template.TemplateContent;
 import org.xwiki.template.TemplateManager;
 import org.xwiki.uiextension.UIExtension;
 
@@ -50,6 +58,26 @@ public class TemplateProcessor
 
     private static final String BLOCK = "block";
 
+    private static final String TEMPLATE_LOCATION = "latex/%s";
+
+    private static final String DEFAULT_TEMPLATE_LOCATION = "latex/default/%s";
+
+    /**
+     * The content of the default templates bundled with this module, indexed by full template name, used to check if
+     * a skin or a wiki overrides them. An empty value means that the template is not bundled.
+     */
+    private static final Map<String, Optional<String>> BUNDLED_TEMPLATES = new ConcurrentHashMap<>();
+
+    private static final String LATEX_TEMPLATE_PARAMETER = "latex-template";
+
+    private static final String BEFORE = "before";
+
+    private static final String AFTER = "after";
+
+    private static final String SORT_BY_PARAMETER = "sortByParameter";
+
+    private static final String ORDER = "order";
+
     private TemplateManager templateManager;
 
     private VelocityMacroFilter filter;
@@ -60,6 +88,22 @@ public class TemplateProcessor
 
     private BlockRenderer blockRenderer;
 
+    private Map<String, NativeBlockRenderer> nativeRenderers;
+
+    private TemplateCache templateCache;
+
+    /**
+     * The templates already resolved by this processor, indexed by full template name. This avoids computing the
+     * {@link TemplateCache} key for each rendered block.
+     */
+    private Map<String, Optional<Template>> resolvedTemplates = new HashMap<>();
+
+    /**
+     * Cache of the native renderers which can be used for the current processing, indexed by template name. An empty
+     * value means that the template is customized (overridden or extended with UI Extensions) and must be evaluated.
+     */
+    private Map<String, Optional<NativeBlockRenderer>> usableNativeRenderers = new HashMap<>();
+
     /**
      * @param templateManager the template manager used to locate, get and execute template content
      * @param latexBinding the script context "latex" binding into which we can inject new "bindings" for the template
@@ -70,12 +114,33 @@ public class TemplateProcessor
      */
     public TemplateProcessor(TemplateManager templateManager, Map<String, Object> latexBinding,
         VelocityMacroFilter filter, UIExtensionManager uiExtensionManager, BlockRenderer blockRenderer)
+    {
+        this(templateManager, latexBinding, filter, uiExtensionManager, blockRenderer, Collections.emptyMap(), null);
+    }
+
+    /**
+     * @param templateManager the template manager used to locate, get and execute template content
+     * @param latexBinding the script context "latex" binding into which we can inject new "bindings" for the template
+     *        evaluation
+     * @param filter the Velocity filter to apply to the template content if the source is written in Velocity
+     * @param uiExtensionManager the UI extension manager to resolve the {@link UIExtension}s for the templates
+     * @param blockRenderer the block renderer used to render the {@link UIExtension}s for the templates
+     * @param nativeRenderers the Java renderers to use instead of the default templates, indexed by template name
+     * @param templateCache the cache of resolved templates shared between the processors, {@code null} if the
+     *        templates should be resolved again by each processor
+     * @since 1.26.2
+     */
+    public TemplateProcessor(TemplateManager templateManager, Map<String, Object> latexBinding,
+        VelocityMacroFilter filter, UIExtensionManager uiExtensionManager, BlockRenderer blockRenderer,
+        Map<String, NativeBlockRenderer> nativeRenderers, TemplateCache templateCache)
     {
         this.templateManager = templateManager;
         this.latexBinding = latexBinding;
         this.filter = filter;
         this.uiExtensionManager = uiExtensionManager;
         this.blockRenderer = blockRenderer;
+        this.nativeRenderers = nativeRenderers;
+        this.templateCache = templateCache;
     }
 
     /**
@@ -87,20 +152,35 @@ public class TemplateProcessor
     public String process(Collection<Block> blocks)
     {
         StringWriter writer = new StringWriter();
+        process(blocks, writer);
+        return writer.toString();
+    }
+
+    /**
+     * Evaluate the passed Blocks by finding matching LaTeX templates and executing Velocity on them, writing the result
+     * to the passed writer. The output of a failing template is removed, so that it doesn't leave a partial (e.g.
+     * unbalanced) output. To do so, the output is buffered while templates are evaluated, in a single buffer shared by
+     * the nested blocks as long as they are processed with the writer passed to the templates.
+     *
+     * @param blocks the rendering blocks to evaluate
+     * @param writer the writer to which the result of processing all blocks is written
+     * @since 1.26.2
+     */
+    public void process(Collection<Block> blocks, Writer writer)
+    {
+        TruncatableWriter output =
+            writer instanceof TruncatableWriter ? (TruncatableWriter) writer : new TruncatableWriter(writer);
         for (Block block : blocks) {
             Block currentBlock = (Block) this.latexBinding.get(BLOCK);
             try {
                 this.latexBinding.put(BLOCK, block);
                 String templateName = getTemplateName(block);
-                renderUIXs(templateName, "before").ifPresent(writer::write);
-                Template template = getTemplate(templateName);
-                if (template != null) {
-                    writer.write(render(template));
+                Optional<NativeBlockRenderer> nativeRenderer = getNativeRenderer(block, templateName);
+                if (nativeRenderer.isPresent()) {
+                    nativeRenderer.get().render(block, output);
                 } else {
-                    // Ignore the template and render children
-                    writer.write(process(block.getChildren()));
+                    process(block, templateName, output);
                 }
-                renderUIXs(templateName, "after").ifPresent(writer::write);
             } catch (Exception e) {
                 LOGGER.warn("Failed to evaluate template for Block [{}]. Reason [{}]. Skipping template",
                     block.getClass().getName(), ExceptionUtils.getRootCauseMessage(e));
@@ -113,7 +193,20 @@ public class TemplateProcessor
                 }
             }
         }
-        return writer.toString();
+    }
+
+    /**
+     * Same as {@link #process(Collection)} but the blocks are only evaluated when the returned object is rendered by
+     * Velocity, which writes the result directly in the output of the calling template instead of creating an
+     * intermediate String. To be used in templates as {@code $latex.processor.stream($latex.block.children)}.
+     *
+     * @param blocks the rendering blocks to evaluate
+     * @return an object evaluating the blocks when rendered by Velocity
+     * @since 1.26.2
+     */
+    public RenderableBlocks stream(Collection<Block> blocks)
+    {
+        return new RenderableBlocks(this, blocks);
     }
 
     /**
@@ -123,16 +216,10 @@ public class TemplateProcessor
      */
     public Template getTemplate(String relativeTemplateName) throws Exception
     {
-        LOGGER.debug("Loading template [{}]", relativeTemplateName);
-        String fullTemplateName = String.format("latex/%s", relativeTemplateName);
-        Template template = this.templateManager.getTemplate(fullTemplateName);
+        Template template = getResolvedTemplate(String.format(TEMPLATE_LOCATION, relativeTemplateName));
         if (template == null) {
             // Try to find a default template.
-            fullTemplateName = String.format("latex/default/%s", relativeTemplateName);
-            template = this.templateManager.getTemplate(fullTemplateName);
-        }
-        if (template != null) {
-            template = new ModifiableTemplate(template, this.filter);
+            template = getResolvedTemplate(String.format(DEFAULT_TEMPLATE_LOCATION, relativeTemplateName));
         }
         return template;
     }
@@ -143,13 +230,22 @@ public class TemplateProcessor
      * @throws Exception if the template fails to render
      */
     public String render(Template template) throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        render(template, writer);
+        return writer.toString();
+    }
+
+    /**
+     * @param template the template to render
+     * @param writer the writer to which the result of the Template execution is written
+     * @throws Exception if the template fails to render
+     * @since 1.26.2
+     */
+    public void render(Template template, Writer writer) throws Exception
     {
         if (template != null) {
-            StringWriter writer = new StringWriter();
             this.templateManager.render(template, writer);
-            return writer.toString();
-        } else {
-            return "";
         }
     }
 
@@ -163,16 +259,156 @@ public class TemplateProcessor
         return render(getTemplate(templateName));
     }
 
+    /**
+     * @param templateName the name of the template to render
+     * @param writer the writer to which the result of the Template execution is written
+     * @throws Exception if the template fails to render
+     * @since 1.26.2
+     */
+    public void render(String templateName, Writer writer) throws Exception
+    {
+        render(getTemplate(templateName), writer);
+    }
+
+    private void process(Block block, String templateName, TruncatableWriter writer) throws Exception
+    {
+        int position = writer.mark();
+        try {
+            write(renderUIXs(templateName, BEFORE), writer);
+            Template template = getTemplate(templateName);
+            if (template != null) {
+                render(template, writer);
+            } else {
+                // Ignore the template and render children
+                process(block.getChildren(), writer);
+            }
+            write(renderUIXs(templateName, AFTER), writer);
+        } catch (Exception e) {
+            // Don't write anything if the template fails
+            writer.truncate(position);
+            throw e;
+        } finally {
+            writer.release();
+        }
+    }
+
+    private Template getResolvedTemplate(String fullTemplateName) throws Exception
+    {
+        Optional<Template> template = this.resolvedTemplates.get(fullTemplateName);
+        if (template == null) {
+            if (this.templateCache != null) {
+                template = this.templateCache.getTemplate(fullTemplateName, this::resolveTemplate);
+            } else {
+                template = Optional.ofNullable(resolveTemplate(fullTemplateName));
+            }
+            this.resolvedTemplates.put(fullTemplateName, template);
+        }
+        return template.orElse(null);
+    }
+
+    private Template resolveTemplate(String fullTemplateName) throws Exception
+    {
+        LOGGER.debug("Loading template [{}]", fullTemplateName);
+        Template template = this.templateManager.getTemplate(fullTemplateName);
+        if (template != null) {
+            template = new ModifiableTemplate(template, this.filter);
+        }
+        return template;
+    }
+
     private String getTemplateName(Block block)
     {
         // If there's a custom template defined in the Block parameter's, use it!
-        String templateName = block.getParameter("latex-template");
+        String templateName = block.getParameter(LATEX_TEMPLATE_PARAMETER);
         if (templateName == null) {
             templateName = block.getClass().getSimpleName();
         }
         return templateName;
     }
 
+    private Optional<NativeBlockRenderer> getNativeRenderer(Block block, String templateName)
+    {
+        // Native renderers only know how to handle the block type they were written for.
+        if (block.getParameter(LATEX_TEMPLATE_PARAMETER) != null) {
+            return Optional.empty();
+        }
+
+        Optional<NativeBlockRenderer> nativeRenderer = this.usableNativeRenderers.get(templateName);
+        if (nativeRenderer == null) {
+            nativeRenderer = Optional.ofNullable(this.nativeRenderers.get(templateName));
+            if (nativeRenderer.isPresent() && isCustomized(templateName)) {
+                nativeRenderer = Optional.empty();
+            }
+            this.usableNativeRenderers.put(templateName, nativeRenderer);
+        }
+        return nativeRenderer;
+    }
+
+    private boolean isCustomized(String templateName)
+    {
+        boolean customized;
+        try {
+            // The default templates are located in "latex/default/", anything found in "latex/" is an override. The
+            // default templates can also be overridden by a skin or a wiki.
+            customized = getResolvedTemplate(String.format(TEMPLATE_LOCATION, templateName)) != null
+                || !isBundledTemplate(String.format(DEFAULT_TEMPLATE_LOCATION, templateName))
+                || hasUIXs(templateName, BEFORE) || hasUIXs(templateName, AFTER);
+        } catch (Exception e) {
+            LOGGER.debug("Failed to check if template [{}] is customized. Using the template instead of the native "
+                + "renderer. Reason [{}]", templateName, ExceptionUtils.getRootCauseMessage(e));
+            customized = true;
+        }
+        return customized;
+    }
+
+    private boolean isBundledTemplate(String fullTemplateName) throws Exception
+    {
+        Template template = getResolvedTemplate(fullTemplateName);
+        if (template instanceof ModifiableTemplate) {
+            // Compare the content before it's filtered
+            template = ((ModifiableTemplate) template).getWrappedTemplate();
+        }
+        TemplateContent content = template != null ? template.getContent() : null;
+        Optional<String> bundledContent =
+            BUNDLED_TEMPLATES.computeIfAbsent(fullTemplateName, TemplateProcessor::readBundledTemplate);
+
+        return content != null && bundledContent.isPresent() && bundledContent.get().equals(content.getContent());
+    }
+
+    private static Optional<String> readBundledTemplate(String fullTemplateName)
+    {
+        Optional<String> content = Optional.empty();
+        try (InputStream stream =
+            TemplateProcessor.class.getClassLoader().getResourceAsStream("templates/" + fullTemplateName))
+        {
+            if (stream != null) {
+                content = Optional.of(new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Failed to read the default template [{}]. Reason [{}]", fullTemplateName,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+        return content;
+    }
+
+    private boolean hasUIXs(String templateName, String suffix)
+    {
+        return !this.uiExtensionManager.getExtensions(getUIXPId(templateName, suffix),
+            singletonMap(SORT_BY_PARAMETER, ORDER)).isEmpty();
+    }
+
+    private String getUIXPId(String templateName, String suffix)
+    {
+        return String.format("org.xwiki.contrib.latex.%s.%s", templateName, suffix);
+    }
+
+    private void write(Optional<String> content, Writer writer) throws IOException
+    {
+        if (content.isPresent()) {
+            writer.write(content.get());
+        }
+    }
+
     private Optional<String> renderUIXs(String templateName, String suffix)
     {
         // The XDOM template case is particular, the after UIXP needs to be located before "\end{document}" which closes
@@ -180,10 +416,8 @@ public class TemplateProcessor
         Optional<String> result;
         if (!templateName.equals("XDOM")) {
             // Get the extensions sorted by their "order" parameter.
-            List<UIExtension> extensions =
-                this.uiExtensionManager.getExtensions(
-                    String.format("org.xwiki.contrib.latex.%s.%s", templateName, suffix),
-                    singletonMap("sortByParameter", "order"));
+            List<UIExtension> extensions = this.uiExtensionManager.getExtensions(getUIXPId(templateName, suffix),
+                singletonMap(SORT_BY_PARAMETER, ORDER));
             if (extensions.isEmpty()) {
                 result = Optional.empty();
             } else {
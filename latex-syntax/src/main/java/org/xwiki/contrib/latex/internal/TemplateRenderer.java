@@ -20,9 +20,11 @@
 package org.xwiki.contrib.latex.internal;
 
 import java.util.Collection;
+import java.util.Collections;
 
 import org.xwiki.component.annotation.Role;
 import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.renderer.BlockRenderer;
 import org.xwiki.rendering.renderer.printer.WikiPrinter;
 
 /**
@@ -47,4 +49,29 @@ public interface TemplateRenderer
      * @param printer the result of the rendering
      */
     void render(String relativeTemplateName, WikiPrinter printer);
+
+    /**
+     * @return a renderer to use when a document is rendered in several parts (e.g. its top level blocks one after the
+     *         other), which reuses the same execution context and template processor for all the parts instead of
+     *         creating new ones for each of them. It's not thread safe. The default implementation renders each part
+     *         with {@link #render(Collection, WikiPrinter)}, without reusing anything
+     * @since 1.26.2
+     */
+    default BlockRenderer createDocumentRenderer()
+    {
+        return new BlockRenderer()
+        {
+            @Override
+            public void render(Block block, WikiPrinter printer)
+            {
+                render(Collections.singletonList(block), printer);
+            }
+
+            @Override
+            public void render(Collection<Block> blocks, WikiPrinter printer)
+            {
+                TemplateRenderer.this.render(blocks, printer);
+            }
+        };
+    }
 }
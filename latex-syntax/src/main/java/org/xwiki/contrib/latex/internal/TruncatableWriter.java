@@ -0,0 +1,120 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes directly to the wrapped writer, except while a position is marked: the output is then kept in a single
+ * buffer until the outermost mark is released, so that it can be truncated back to any marked position (e.g. to drop
+ * the partial output of a failing template). Nested marks share the same buffer, so nothing is copied for each
+ * nesting level.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+public class TruncatableWriter extends Writer
+{
+    private final Writer writer;
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    private int marks;
+
+    /**
+     * @param writer the writer to which the output is written once no position is marked anymore
+     */
+    public TruncatableWriter(Writer writer)
+    {
+        this.writer = writer;
+    }
+
+    /**
+     * Start buffering the output, until the matching {@link #release()}.
+     *
+     * @return the current position, to be passed to {@link #truncate(int)}
+     */
+    public int mark()
+    {
+        this.marks++;
+        return this.buffer.length();
+    }
+
+    /**
+     * Remove what has been written since the passed position.
+     *
+     * @param position a position returned by {@link #mark()} and not released yet
+     */
+    public void truncate(int position)
+    {
+        this.buffer.setLength(position);
+    }
+
+    /**
+     * Release the last marked position. The buffered output is written to the wrapped writer when no position is
+     * marked anymore.
+     *
+     * @throws IOException when failing to write the buffered output
+     */
+    public void release() throws IOException
+    {
+        this.marks--;
+        if (this.marks == 0 && this.buffer.length() > 0) {
+            this.writer.append(this.buffer);
+            this.buffer.setLength(0);
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException
+    {
+        if (this.marks > 0) {
+            this.buffer.append(cbuf, off, len);
+        } else {
+            this.writer.write(cbuf, off, len);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException
+    {
+        if (this.marks > 0) {
+            this.buffer.append(str, off, off + len);
+        } else {
+            this.writer.write(str, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        if (this.marks == 0) {
+            this.writer.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        // The wrapped writer is managed by the caller
+        flush();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal;
+
+import java.io.Writer;
+
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+
+/**
+ * Exposes a {@link WikiPrinter} as a {@link Writer} so that templates can write directly to the printer.
+ *
+ * @version $Id$
+ * @since 1.26.2
+ */
+public class WikiPrinterWriter extends Writer
+{
+    private final WikiPrinter printer;
+
+    /**
+     * @param printer the printer to write to
+     */
+    public WikiPrinterWriter(WikiPrinter printer)
+    {
+        this.printer = printer;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len)
+    {
+        if (len > 0) {
+            this.printer.print(new String(cbuf, off, len));
+        }
+    }
+
+    @Override
+    public void write(String str)
+    {
+        if (!str.isEmpty()) {
+            this.printer.print(str);
+        }
+    }
+
+    @Override
+    public void flush()
+    {
+        // The printer doesn't support flushing
+    }
+
+    @Override
+    public void close()
+    {
+        // The printer is managed by the caller
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.latex.internal;
+
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.skin.Skin;
+import org.xwiki.skin.SkinManager;
+import org.xwiki.template.Template;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link TemplateCache}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class TemplateCacheTest
+{
+    private static final String TEMPLATE_NAME = "latex/WordBlock";
+
+    @InjectMockComponents
+    private TemplateCache templateCache;
+
+    @MockComponent
+    private ModelContext modelContext;
+
+    @MockComponent
+    private SkinManager skinManager;
+
+    @Mock
+    private TemplateCache.TemplateResolver resolver;
+
+    @BeforeEach
+    void setUp()
+    {
+        when(this.modelContext.getCurrentEntityReference()).thenReturn(new WikiReference("wiki"));
+        Skin skin = mock(Skin.class);
+        when(skin.getId()).thenReturn("flamingo");
+        when(this.skinManager.getCurrentSkin(false)).thenReturn(skin);
+    }
+
+    @Test
+    void getTemplateIsCached() throws Exception
+    {
+        Template template = mock(Template.class);
+        when(this.resolver.resolve(TEMPLATE_NAME)).thenReturn(template);
+
+        assertSame(template, this.templateCache.getTemplate(TEMPLATE_NAME, this.resolver).get());
+        assertSame(template, this.templateCache.getTemplate(TEMPLATE_NAME, this.resolver).get());
+
+        verify(this.resolver).resolve(TEMPLATE_NAME);
+    }
+
+    @Test
+    void getMissingTemplateIsCached() throws Exception
+    {
+        assertFalse(this.templateCache.getTemplate(TEMPLATE_NAME, this.resolver).isPresent());
+        assertFalse(this.templateCache.getTemplate(TEMPLATE_NAME, this.resolver).isPresent());
+
+        verify(this.resolver).resolve(TEMPLATE_NAME);
+    }
+
+    @Test
+    void getTemplateIsCachedPerWiki() throws Exception
+    {
+        this.templateCache.getTemplate(TEMPLATE_NAME, this.resolver);
+        when(this.modelContext.getCurrentEntityReference()).thenReturn(new WikiReference("otherwiki"));
+        this.templateCache.getTemplate(TEMPLATE_NAME, this.resolver);
+
+        verify(this.resolver, times(2)).resolve(TEMPLATE_NAME);
+    }
+
+    @Test
+    void getTemplateWithoutSkin() throws Exception
+    {
+        when(this.skinManager.getCurrentSkin(false)).thenThrow(new RuntimeException("no context"));
+
+        Optional<Template> template = this.templateCache.getTemplate(TEMPLATE_NAME, this.resolver);
+
+        assertFalse(template.isPresent());
+        verify(this.resolver).resolve(any());
+    }
+
+    @Test
+    void invalidateAll() throws Exception
+    {
+        this.templateCache.getTemplate(TEMPLATE_NAME, this.resolver);
+        this.templateCache.invalidateAll();
+        this.templateCache.getTemplate(TEMPLATE_NAME, this.resolver);
+
+        verify(this.resolver, times(2)).resolve(TEMPLATE_NAME);
+    }
+}
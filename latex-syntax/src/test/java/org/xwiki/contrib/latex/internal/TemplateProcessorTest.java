@@ -19,18 +19,29 @@
  */
 package org.xwiki.contrib.latex.internal;
 
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
+import org.apache.commons.lang3.StringUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
 import org.mockito.Mock;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.GroupBlock;
 import org.xwiki.rendering.block.WordBlock;
 import org.xwiki.rendering.block.XDOM;
 import org.xwiki.rendering.macro.velocity.filter.VelocityMacroFilter;
 import org.xwiki.rendering.renderer.BlockRenderer;
 import org.xwiki.rendering.renderer.printer.WikiPrinter;
+import org.xwiki.template.Template;
+import org.xwiki.template.TemplateContent;
 import org.xwiki.template.TemplateManager;
 import org.xwiki.test.LogLevel;
 import org.xwiki.test.junit5.LogCaptureExtension;
@@ -38,13 +49,17 @@ import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.MockComponent;
 import org.xwiki.uiextension.UIExtension;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -80,6 +95,9 @@ class TemplateProcessorTest
     @Mock
     private UIExtension wordBlockAfterUIX;
 
+    @Mock
+    private NativeBlockRenderer wordBlockNativeRenderer;
+
     @RegisterExtension
     LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.WARN);
 
@@ -129,4 +147,239 @@ class TemplateProcessorTest
         verify(this.uiExtensionManager, never()).getExtensions(any(), any());
         verify(this.uiExtensionManager, never()).getExtensions(any(), any());
     }
+
+    @Test
+    void processUsesNativeRendererWhenNotCustomized() throws Exception
+    {
+        TemplateProcessor processor = createProcessorWithNativeRenderer();
+        doAnswer(invocation -> {
+            invocation.<Writer>getArgument(1).write("native");
+            return null;
+        }).when(this.wordBlockNativeRenderer).render(any(), any());
+
+        assertEquals("nativenative", processor.process(asList(new WordBlock("Hello"), new WordBlock("World"))));
+
+        // The customization check is done only once per processor.
+        verify(this.templateManager).getTemplate("latex/WordBlock");
+        verify(this.templateManager).getTemplate("latex/default/WordBlock");
+    }
+
+    @Test
+    void processDoesNotUseNativeRendererWhenUIXExists() throws Exception
+    {
+        TemplateProcessor processor = createProcessorWithNativeRenderer();
+        when(this.wordBlockBeforeUIX.execute()).thenReturn(new WordBlock("before"));
+        doAnswer(invocation -> {
+            invocation.<WikiPrinter>getArgument(1).print(invocation.<WordBlock>getArgument(0).getWord());
+            return null;
+        }).when(this.blockRenderer).render(any(WordBlock.class), any());
+        doReturn(singletonList(this.wordBlockBeforeUIX))
+            .when(this.uiExtensionManager)
+            .getExtensions("org.xwiki.contrib.latex.WordBlock.before", GET_EXTENSIONS_FILTERS);
+
+        assertEquals("before\n", processor.process(singletonList(new WordBlock("Hello"))));
+        verify(this.wordBlockNativeRenderer, never()).render(any(), any());
+    }
+
+    @Test
+    void processDoesNotUseNativeRendererWhenTemplateIsOverridden() throws Exception
+    {
+        TemplateProcessor processor = createProcessorWithNativeRenderer();
+        Template template = mock(Template.class);
+        when(this.templateManager.getTemplate("latex/WordBlock")).thenReturn(template);
+        doAnswer(invocation -> {
+            invocation.<Writer>getArgument(1).write("override");
+            return null;
+        }).when(this.templateManager).render(any(Template.class), any());
+
+        assertEquals("override", processor.process(singletonList(new WordBlock("Hello"))));
+        verify(this.wordBlockNativeRenderer, never()).render(any(), any());
+    }
+
+    @Test
+    void processDoesNotUseNativeRendererWhenDefaultTemplateIsOverridden() throws Exception
+    {
+        TemplateProcessor processor = createProcessorWithNativeRenderer();
+        // E.g. a skin or a wiki overriding the default template
+        Template template = mockTemplate("$latex.block.getWord()");
+        when(this.templateManager.getTemplate("latex/default/WordBlock")).thenReturn(template);
+        doAnswer(invocation -> {
+            invocation.<Writer>getArgument(1).write("override");
+            return null;
+        }).when(this.templateManager).render(any(Template.class), any());
+
+        assertEquals("override", processor.process(singletonList(new WordBlock("Hello"))));
+        verify(this.wordBlockNativeRenderer, never()).render(any(), any());
+    }
+
+    @Test
+    void processDoesNotUseNativeRendererWithCustomTemplateParameter() throws Exception
+    {
+        TemplateProcessor processor = createProcessorWithNativeRenderer();
+        WordBlock block = new WordBlock("Hello");
+        block.setParameter("latex-template", "WordBlock");
+
+        processor.process(singletonList(block));
+        verify(this.wordBlockNativeRenderer, never()).render(same(block), any());
+    }
+
+    @Test
+    void processSkipsTheOutputOfFailingTemplates() throws Exception
+    {
+        Template template = mock(Template.class);
+        when(this.templateManager.getTemplate("latex/WordBlock")).thenReturn(template);
+        doAnswer(invocation -> {
+            invocation.<Writer>getArgument(1).write("\\begin{partial}");
+            throw new Exception("error");
+        }).when(this.templateManager).render(any(Template.class), any());
+
+        assertEquals("", this.templateProcessor.process(singletonList(new WordBlock("Hello"))));
+        assertEquals("Failed to evaluate template for Block [org.xwiki.rendering.block.WordBlock]. "
+            + "Reason [Exception: error]. Skipping template", this.logCapture.getMessage(0));
+    }
+
+    @Test
+    void processNestedBlocksWithASingleBuffer() throws Exception
+    {
+        Map<String, Object> latexBinding = new HashMap<>();
+        TemplateProcessor processor = new TemplateProcessor(this.templateManager, latexBinding, this.filter,
+            this.uiExtensionManager, this.blockRenderer);
+        Template template = mock(Template.class);
+        when(this.templateManager.getTemplate("latex/GroupBlock")).thenReturn(template);
+        Set<Writer> writers = new HashSet<>();
+        doAnswer(invocation -> {
+            Writer writer = invocation.getArgument(1);
+            writers.add(writer);
+            writer.write("{");
+            processor.process(((Block) latexBinding.get("block")).getChildren(), writer);
+            writer.write("}");
+            return null;
+        }).when(this.templateManager).render(same(template), any());
+
+        Block block = new WordBlock("Hello");
+        for (int i = 0; i < 100; i++) {
+            block = new GroupBlock(singletonList(block));
+        }
+        CountingWriter writer = new CountingWriter();
+        processor.process(singletonList(block), writer);
+
+        String expected = StringUtils.repeat('{', 100) + "Hello" + StringUtils.repeat('}', 100);
+        assertEquals(expected, writer.toString());
+        // The output is written once, and all the nesting levels wrote to the same buffer.
+        assertEquals(expected.length(), writer.count);
+        assertEquals(1, writers.size());
+    }
+
+    @Test
+    void processSkipsTheOutputOfNestedFailingTemplates() throws Exception
+    {
+        Map<String, Object> latexBinding = new HashMap<>();
+        TemplateProcessor processor = new TemplateProcessor(this.templateManager, latexBinding, this.filter,
+            this.uiExtensionManager, this.blockRenderer);
+        Template groupTemplate = mock(Template.class);
+        when(this.templateManager.getTemplate("latex/GroupBlock")).thenReturn(groupTemplate);
+        doAnswer(invocation -> {
+            Writer writer = invocation.getArgument(1);
+            writer.write("{");
+            processor.process(((Block) latexBinding.get("block")).getChildren(), writer);
+            writer.write("}");
+            return null;
+        }).when(this.templateManager).render(same(groupTemplate), any());
+        Template wordTemplate = mock(Template.class);
+        when(this.templateManager.getTemplate("latex/WordBlock")).thenReturn(wordTemplate);
+        doAnswer(invocation -> {
+            WordBlock block = (WordBlock) latexBinding.get("block");
+            invocation.<Writer>getArgument(1).write("\\begin{" + block.getWord() + "}");
+            if (block.getWord().equals("failing")) {
+                throw new Exception("error");
+            }
+            invocation.<Writer>getArgument(1).write("\\end{" + block.getWord() + "}");
+            return null;
+        }).when(this.templateManager).render(same(wordTemplate), any());
+
+        Block block = new GroupBlock(asList(new WordBlock("before"),
+            new GroupBlock(singletonList(new WordBlock("failing"))), new WordBlock("after")));
+
+        assertEquals("{\\begin{before}\\end{before}{}\\begin{after}\\end{after}}",
+            processor.process(singletonList(block)));
+        assertEquals("Failed to evaluate template for Block [org.xwiki.rendering.block.WordBlock]. "
+            + "Reason [Exception: error]. Skipping template", this.logCapture.getMessage(0));
+    }
+
+    @Test
+    void streamWritesInTheTemplateOutput() throws Exception
+    {
+        TemplateProcessor processor = createProcessorWithNativeRenderer();
+        doAnswer(invocation -> {
+            invocation.<Writer>getArgument(1).write(invocation.<WordBlock>getArgument(0).getWord());
+            return null;
+        }).when(this.wordBlockNativeRenderer).render(any(), any());
+
+        RenderableBlocks blocks = processor.stream(asList(new WordBlock("Hello"), new WordBlock("World")));
+        StringWriter writer = new StringWriter();
+        assertTrue(blocks.render(null, writer));
+        assertEquals("HelloWorld", writer.toString());
+    }
+
+    @Test
+    void streamToStringIsEvaluatedOnce() throws Exception
+    {
+        TemplateProcessor processor = createProcessorWithNativeRenderer();
+        doAnswer(invocation -> {
+            invocation.<Writer>getArgument(1).write(invocation.<WordBlock>getArgument(0).getWord());
+            return null;
+        }).when(this.wordBlockNativeRenderer).render(any(), any());
+
+        RenderableBlocks blocks = processor.stream(singletonList(new WordBlock("Hello")));
+        assertEquals("Hello", blocks.toString());
+        StringWriter writer = new StringWriter();
+        blocks.render(null, writer);
+        assertEquals("Hello", writer.toString());
+
+        verify(this.wordBlockNativeRenderer).render(any(), any());
+    }
+
+    private TemplateProcessor createProcessorWithNativeRenderer() throws Exception
+    {
+        // The default template bundled with the module
+        String content;
+        try (InputStream stream =
+            getClass().getClassLoader().getResourceAsStream("templates/latex/default/WordBlock"))
+        {
+            content = new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        Template template = mockTemplate(content);
+        when(this.templateManager.getTemplate("latex/default/WordBlock")).thenReturn(template);
+
+        return new TemplateProcessor(this.templateManager, new HashMap<>(), this.filter, this.uiExtensionManager,
+            this.blockRenderer, singletonMap("WordBlock", this.wordBlockNativeRenderer), null);
+    }
+
+    private Template mockTemplate(String content) throws Exception
+    {
+        Template template = mock(Template.class);
+        TemplateContent templateContent = mock(TemplateContent.class);
+        when(template.getContent()).thenReturn(templateContent);
+        when(templateContent.getContent()).thenReturn(content);
+        return template;
+    }
+
+    private static class CountingWriter extends StringWriter
+    {
+        private int count;
+
+        @Override
+        public void write(char[] cbuf, int off, int len)
+        {
+            this.count += len;
+            super.write(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len)
+        {
+            this.count += len;
+            super.write(str, off, len);
+        }
+    }
 }